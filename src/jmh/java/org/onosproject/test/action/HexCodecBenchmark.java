@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HexCodec against the helpers AppComponent had before it, i.e. Integer.toHexString() per
+ * byte: the short and byte fields, a 16-byte value and the 11-byte VLC header.
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args=HexCodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexCodecBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private final short[] shorts = new short[VALUES];
+    private final byte[] bytes = new byte[VALUES];
+    private final byte[][] arrays = new byte[VALUES][16];
+    private int i;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int n = 0; n < VALUES; n++) {
+            shorts[n] = (short) random.nextInt();
+            bytes[n] = (byte) random.nextInt();
+            random.nextBytes(arrays[n]);
+        }
+    }
+
+    private int next() {
+        i = (i + 1) & (VALUES - 1);
+        return i;
+    }
+
+    @Benchmark
+    public String shortLegacy() {
+        return short2HexStr(shorts[next()]);
+    }
+
+    @Benchmark
+    public String shortCodec() {
+        return HexCodec.toHex(shorts[next()]);
+    }
+
+    @Benchmark
+    public String byteLegacy() {
+        return byte2HexStr(bytes[next()]);
+    }
+
+    @Benchmark
+    public String byteCodec() {
+        return HexCodec.toHex(bytes[next()]);
+    }
+
+    @Benchmark
+    public String bytesLegacy() {
+        return bytes_to_hex_str(arrays[next()]);
+    }
+
+    @Benchmark
+    public String bytesCodec() {
+        return HexCodec.toHex(arrays[next()]);
+    }
+
+    @Benchmark
+    public void vlcHeaderLegacy(Blackhole bh) {
+        int n = next();
+        StringBuilder vlc_header = new StringBuilder();
+        vlc_header.append(short2HexStr((short) 0x1918));
+        vlc_header.append(short2HexStr(shorts[n]));
+        vlc_header.append(byte2HexStr(bytes[n]));
+        vlc_header.append(short2HexStr((short) 1));
+        vlc_header.append(short2HexStr((short) 2));
+        vlc_header.append(short2HexStr((short) 3));
+        bh.consume(vlc_header.toString());
+    }
+
+    /* as install_pof_add_vlc_header_entry() builds it. */
+    @Benchmark
+    public void vlcHeaderCodec(Blackhole bh) {
+        int n = next();
+        StringBuilder vlc_header = new StringBuilder(2 * 11);
+        HexCodec.append(vlc_header, 0x1918, 2);
+        HexCodec.append(vlc_header, shorts[n], 2);
+        HexCodec.append(vlc_header, bytes[n] & 0xff, 1);
+        HexCodec.append(vlc_header, 1, 2);
+        HexCodec.append(vlc_header, 2, 2);
+        HexCodec.append(vlc_header, 3, 2);
+        bh.consume(vlc_header.toString());
+    }
+
+    /* the helpers of AppComponent before HexCodec, as they were. */
+
+    private static String short2HexStr(short shortNum) {
+        byte[] b = new byte[2];
+        b[1] = (byte) (shortNum & 0xff);
+        b[0] = (byte) ((shortNum >> 8) & 0xff);
+
+        return bytes_to_hex_str(b);
+    }
+
+    private static String byte2HexStr(byte byteNum) {
+        String hex = Integer.toHexString(byteNum & 0xff);
+        if (hex.length() == 1) {
+            hex = '0' + hex;
+        }
+        return hex;
+    }
+
+    private static String bytes_to_hex_str(byte[] b) {
+        StringBuilder hex_str = new StringBuilder();
+        for (int i = 0; i < b.length; i++) {
+            String hex = Integer.toHexString(b[i] & 0xff);
+            if (hex.length() == 1) {
+                hex = '0' + hex;
+            }
+            hex_str.append(hex);
+        }
+        return hex_str.toString();
+    }
+}
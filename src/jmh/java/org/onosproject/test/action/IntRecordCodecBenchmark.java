@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IntRecordCodec against the raw IntJournal layout of RECORD_BYTES per record: records
+ * encoded and decoded per second, and the bytes each takes ('bytesPerRecord', the raw
+ * layout is always 40).
+ *
+ * The records are INT packets of a few flows over a 6-hop path, as in pofTestStart4(),
+ * with mapInfo 0x3f (all fields) or 0x01 (dpid only).
+ *
+ * mvn -Pjmh test-compile exec:exec -Djmh.args=IntRecordCodecBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntRecordCodecBenchmark {
+
+    private static final int RECORDS = 6 * 4096;
+    private static final int FLOWS = 16;
+    private static final int HOPS = 6;
+
+    @Param({"3f", "01"})
+    public String mapInfo;
+
+    /* the fields of record i at i * 12, as HopHandler takes them */
+    private final long[] records = new long[RECORDS * 12];
+
+    private final IntRecordCodec.Encoder encoder = new IntRecordCodec.Encoder();
+    private final IntRecordCodec.Decoder decoder = new IntRecordCodec.Decoder();
+    private final ByteBuffer encoded = ByteBuffer.allocateDirect(RECORDS * IntRecordCodec.MAX_RECORD_BYTES);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(RECORDS * IntRecordCodec.MAX_RECORD_BYTES);
+    private final ByteBuffer raw = ByteBuffer.allocateDirect(RECORDS * IntJournal.RECORD_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer stream;
+
+    /**
+     * encoded bytes per record, reported next to the throughput.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+        public long records;
+        public long bytes;
+
+        public double bytesPerRecord() {
+            return records == 0 ? 0 : (double) bytes / records;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        int m = (int) HexCodec.toLong(mapInfo);
+        Random random = new Random(1);
+        long time = 1_000_000;
+        long[] bandwidth = new long[HOPS];
+        for (int i = 0; i < RECORDS; i += HOPS) {
+            int flow = random.nextInt(FLOWS);
+            time += random.nextInt(2);
+            for (int hop = 0; hop < HOPS; hop++) {
+                bandwidth[hop] += random.nextInt(1500);
+                long[] r = {time, 0x0a000001 + flow, 0x0a000002, m, hop, HOPS,
+                        HOPS - hop, 1, 2, time * 1_000_000 + random.nextInt(1000) - hop * 5000,
+                        random.nextInt(200), bandwidth[hop] & 0xffffffffL};
+                System.arraycopy(r, 0, records, (i + hop) * 12, 12);
+            }
+        }
+        /* one stream of all the records, decoded from its start by each decode invocation */
+        encoder.reset();
+        encoder.output(encoded);
+        for (int i = 0; i < RECORDS; i++) {
+            encode(i);
+        }
+        encoded.flip();
+        stream = encoded.duplicate();
+        for (int i = 0; i < RECORDS; i++) {
+            raw(i);
+        }
+    }
+
+    private boolean encode(int i) {
+        int o = i * 12;
+        long[] r = records;
+        return encoder.encode(r[o], (int) r[o + 1], (int) r[o + 2], (int) r[o + 3], (int) r[o + 4], (int) r[o + 5],
+                              r[o + 6], (int) r[o + 7], (int) r[o + 8], r[o + 9], (int) r[o + 10], r[o + 11]);
+    }
+
+    private void raw(int i) {
+        int o = i * 12;
+        long[] r = records;
+        IntJournal.encode(raw, i * IntJournal.RECORD_BYTES, r[o], (int) r[o + 1], (int) r[o + 2], (int) r[o + 3],
+                          (int) r[o + 4], (int) r[o + 5], r[o + 6], (int) r[o + 7], (int) r[o + 8], r[o + 9],
+                          (int) r[o + 10], r[o + 11]);
+    }
+
+    @Setup(Level.Invocation)
+    public void rewind() {
+        stream.position(0);
+        decoder.reset();
+    }
+
+    /* the encoder keeps its dictionaries across invocations, as a long export does. */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void encodeCodec(Size size) {
+        out.clear();
+        encoder.output(out);
+        for (int i = 0; i < RECORDS; i++) {
+            encode(i);
+        }
+        size.records += RECORDS;
+        size.bytes += out.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void encodeRaw(Size size) {
+        for (int i = 0; i < RECORDS; i++) {
+            raw(i);
+        }
+        size.records += RECORDS;
+        size.bytes += (long) RECORDS * IntJournal.RECORD_BYTES;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int decodeCodec(Blackhole bh) {
+        return decoder.decode(stream, (time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                                       ingressTime, hopLatency, bandwidth) -> bh.consume(ingressTime + bandwidth));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void decodeRaw(Blackhole bh) {
+        for (int i = 0; i < RECORDS; i++) {
+            IntJournal.decode(raw, i * IntJournal.RECORD_BYTES, (time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort,
+                                                                 outPort, ingressTime, hopLatency, bandwidth)
+                    -> bh.consume(ingressTime + bandwidth));
+        }
+    }
+}
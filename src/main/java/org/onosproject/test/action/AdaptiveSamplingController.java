@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.PortStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Keeps the INT telemetry rate of the source switch under a budget while the traffic
+ * rate changes: polls the port delta statistics of the switch, and sets the sampling
+ * rate to one in N packets with N = ceil(rate / budget).
+ *
+ * N is applied through an Actuator, e.g. Sel-INT weights (N-1):1 or P4-sINT 'N'.
+ * Changes of N below 'hysteresis' are ignored, so that noise does not cause updates.
+ */
+public class AdaptiveSamplingController {
+
+    /**
+     * applies a sampling rate of one in 'samplingRateN' packets.
+     */
+    public interface Actuator {
+        void apply(int samplingRateN);
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DeviceService deviceService;
+    private final DeviceId deviceId;
+    private final int port;
+    private final int maxN;
+    private final Actuator actuator;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            groupedThreads("onos/int-test", "adaptive-sampling-%d", log));
+
+    private volatile long budgetPps;
+    private volatile double hysteresis = 0.1;
+    private ScheduledFuture<?> polling;
+    private int currentN;
+
+    /**
+     * @param deviceId the INT source switch, such as sw1
+     * @param port count packets received at this port only, 0 means all ports
+     * @param budgetPps telemetry budget, INT packets/s
+     * @param initialN the sampling rate already installed
+     * @param maxN the lowest sampling rate, one in 'maxN'
+     */
+    public AdaptiveSamplingController(DeviceService deviceService, DeviceId deviceId, int port, long budgetPps,
+                                      int initialN, int maxN, Actuator actuator) {
+        this.deviceService = deviceService;
+        this.deviceId = deviceId;
+        this.port = port;
+        this.budgetPps = budgetPps;
+        this.currentN = initialN;
+        this.maxN = maxN;
+        this.actuator = actuator;
+    }
+
+    public synchronized void start(long periodMs) {
+        if (polling != null) {
+            polling.cancel(false);
+        }
+        polling = executor.scheduleWithFixedDelay(this::poll, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        log.info("adaptive sampling at deviceId<{}>: start, budget: {} pps, period: {} ms.", deviceId, budgetPps, periodMs);
+    }
+
+    public synchronized void stop() {
+        if (polling != null) {
+            polling.cancel(false);
+            polling = null;
+        }
+        executor.shutdownNow();
+    }
+
+    public void setBudget(long budgetPps) {
+        this.budgetPps = budgetPps;
+    }
+
+    /* relative change of N to ignore, 0.1 means 10%. */
+    public void setHysteresis(double hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    public synchronized int currentN() {
+        return currentN;
+    }
+
+    private void poll() {
+        try {
+            double rate = receivedPps();
+            if (rate < 0) {
+                return;
+            }
+            int targetN = targetN(rate);
+            synchronized (this) {
+                if (Math.abs(targetN - currentN) <= hysteresis * currentN) {
+                    return;
+                }
+                log.info("adaptive sampling at deviceId<{}>: rate: {} pps, N: {} -> {}",
+                         deviceId, (long) rate, currentN, targetN);
+                currentN = targetN;
+            }
+            actuator.apply(targetN);
+        } catch (Exception e) {
+            /* keep polling, a failed round must not cancel the schedule. */
+            log.warn("adaptive sampling at deviceId<{}>: {}", deviceId, e.toString());
+        }
+    }
+
+    /* @return packets/s received in the last statistics interval, -1 if unknown */
+    private double receivedPps() {
+        List<PortStatistics> stats = deviceService.getPortDeltaStatistics(deviceId);
+        if (stats == null) {
+            return -1;
+        }
+        long packets = 0;
+        double seconds = 0;
+        for (PortStatistics stat : stats) {
+            if (port != 0 && stat.port() != port) {
+                continue;
+            }
+            packets += stat.packetsReceived();
+            seconds = Math.max(seconds, stat.durationSec() + stat.durationNano() / 1e9);
+        }
+        return seconds > 0 ? packets / seconds : -1;
+    }
+
+    /* the smallest N with rate / N <= budget. */
+    private int targetN(double rate) {
+        long budget = Math.max(1, budgetPps);
+        long n = (long) Math.ceil(rate / budget);
+        return (int) Math.max(1, Math.min(maxN, n));
+    }
+}
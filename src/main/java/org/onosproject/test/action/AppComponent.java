@@ -22,6 +22,8 @@ import org.onlab.packet.Ethernet;
 import org.onlab.packet.IpAddress;
 import org.onlab.packet.IpPrefix;
 import org.onlab.packet.MacAddress;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.core.GroupId;
@@ -31,9 +33,13 @@ import org.onosproject.floodlightpof.protocol.action.OFAction;
 import org.onosproject.floodlightpof.protocol.table.OFFlowTable;
 import org.onosproject.floodlightpof.protocol.table.OFTableType;
 import org.onosproject.net.DeviceId;
+import org.onosproject.net.ElementId;
+import org.onosproject.net.HostId;
 import org.onosproject.net.Port;
 import org.onosproject.net.PortNumber;
 import org.onosproject.net.device.DeviceAdminService;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.*;
 import org.onosproject.net.flow.criteria.Criteria;
@@ -41,14 +47,33 @@ import org.onosproject.net.flow.criteria.Criterion;
 import org.onosproject.net.flow.instructions.DefaultPofActions;
 import org.onosproject.net.flow.instructions.DefaultPofInstructions;
 import org.onosproject.net.group.*;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
 import org.onosproject.net.table.*;
+import org.onosproject.net.topology.PathService;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * @author tsf
@@ -82,6 +107,15 @@ public class AppComponent {
     @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
     protected GroupService groupService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected PathService pathService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected PacketService packetService;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
     private ApplicationId appId;
 
@@ -116,10 +150,11 @@ public class AppComponent {
     private String all_key = "def";
     private int all_groupId = 0x17;
     private String sw2_sel_key = "abcd";
-    private String sw2_sel_key2 = "bcde";
     private int sw2_sel_groupId = 0x18;
     private String sw2_all_key = "defg";
     private int sw2_all_groupId = 0x19;
+    /* groupIds of new group versions start from here, see update_pof_select_group_rule(). */
+    static final int FIRST_VERSIONED_GROUP_ID = 0x100;
 
 
     /* match field values */
@@ -138,31 +173,43 @@ public class AppComponent {
     public final short INT_TTL = 16;   // {288, 8}
 
     // macro definition
-    static final short ETH_HEADER_LEN         =     14 * 8;
-    static final short IPV4_HEADER_LEN        =     20 * 8;
-    static final short INT_HEADER_BASE        =     34 * 8;
-    static final short INT_HEADER_LEN         =      4 * 8;
-    static final short INT_HEADER_TYPE_OFF    =     34 * 8;
-    static final short INT_HEADER_TYPE_LEN    =      2 * 8;
-    static final short INT_HEADER_TTL_OFF     =     36 * 8;
-    static final short INT_HEADER_TTL_LEN     =      1 * 8;
-    static final short INT_HEADER_MAPINFO_OFF =     37 * 8;
-    static final short INT_HEADER_MAPINFO_LEN =      1 * 8;
-    static final short INT_HEADER_DATA_OFF    =    38 * 8;
-    static final short INT_DATA_DPID_END_OFF  =    42 * 8;    // 38 + 4 = 42
+    static final short ETH_HEADER_LEN         =    IntHeaderLayout.ETH_HEADER_BYTES * 8;
+    static final short IPV4_HEADER_LEN        =    IntHeaderLayout.IPV4_HEADER_BYTES * 8;
+    static final short IPV4_SRC_OFF           =    IntHeaderLayout.IPV4_SRC_OFF;      // 208
+    static final short IPV4_DST_OFF           =    IntHeaderLayout.IPV4_DST_OFF;      // 240
+    static final short IPV4_ADDR_LEN          =    IntHeaderLayout.IPV4_ADDR_LEN;
+    /* the third byte of srcIp, changed by the sel_group buckets of the source. */
+    static final short IPV4_SRC_B3_OFF        =    (short) (IPV4_SRC_OFF + 16);       // 224
+    static final short IPV4_SRC_B3_LEN        =    8;
+    static final short INT_HEADER_BASE        =    IntHeaderLayout.INT_HEADER_BASE;   // 272
+    static final short INT_HEADER_LEN         =    IntHeaderLayout.INT_HEADER_LEN;
+    static final short INT_HEADER_TYPE_OFF    =    IntHeaderLayout.INT_HEADER_TYPE_OFF;
+    static final short INT_HEADER_TYPE_LEN    =    IntHeaderLayout.INT_HEADER_TYPE_LEN;
+    static final short INT_HEADER_TTL_OFF     =    IntHeaderLayout.INT_HEADER_TTL_OFF;
+    static final short INT_HEADER_TTL_LEN     =    IntHeaderLayout.INT_HEADER_TTL_LEN;
+    static final short INT_HEADER_MAPINFO_OFF =    IntHeaderLayout.INT_HEADER_MAPINFO_OFF;
+    static final short INT_HEADER_MAPINFO_LEN =    IntHeaderLayout.INT_HEADER_MAPINFO_LEN;
+    static final short INT_HEADER_DATA_OFF    =    IntHeaderLayout.INT_HEADER_DATA_OFF;
+    /* the add_int_field of the source sel_group, 24 bits at INT_HEADER_BASE, up to the mapInfo. */
+    static final short INT_HEADER_TYPE_TTL_LEN =   (short) (INT_HEADER_TYPE_LEN + INT_HEADER_TTL_LEN);   // 24
+    /* the func field follows the dpid of the first hop, 38 + 4 = 42. */
+    static final short INT_DATA_DPID_END_OFF  =    (short) (INT_HEADER_DATA_OFF + IntHeaderLayout.Field.DPID.bits());
 
     /* tsf: INT data len. */
-    static final short INT_DATA_DPID_LEN         =    4 * 8;
-    static final short INT_DATA_IN_PORT_LEN      =    1 * 8;
-    static final short INT_DATA_OUT_PORT_LEN     =    1 * 8;
-    static final short INT_DATA_INGRESS_TIME_LEN =    8 * 8;
-    static final short INT_DATA_HOP_LATENCY_LEN  =    2 * 8;
-    static final short INT_DATA_BANDWIDTH_LEN    =    4 * 8;
+    static final short INT_DATA_DPID_LEN         =    IntHeaderLayout.Field.DPID.bits();
+    static final short INT_DATA_IN_PORT_LEN      =    IntHeaderLayout.Field.IN_PORT.bits();
+    static final short INT_DATA_OUT_PORT_LEN     =    IntHeaderLayout.Field.OUT_PORT.bits();
+    static final short INT_DATA_INGRESS_TIME_LEN =    IntHeaderLayout.Field.INGRESS_TIME.bits();
+    static final short INT_DATA_HOP_LATENCY_LEN  =    IntHeaderLayout.Field.HOP_LATENCY.bits();
+    static final short INT_DATA_BANDWIDTH_LEN    =    IntHeaderLayout.Field.BANDWIDTH.bits();
 
     /* tsf: sleep how long. */
 //    final static long TIME_INTERVAL = 8000;    // start4(), in ms, scenario1: 8000ms, scenario2: 100ms
     final static long TIME_INTERVAL = 100;    // start5(), in ms, scenario1: 8000ms, scenario2: 100ms
 
+    /* tsf: wait how long for the switch to confirm tables, groups and entries, in ms. */
+    final static long INSTALL_TIMEOUT = 5000;
+
     /* test path revalidation flag. */
     private boolean TEST_PATH_RAVALIDATION = true;     // used at sw2
     private boolean TEST_PATH_FUNCTION = false;         // used by all sw.
@@ -178,9 +225,172 @@ public class AppComponent {
     /* to simulate intentional attack. for fig.18 */
     private boolean SIMULATE_ATTACK = true;
 
+    /* tsf: if not null, flow entries are queued here and sent as one FlowRuleOperations. */
+    private volatile FlowRuleBatch ruleBatch;
+
+    /* tsf: if not null, removed tables and groups are queued here and removed per device in parallel. */
+    private volatile TeardownEngine teardown;
+
+    /* tsf: runs the timeline of pofTestStart*(), off the activate() thread. */
+    private ScenarioRunner scenarioRunner;
+
+    /* tsf: prebuilt fields, actions and treatments shared by the INT rules. */
+    private final PofActionTemplates actionTemplates = new PofActionTemplates();
+
+    /* tsf: completes futures when the switches report tables, groups and entries as ADDED. */
+    private InstallTracker installTracker;
+
+    /* tsf: versioned keys and groupIds of the groups updated make-before-break. */
+    private final GroupKeyAllocator groupVersions = new GroupKeyAllocator(FIRST_VERSIONED_GROUP_ID);
+
+    /* tsf: one update at a time per select group and per sampling entry, only the latest pending one is sent. */
+    private final CoalescingUpdateQueue updates = new CoalescingUpdateQueue("sw-updates");
+
+    /* tsf: deviceId -> funcByteHexStr(), the add_func_field value of the device. */
+    static final int PATH_FUNC_K = 2;
+    static final int PATH_FUNC_B = 1;
+    private final Map<DeviceId, String> funcBytes = new ConcurrentHashMap<>();
+
+    /* tsf: entryIds and tableIds handed out locally, see FlowIdAllocator. */
+    private FlowIdAllocator flowIds;
+
+    /* tsf: selector -> entryIds of the existing entries, for replace-on-match. */
+    private FlowSelectorIndex selectorIndex;
+
+    /* tsf: if not null, entries and groups are recorded here and sent by the reconciler. */
+    private volatile DesiredState desiredState;
+    private Reconciler reconciler;
+
+    /* tsf: the tables of sw1..sw6 are sent, re-running a scenario only reconciles the entries. */
+    private volatile boolean sixNodesProvisioned = false;
+    /* tsf: the owner of the groups of sw1..sw6 in the reconciler, whichever scenario is provisioned. */
+    private static final String SIX_NODES = "six-nodes";
+    /* tsf: deviceId -> tableId -> table sent, the reconciler adds it again if the device lost it. */
+    private final Map<DeviceId, Map<Integer, FlowTable>> sentTables = new ConcurrentHashMap<>();
+    /* tsf: the install_pof_*() calls of the provisioned scenario, replayed for a switch which reconnects. */
+    private volatile Runnable provisionedEntries;
+
+    /* tsf: a switch of sw1..sw6 which connects or reconnects is provisioned alone. */
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+    private final Set<DeviceId> reprovisioning = ConcurrentHashMap.newKeySet();
+
+    /* tsf: closed-loop sampling at sw1, see start_adaptive_sampling(). */
+    private static final boolean DEFAULT_ADAPTIVE_SAMPLING = false;
+    @Property(name = "adaptiveSampling", boolValue = DEFAULT_ADAPTIVE_SAMPLING,
+            label = "Follow the traffic rate at sw1 with the INT sampling rate, instead of the fixed timeline")
+    private boolean adaptiveSampling = DEFAULT_ADAPTIVE_SAMPLING;
+
+    private static final long DEFAULT_INT_BUDGET_PPS = 2000000;
+    @Property(name = "intBudgetPps", longValue = DEFAULT_INT_BUDGET_PPS,
+            label = "INT packets per second sw1 may generate")
+    private long intBudgetPps = DEFAULT_INT_BUDGET_PPS;
+
+    private static final int DEFAULT_SAMPLING_POLL_MS = 1000;
+    @Property(name = "samplingPollMs", intValue = DEFAULT_SAMPLING_POLL_MS,
+            label = "Poll the port statistics of sw1 every samplingPollMs ms")
+    private int samplingPollMs = DEFAULT_SAMPLING_POLL_MS;
+
+    /* the lowest sampling rate, one in MAX_SAMPLING_RATE_N packets. */
+    static final int MAX_SAMPLING_RATE_N = 1000;
+
+    private AdaptiveSamplingController samplingController;
+
+    /* tsf: per-device token bucket and outstanding window for the entries and groups sent. */
+    private static final int DEFAULT_FLOW_CONTROL_RATE = 1000;
+    @Property(name = "flowControlRate", intValue = DEFAULT_FLOW_CONTROL_RATE,
+            label = "Flow rule and group operations per second sent to one device, 0 means no limit")
+    private int flowControlRate = DEFAULT_FLOW_CONTROL_RATE;
+
+    private static final int DEFAULT_FLOW_CONTROL_BURST = 200;
+    @Property(name = "flowControlBurst", intValue = DEFAULT_FLOW_CONTROL_BURST,
+            label = "Operations sent to one device at once when its token bucket is full")
+    private int flowControlBurst = DEFAULT_FLOW_CONTROL_BURST;
+
+    private static final int DEFAULT_FLOW_CONTROL_WINDOW = 500;
+    @Property(name = "flowControlWindow", intValue = DEFAULT_FLOW_CONTROL_WINDOW,
+            label = "Operations sent to one device but not yet confirmed, 0 means no limit")
+    private int flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+
+    private final DeviceFlowControl flowControl = new DeviceFlowControl(
+            DEFAULT_FLOW_CONTROL_RATE, DEFAULT_FLOW_CONTROL_BURST, DEFAULT_FLOW_CONTROL_WINDOW);
+
+    /* tsf: INT paths computed from the topology, name -> deviceId -> tableId. */
+    private IntPathCompiler intPathCompiler;
+    private final Map<String, Map<DeviceId, Byte>> intPaths = new ConcurrentHashMap<>();
+
+    /* tsf: the INT path of the intPath property, provisioned after the steps of the scenario. */
+    private static final String DEFAULT_INT_PATH = "";
+    @Property(name = "intPath", value = DEFAULT_INT_PATH,
+            label = "INT path to provision as src,dst,sinkPort,collectorPort,srcIP,mapInfo, e.g. "
+                    + "pof:0000000000000001,pof:0000000000000006,2,3,0a000001,01; sinkPort is empty if dst "
+                    + "is a host. Empty means no path")
+    private String intPath = DEFAULT_INT_PATH;
+    static final String INT_PATH_NAME = "intPath";
+    /* the intPath provisioned, or queued to be */
+    private String appliedIntPath = DEFAULT_INT_PATH;
+
+    /* tsf: in-controller INT collector, for a sink which mirrors the INT packets to the controller port. */
+    private static final boolean DEFAULT_INT_COLLECTOR = false;
+    @Property(name = "intCollector", boolValue = DEFAULT_INT_COLLECTOR,
+            label = "Decode the INT packets sent to the controller, instead of an external collector")
+    private boolean intCollector = DEFAULT_INT_COLLECTOR;
+
+    private static final int DEFAULT_INT_COLLECTOR_RING_SIZE = 65536;
+    @Property(name = "intCollectorRingSize", intValue = DEFAULT_INT_COLLECTOR_RING_SIZE,
+            label = "Hop records buffered by the INT collector, packets are dropped when it is full")
+    private int intCollectorRingSize = DEFAULT_INT_COLLECTOR_RING_SIZE;
+
+    /* the hops decoded by the collector, off-heap, with all the INT fields of mapInfo 0x3f. */
+    private static final int DEFAULT_INT_HOP_STORE_SIZE = 262144;
+    @Property(name = "intHopStoreSize", intValue = DEFAULT_INT_HOP_STORE_SIZE,
+            label = "Last hop records kept by the INT collector for the analysis")
+    private int intHopStoreSize = DEFAULT_INT_HOP_STORE_SIZE;
+    static final String INT_HOP_STORE_MAPINFO = "3f";
+
+    /* (dpid, in_port, out_port) and path fingerprints with a latency histogram. */
+    static final int INT_MAX_HOPS = 4096;
+    static final int INT_MAX_PATHS = 4096;
+
+    /* the hops decoded by the collector, journaled to segment files, e.g. for fig.15 and fig.18. */
+    private static final String DEFAULT_INT_JOURNAL_DIR = "";
+    @Property(name = "intJournalDir", value = DEFAULT_INT_JOURNAL_DIR,
+            label = "Directory of the INT journal of the collector, empty means no journal")
+    private String intJournalDir = DEFAULT_INT_JOURNAL_DIR;
+    static final int INT_JOURNAL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    static final int INT_JOURNAL_SEGMENTS = 16;
+
+    /* tsf: name -> the devices of a provisioned path from source to sink, the valid paths for the verifier. */
+    private final Map<String, List<DeviceId>> provisionedPaths = new ConcurrentHashMap<>();
+    static final int INT_MAX_FLOWS = 4096;
+
+    /* a flow is off its provisioned paths with INT_DEVIATION_PACKETS of its window off them, whatever their share. */
+    static final long INT_DEVIATION_WINDOW_MS = 1000;
+    static final int INT_DEVIATION_PACKETS = 3;
+    static final double INT_DEVIATION_RATIO = 0;
+
+    private IntCollector collector;
+    private IntPathVerifier pathVerifier;
+    private IntPathMonitor pathMonitor;
+    private IntHopStore hopStore;
+    private IntLatencyStats latencyStats;
+    private IntJournal journal;
+
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
         appId = coreService.registerApplication("org.onosproject.test.action");
+        cfgService.registerProperties(getClass());
+        modified(context);
+        flowIds = new FlowIdAllocator(flowTableStore);
+        installTracker = new InstallTracker(flowRuleService, groupService, flowTableService, appId);
+        installTracker.activate();
+        selectorIndex = new FlowSelectorIndex(flowRuleService, flowTableStore);
+        selectorIndex.activate();
+        reconciler = new Reconciler(flowRuleService, flowTableService, flowTableStore, groupService, installTracker,
+                                    appId, INSTALL_TIMEOUT, flowControl, flowIds);
+        scenarioRunner = new ScenarioRunner("int-scenario");
+        intPathCompiler = new IntPathCompiler(pathService);
+        deviceService.addListener(deviceListener);
+
         /* test INT collector performance, single node. all_group add_int_field to collector and user.  */
 //        pofTestStart1();
 
@@ -195,15 +405,233 @@ public class AppComponent {
 
         /* compare sel-INT and p4-sINT, six node topology, for fig.15(b) */
 //        pofTestStart5();
+
+        /* the INT path of the intPath property, after the scenario steps. */
+        apply_int_path_property();
     }
 
     @Deactivate
     protected void deactivate() {
+        /* cancel the pending steps first, so that no entry is sent after removal. */
+        deviceService.removeListener(deviceListener);
+        scenarioRunner.stop();
+        if (samplingController != null) {
+            samplingController.stop();
+        }
+        cfgService.unregisterProperties(getClass(), false);
+        log.info("{}", updates);
+        log.info("{}", flowControl);
+        log.info("{}", flowIds);
+
+        new ArrayList<>(intPaths.keySet()).forEach(this::remove_int_path);
 //        pofTestStop1();
 //        pofTestStop2();
         pofTestStop3();
 //        pofTestStop4();
 //        pofTestStop5();
+
+        stop_int_collector();
+        flowControl.shutdown();
+        selectorIndex.deactivate();
+        installTracker.deactivate();
+    }
+
+    @Modified
+    public void modified(ComponentContext context) {
+        if (context == null) {
+            return;
+        }
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String s = Tools.get(properties, "adaptiveSampling");
+        if (s != null && !s.trim().isEmpty()) {
+            adaptiveSampling = Boolean.parseBoolean(s.trim());
+        }
+        s = Tools.get(properties, "intBudgetPps");
+        if (s != null && !s.trim().isEmpty()) {
+            intBudgetPps = Long.parseLong(s.trim());
+        }
+        s = Tools.get(properties, "samplingPollMs");
+        if (s != null && !s.trim().isEmpty()) {
+            samplingPollMs = Integer.parseInt(s.trim());
+        }
+        s = Tools.get(properties, "flowControlRate");
+        if (s != null && !s.trim().isEmpty()) {
+            flowControlRate = Integer.parseInt(s.trim());
+        }
+        s = Tools.get(properties, "flowControlBurst");
+        if (s != null && !s.trim().isEmpty()) {
+            flowControlBurst = Integer.parseInt(s.trim());
+        }
+        s = Tools.get(properties, "flowControlWindow");
+        if (s != null && !s.trim().isEmpty()) {
+            flowControlWindow = Integer.parseInt(s.trim());
+        }
+        s = Tools.get(properties, "intCollector");
+        if (s != null && !s.trim().isEmpty()) {
+            intCollector = Boolean.parseBoolean(s.trim());
+        }
+        s = Tools.get(properties, "intCollectorRingSize");
+        if (s != null && !s.trim().isEmpty()) {
+            intCollectorRingSize = Integer.parseInt(s.trim());
+        }
+        s = Tools.get(properties, "intHopStoreSize");
+        if (s != null && !s.trim().isEmpty()) {
+            intHopStoreSize = Integer.parseInt(s.trim());
+        }
+        s = Tools.get(properties, "intJournalDir");
+        if (s != null) {
+            intJournalDir = s.trim();
+        }
+        s = Tools.get(properties, "intPath");
+        if (s != null) {
+            intPath = s.trim();
+        }
+
+        if (samplingController != null) {
+            samplingController.setBudget(intBudgetPps);
+        }
+        flowControl.configure(flowControlRate, flowControlBurst, flowControlWindow);
+        log.info("adaptiveSampling: {}, intBudgetPps: {}, samplingPollMs: {}", adaptiveSampling, intBudgetPps, samplingPollMs);
+        log.info("flowControlRate: {}, flowControlBurst: {}, flowControlWindow: {}",
+                 flowControlRate, flowControlBurst, flowControlWindow);
+        log.info("intCollector: {}, intCollectorRingSize: {}, intHopStoreSize: {}, intJournalDir: {}",
+                 intCollector, intCollectorRingSize, intHopStoreSize, intJournalDir);
+        if (intCollector) {
+            start_int_collector();
+        } else {
+            stop_int_collector();
+        }
+        log.info("intPath: {}", intPath);
+        if (scenarioRunner != null) {
+            /* activate() applies it once the scenario is created. */
+            apply_int_path_property();
+        }
+    }
+
+    /**
+     * provision the INT path of the intPath property, replacing the former one. It runs as a
+     * step of the scenario, on its thread, so that the entries do not mix with the scenario ones.
+     */
+    private synchronized void apply_int_path_property() {
+        String path = intPath;
+        if (path.equals(appliedIntPath)) {
+            return;
+        }
+        appliedIntPath = path;
+        scenarioRunner.thenAwait("intPath " + path, () -> {
+            remove_int_path(INT_PATH_NAME);
+            if (path.isEmpty()) {
+                return CompletableFuture.completedFuture(true);
+            }
+            String[] f = path.split(",", -1);
+            if (f.length != 6) {
+                log.warn("intPath<{}>: expected src,dst,sinkPort,collectorPort,srcIP,mapInfo.", path);
+                return CompletableFuture.completedFuture(false);
+            }
+            try {
+                PortNumber sinkPort = f[2].trim().isEmpty() ? null : PortNumber.portNumber(Long.parseLong(f[2].trim()));
+                return provision_int_path(INT_PATH_NAME, element_id(f[0]), element_id(f[1]), sinkPort,
+                                          Integer.parseInt(f[3].trim()), f[4].trim(), f[5].trim());
+            } catch (IllegalArgumentException e) {
+                log.warn("intPath<{}>: {}", path, e.getMessage());
+                return CompletableFuture.completedFuture(false);
+            }
+        });
+        scenarioRunner.start();
+    }
+
+    /* "pof:000000000000000x" is a device, "mac/vlan" a host. */
+    private static ElementId element_id(String id) {
+        id = id.trim();
+        return id.contains("/") ? HostId.hostId(id) : DeviceId.deviceId(id);
+    }
+
+    /**
+     * registers the INT collector as a packet processor. The INT packets reach it if the collector
+     * port of the sink all_group, e.g. install_pof_all_group_rule_match_type(), is the controller port.
+     */
+    private synchronized void start_int_collector() {
+        if (collector != null) {
+            return;
+        }
+        hopStore = new IntHopStore(IntHeaderLayout.of(INT_HOP_STORE_MAPINFO), intHopStoreSize);
+        latencyStats = new IntLatencyStats(INT_MAX_HOPS, INT_MAX_PATHS);
+        pathMonitor = new IntPathMonitor(INT_DEVIATION_WINDOW_MS, INT_DEVIATION_PACKETS, INT_DEVIATION_RATIO,
+                                         INT_MAX_FLOWS, e -> log.warn("INT path monitor: {}", e));
+        collector = new IntCollector(intCollectorRingSize).addHandler(hopStore).addHandler(latencyStats)
+                .addHandler(pathMonitor);
+        if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
+            /* every hop adds funcByteHexStr() after its dpid. */
+            pathVerifier = new IntPathVerifier(PATH_FUNC_K, PATH_FUNC_B, INT_MAX_FLOWS);
+            collector.setVerifier(pathVerifier);
+        }
+        update_int_paths();
+        if (!intJournalDir.isEmpty()) {
+            try {
+                journal = new IntJournal(Paths.get(intJournalDir), INT_JOURNAL_SEGMENT_BYTES, INT_JOURNAL_SEGMENTS);
+                collector.addHandler(journal);
+            } catch (IOException e) {
+                log.warn("INT journal: cannot open {}: {}", intJournalDir, e.getMessage());
+            }
+        }
+        collector.start();
+        packetService.addProcessor(collector, PacketProcessor.advisor(1));
+    }
+
+    private synchronized void stop_int_collector() {
+        if (collector == null) {
+            return;
+        }
+        packetService.removeProcessor(collector);
+        collector.stop();
+        log.info("{}", hopStore);
+        log.info("{}", latencyStats.report());
+        if (pathVerifier != null) {
+            log.info("{}", pathVerifier.report());
+            pathVerifier = null;
+        }
+        log.info("{}", pathMonitor);
+        pathMonitor = null;
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        collector = null;
+        hopStore = null;
+        latencyStats = null;
+    }
+
+    /* give the verifier and the path monitor the dpids of the provisioned paths. */
+    private synchronized void update_int_paths() {
+        if (collector == null) {
+            return;
+        }
+        List<long[]> paths = new ArrayList<>();
+        for (List<DeviceId> path : provisionedPaths.values()) {
+            paths.add(path.stream().mapToLong(AppComponent::dpid).toArray());
+        }
+        if (pathVerifier != null) {
+            pathVerifier.setPaths(paths);
+        }
+        pathMonitor.setPaths(paths);
+        log.info("INT collector: {} provisioned paths.", paths.size());
+    }
+
+    private void add_provisioned_path(String name, List<DeviceId> path) {
+        provisionedPaths.put(name, path);
+        update_int_paths();
+    }
+
+    private void remove_provisioned_path(String name) {
+        if (provisionedPaths.remove(name) != null) {
+            update_int_paths();
+        }
+    }
+
+    /* the dpid the switch writes into the INT data, for 'pof:000000000000000x', 0x. */
+    static long dpid(DeviceId deviceId) {
+        return Long.parseLong(deviceId.toString().substring(4), 16);
     }
 
     /**
@@ -212,80 +640,98 @@ public class AppComponent {
     public void pofTestStart1() {
         log.info("org.onosproject.pof.test.action Started");
 
-        /** SRC(sw1): send flow table match ip{208, 32} */
-        sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
-
-        // adjust add_int_field's value[0], i.e. 'mapInfo'
-        install_pof_all_group_rule_match_srcIP(sw1, sw6_tbl0, srcIp, all_key, all_groupId, 12, port2, port3, "3f");
-        install_pof_group_rule_match_srcIp(sw1, sw1_tbl0, srcIp, all_groupId, 12);
+        scenarioRunner.thenAwait("send flow table", () -> {
+            /** SRC(sw1): send flow table match ip{208, 32} */
+            sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
+            return installTracker.tableAdded(sw1, sw1_tbl0, INSTALL_TIMEOUT);
+        }).thenAwait("send flow entries", () -> {
+            // adjust add_int_field's value[0], i.e. 'mapInfo'
+            open_rule_batch("pofTestStart1");
+            install_pof_all_group_rule_match_srcIP(sw1, sw6_tbl0, srcIp, all_key, all_groupId, 12, port2, port3, "3f");
+            install_pof_group_rule_match_srcIp(sw1, sw1_tbl0, srcIp, all_groupId, 12);
+            return submit_rule_batch();
+        });
+        scenarioRunner.start();
     }
 
     public void pofTestStop1() {
+        open_teardown("pofTestStop1");
         log.info("org.onosproject.pof.test.action Stopped");
         remove_pof_group_tables(sw1, all_key);
         remove_pof_flow_table(sw1, sw1_tbl0);
+        run_teardown();
     }
 
     public void pofTestStart2() {
         log.info("org.onosproject.pof.test.action Started");
 
-        /** SRC(sw1): send flow table match ip{208, 32} */
-        sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
-
-        /* test: no INT */
-//        install_pof_no_int_output_flow_rule(sw1, sw1_tbl0, srcIp, port2, 12);
-
-        /* test: per-packet INT */
-        install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port1, 12, "3f");
-
-        /* test: selective INT, adjust w1:w2 in first method. (w1 > w2), w2 runs INT */
-        short w1 = 1, w2 = 9;
-        int ports = port1;
-        String mapInfo = "07";
-//        install_pof_select_group_rule(sw1, sw1_tbl0, ports, ports, srcIp, sel_key, sel_groupId, 12, w1, w2, mapInfo);
-//        install_pof_group_rule_match_srcIp(sw1, sw1_tbl0, srcIp, sel_groupId, 12);
+        scenarioRunner.thenAwait("send flow table", () -> {
+            /** SRC(sw1): send flow table match ip{208, 32} */
+            sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
+            return installTracker.tableAdded(sw1, sw1_tbl0, INSTALL_TIMEOUT);
+        }).thenAwait("send flow entries", () -> {
+            /* test: no INT */
+//            install_pof_no_int_output_flow_rule(sw1, sw1_tbl0, srcIp, port2, 12);
+
+            /* test: per-packet INT */
+            open_rule_batch("pofTestStart2");
+            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port1, 12, "3f");
+
+            /* test: selective INT, adjust w1:w2 in first method. (w1 > w2), w2 runs INT */
+            short w1 = 1, w2 = 9;
+            int ports = port1;
+            String mapInfo = "07";
+//            install_pof_select_group_rule(sw1, sw1_tbl0, ports, ports, srcIp, sel_key, sel_groupId, 12, w1, w2, mapInfo);
+//            install_pof_group_rule_match_srcIp(sw1, sw1_tbl0, srcIp, sel_groupId, 12);
+            return submit_rule_batch();
+        });
+        scenarioRunner.start();
     }
 
     public void pofTestStop2() {
+        open_teardown("pofTestStop2");
         log.info("org.onosproject.pof.test.action Stopped");
         remove_pof_group_tables(sw1, sel_key);
 
         remove_pof_flow_table(sw1, sw1_tbl0);
+        run_teardown();
     }
 
     public void pofTestStart3() {
         log.info("org.onosproject.pof.test.action Started");
 
-        sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
-        sw2_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw2, "AddIntMetadata");
-        sw3_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw3, "AddIntMetadata");
+        short weight1 = 7, weight2 = 1;
+        scenarioRunner.thenAwait("provision six nodes",
+                () -> provision_six_nodes("pofTestStart3", () -> pofTestEntries3(weight1, weight2)));
+        /* the packets of sw2 port3, via sw4, do not take it. */
+        add_provisioned_path("pofTestStart3", ImmutableList.of(sw1, sw2, sw3, sw5, sw6));
 
-        if (TEST_PATH_RAVALIDATION) {
-            sw4_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw4, "AddIntMetadata");
+        /**
+         * BEGIN TO SIMULATE ATTACK by CHANGING THE SELECT_TABLE at sw2
+         */
+        /* simulate the intentional attack. */
+        if (SIMULATE_ATTACK) {
+            /* sleep 25s for original mapInfo, then rounds of 25s and 7s in turn. */
+            long delay = 25000;
+            for (int i = 0; i < 20; i++) {
+                delay += (i % 2 == 0) ? 25000 : 7000;
+                final int round = i;
+                scenarioRunner.then(delay, "attack round " + i, () -> simulate_attack_round(round, weight1, weight2));
+                delay = 0;
+            }
         }
 
-        sw5_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw5, "AddIntMetadata");
-        sw6_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw6, "MirrorIntMetadata");
-
-        // wait 1s
-        try {
-            Thread.sleep(1500);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        scenarioRunner.start();
+    }
 
+    public void pofTestEntries3(short weight1, short weight2) {
         /** SRC(sw1): send flow table match ip{208, 32} */
 //        sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
         /* rule1: send select group to add INT header. w1: output; w2: add_int_header.*/
-        short weight1 = 7, weight2 = 1;
         String mapInfo = "01";
         install_pof_select_group_rule(sw1, sw1_tbl0, port3, port3, srcIp, sel_key, sel_groupId, 12, weight1, weight2, mapInfo);
         install_pof_group_rule_match_srcIp(sw1, sw1_tbl0, srcIp, sel_groupId, 12);
-        try {
-            Thread.sleep(500);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        new_rule_stage(sw1);   // group entry before default entry
         /* rule2: default rule, mask is 0x00000000 */
         install_pof_output_flow_rule_match_default_ip_at_SRC(sw1, sw1_tbl0, srcIp, port3, 2);
 
@@ -308,11 +754,7 @@ public class AppComponent {
                 short weight21 = 5, weight22 = 5;
                 install_pof_select_group_rule_at_sw2(sw2, sw2_tbl0, port2, port3, int_type, sw2_sel_key, sw2_sel_groupId, 12, weight21, weight22, "ff");
                 install_pof_group_rule_match_type(sw2, sw2_tbl0, int_type, sw2_sel_groupId, 12);
-                try {
-                    Thread.sleep(500);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                new_rule_stage(sw2);   // group entry before default entry
                 /* rule2: default rule, mask is 0x0000 */
                 install_pof_output_flow_rule_match_default_type_at_INTER_or_SINK(sw2, sw2_tbl0, int_type, port2, 1);
             }
@@ -321,11 +763,7 @@ public class AppComponent {
                 /* rule1: mirror INT packets to collector and usr */
                 install_pof_all_group_rule_match_type_at_sw2(sw2, sw2_tbl0, int_type, sw2_all_key, sw2_all_groupId, 1, port2, port3, "ff"); // "ff" means read mapInfo from pkts
                 install_pof_group_rule_match_type(sw2, sw2_tbl0, int_type, sw2_all_groupId, 12);
-                try {
-                    Thread.sleep(500);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                new_rule_stage(sw2);
                 /* rule2: default rule, mask is 0x0000*/
 //                install_pof_output_flow_rule_match_default_type_at_INTER_or_SINK(sw6, sw6_tbl0, int_type, port2, 1);  // usr_port
             }
@@ -335,11 +773,7 @@ public class AppComponent {
                 short weight21 = 5, weight22 = 5;
                 install_pof_select_group_rule_at_sw2(sw2, sw2_tbl0, port2, port2, int_type, sw2_sel_key, sw2_sel_groupId, 12, weight21, weight22, "ff");
                 install_pof_group_rule_match_type(sw2, sw2_tbl0, int_type, sw2_sel_groupId, 12);
-                try {
-                    Thread.sleep(500);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                new_rule_stage(sw2);
                 /* rule2: default rule, mask is 0x0000 */
                 install_pof_output_flow_rule_match_default_type_at_INTER_or_SINK(sw2, sw2_tbl0, int_type, port2, 1);
             }
@@ -374,73 +808,42 @@ public class AppComponent {
         /* rule1: mirror INT packets to collector and usr */
         install_pof_all_group_rule_match_type(sw6, sw6_tbl0, int_type, all_key, all_groupId, 12, port2, port3, "ff"); // "ff" means read mapInfo from pkts
         install_pof_group_rule_match_type(sw6, sw2_tbl0, int_type, all_groupId, 12);
-        try {
-            Thread.sleep(500);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        new_rule_stage(sw6);
         /* rule2: default rule, mask is 0x0000*/
         install_pof_output_flow_rule_match_default_type_at_INTER_or_SINK(sw6, sw6_tbl0, int_type, port2, 1);  // usr_port
 
         /** SINK(sw6): trick, we don't mirror for performance consideration. */
 //        install_pof_add_int_field_rule_match_type(sw6, sw6_tbl0, int_type, port3, 12, "ff");   // "ff" means read mapInfo from pkts
+    }
 
-        /**
-         * BEGIN TO SIMULATE ATTACK by CHANGING THE SELECT_TABLE at sw2
-         */
-        /* simulate the intentional attack. */
-        if (SIMULATE_ATTACK) {
-            /* sleep 25s for original mapInfo. */
-            try {
-                Thread.sleep(25000);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            String old_key, new_key;
-            String[] sel_group_keys = {"abc", "bcde"};
-            String[] mapInfo_array = {"03", "01"};   // we make 0x03 run 5s, 0x01 runs 25s, 30s as a big period
-            for (int i = 0; i < 20; ) {
-                if (i % 2 == 0) {
-                    try {
-                        Thread.sleep(25000);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    try {
-                        Thread.sleep(7000);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-
-                if (i == 5) {   // at i=3, we change output port (port2->port3) at sw2, two buckets add_int_field
-                    short weight21=5, weight22=5;
-                    install_mod_pof_select_group_rule_at_sw2(sw2, sw2_tbl0, port3, port3, int_type, sw2_sel_key, sw2_sel_key2, sw2_sel_groupId, 12, weight21, weight22, "ff");
-                }
-
-                mapInfo = mapInfo_array[i % 2];
-                old_key = sel_group_keys[i % 2];
-                new_key = sel_group_keys[++i % 2];
-                log.info("i:{}, mapInfo: {}, old_key: {}, new_key: {}", i, mapInfo, old_key, new_key);
+    /* one round of the attack timeline in pofTestStart3(), 'i' starts from 0. */
+    public void simulate_attack_round(int i, short weight1, short weight2) {
+        String[] mapInfo_array = {"03", "01"};   // we make 0x03 run 5s, 0x01 runs 25s, 30s as a big period
 
-                /* change group table at sw1 */
-                install_mod_pof_select_group_rule(sw1, sw1_tbl0, port3, port3, srcIp, old_key, new_key, sel_groupId, 12, weight1, weight2, mapInfo);
-            }
+        if (i == 5) {   // at i=3, we change output port (port2->port3) at sw2, two buckets add_int_field
+            short weight21=5, weight22=5;
+            update_pof_select_group_rule_at_sw2(sw2, sw2_tbl0, port3, port3, int_type, sw2_sel_key, 12, weight21, weight22, "ff");
+            /* the INT path monitor reports the DEVIATION of the flow from this time on. */
+            log.info("attack: sw2 reroutes to port3 at {} ms.", System.currentTimeMillis());
         }
 
+        String mapInfo = mapInfo_array[i % 2];
+        log.info("i:{}, mapInfo: {}", i + 1, mapInfo);
+
+        /* change group table at sw1 */
+        update_pof_select_group_rule(sw1, sw1_tbl0, port3, port3, srcIp, sel_key, 12, weight1, weight2, mapInfo);
     }
 
     public void pofTestStop3() {
+        open_teardown("pofTestStop3");
+        remove_provisioned_path("pofTestStart3");
         /* remove group tables */
-        remove_pof_group_tables(sw1, sel_key);
+        remove_pof_versioned_group(sw1, sel_key);
         remove_pof_group_tables(sw6, all_key);
 
         /* for path revalidation scenario only. */
         if (SIMULATE_SEL_GROUP_TABLE || SIMULATE_ATTACK) {
-            remove_pof_group_tables(sw2, sw2_sel_key);
-            remove_pof_group_tables(sw2, sw2_sel_key2);
+            remove_pof_versioned_group(sw2, sw2_sel_key);
         }
         if (SIMULATE_ALL_GROUP_TABLE) {
             remove_pof_group_tables(sw2, sw2_all_key);
@@ -457,34 +860,60 @@ public class AppComponent {
 
         remove_pof_flow_table(sw5, sw5_tbl0);
         remove_pof_flow_table(sw6, sw6_tbl0);
+        run_teardown();
+        sixNodesProvisioned = false;
         log.info("org.onosproject.test.action Stopped");
     }
 
     public void pofTestStart4() {
         log.info("org.onosproject.pof.test.action Started");
 
-        sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
-        sw2_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw2, "AddIntMetadata");
-        sw3_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw3, "AddIntMetadata");
+        String mapInfo = "20";
+        int sampling_rate_N = 50;           // for p4-sINT
+        short weight1 = 11, weight2 = 1;    // for Sel-INT, w2: add_int_header
+        scenarioRunner.thenAwait("provision six nodes",
+                () -> provision_six_nodes("pofTestStart4", () -> pofTestEntries4(mapInfo, sampling_rate_N, weight1, weight2)));
 
-        if (TEST_PATH_RAVALIDATION) {
-            sw4_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw4, "AddIntMetadata");
+        // =========================================================================================
+
+        /** Closed loop: the sampling rate at sw1 follows the measured traffic rate, no timeline needed. */
+        if (adaptiveSampling) {
+            int initial_N = P4_sINT ? sampling_rate_N : (weight1 + weight2) / weight2;
+            scenarioRunner.then(0, "adaptive sampling", () -> start_adaptive_sampling(mapInfo, initial_N));
+            scenarioRunner.start();
+            return;
         }
 
-        sw5_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw5, "AddIntMetadata");
-        sw6_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw6, "MirrorIntMetadata");
+        /** Evaluate to change sampling rate for p4-sINT at sw1.
+         *  The trace is [50, 100, 50, 100, 50, 100, ...] Mpps, and sampling rate will be double for [1/50, 1/25, 1/12, 1/6, 1/3, 1].
+         * */
+        if (P4_sINT) {  // sampling_rate_N: 50 -> 25 -> 12 -> 6 -> 3 -> 1
+            schedule_p4_sint_sampling_rates(mapInfo, 0);
+        }
 
-        // wait 1s
-        try {
-            Thread.sleep(1000);
-        } catch (Exception e) {
-            e.printStackTrace();
+        /** Evaluate to change sampling rate for P4-sINT at sw1 per 100ms when ECMP (sw_id changes)
+         *  The trace is stable at 100 Mpps, and sampling rate will be [1/50, 1/25, 1/12, 1/6, 1/3, 1].
+         * */
+        if (P4_ECMP) {
+
+        }
+
+        /**
+         * Evaluate to change sampling rate for Sel-INT at sw1.
+         * The trace is [50, 100, 50, 100, 50, 100, ...] Mpps, and sampling rate will be [1/50, 1/25, 1/50, 1/25, ...].
+         */
+        if (SEL_INT & BENCHMARK) {
+            for (int i = 0; i < 30; i++) {
+                final int round = i;
+                scenarioRunner.then(TIME_INTERVAL, "Sel-INT round " + i, () -> change_sel_int_weights(round, mapInfo));
+            }
         }
 
+        scenarioRunner.start();
+    }
+
+    public void pofTestEntries4(String mapInfo, int sampling_rate_N, short weight1, short weight2) {
         /** SRC(sw1): send flow table match ip{208, 32} */
-        String mapInfo = "20";
-        int sampling_rate_N = 50;           // for p4-sINT
-        short weight1 = 11, weight2 = 1;    // for Sel-INT, w2: add_int_header
         if (P4_sINT) {
             /* rule1: send add_int_field rule to insert INT header in 1/N, the key->len refers to 'N'.*/
             install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
@@ -547,121 +976,70 @@ public class AppComponent {
         /** SINK(sw6): trick, we don't mirror for performance consideration. */
 //        install_pof_add_int_field_rule_match_type(sw6, sw6_tbl0, int_type, port3, 12, "ff");   // "ff" means read mapInfo from pkts
 
-        // =========================================================================================
-
-        /** Evaluate to change sampling rate for p4-sINT at sw1.
-         *  The trace is [50, 100, 50, 100, 50, 100, ...] Mpps, and sampling rate will be double for [1/50, 1/25, 1/12, 1/6, 1/3, 1].
-         * */
-        if (P4_sINT) {  // sampling_rate_N: 50 -> 25 -> 12 -> 6 -> 3 -> 1
-            int i=0;
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-           /* try {
-                Thread.sleep(80000);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }  // for alignment*/
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            sampling_rate_N = 25;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            sampling_rate_N = 12;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (P4_sINT) {
+            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, 0);
+        }
+    }
 
-            sampling_rate_N = 6;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    /* P4-sINT: set sampling rate N at sw1 to 25 -> 12 -> 6 -> 3 -> 1, one per TIME_INTERVAL after 'alignMs'. */
+    public void schedule_p4_sint_sampling_rates(String mapInfo, long alignMs) {
+        int[] sampling_rate_Ns = {25, 12, 6, 3, 1};
+        for (int i = 0; i < sampling_rate_Ns.length; i++) {
+            final int sampling_rate_N = sampling_rate_Ns[i];
+            final int round = i + 1;
+            scenarioRunner.then((i == 0 ? alignMs : 0) + TIME_INTERVAL, "P4-sINT N=" + sampling_rate_N, () -> {
+                install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
+                log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, round);
+            });
+        }
+    }
 
-            sampling_rate_N = 3;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    /* poll the port statistics of sw1 and keep INT packets under 'intBudgetPps'. */
+    public void start_adaptive_sampling(String mapInfo, int initial_N) {
+        if (samplingController != null) {
+            samplingController.stop();
+        }
+        samplingController = new AdaptiveSamplingController(deviceService, sw1, 0, intBudgetPps, initial_N,
+                MAX_SAMPLING_RATE_N, sampling_rate_N -> apply_sampling_rate(mapInfo, sampling_rate_N));
+        samplingController.start(samplingPollMs);
+    }
 
-            sampling_rate_N = 1;
+    /* one in 'sampling_rate_N' packets carries INT at sw1: Sel-INT weights (N-1):1, or P4-sINT 'N'. */
+    public void apply_sampling_rate(String mapInfo, int sampling_rate_N) {
+        if (SEL_INT) {
+            /* a bucket weight cannot be 0, so Sel-INT samples at most 1/2. */
+            short weight1 = (short) Math.max(1, Math.min(Short.MAX_VALUE, sampling_rate_N - 1));
+            short weight2 = 1;
+            update_pof_select_group_rule(sw1, sw1_tbl0, port3, port3, srcIp, sel_key, 12, weight1, weight2, mapInfo);
+        }
+        if (P4_sINT) {
             install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i);
+            log.info("P4-sINT, sampling_rate_N: {}", sampling_rate_N);
         }
+    }
 
-        /** Evaluate to change sampling rate for P4-sINT at sw1 per 100ms when ECMP (sw_id changes)
-         *  The trace is stable at 100 Mpps, and sampling rate will be [1/50, 1/25, 1/12, 1/6, 1/3, 1].
-         * */
-        if (P4_ECMP) {
-
-        }
+    /* Sel-INT: one round of changing w1:w2 at sw1 in pofTestStart4(), 'i' starts from 0. */
+    public void change_sel_int_weights(int i, String mapInfo) {
+        short[][] weights = {{49, 1}, {24, 1}};  // w1:w2, w2=add_int_header
+        short weight1 = weights[(i + 1) % 2][0];
+        short weight2 = weights[(i + 1) % 2][1];
+        log.info("i:{}, mapInfo:{}, w1:{}, w2:{}", i + 1, mapInfo, weight1, weight2);
 
-        /**
-         * Evaluate to change sampling rate for Sel-INT at sw1.
-         * The trace is [50, 100, 50, 100, 50, 100, ...] Mpps, and sampling rate will be [1/50, 1/25, 1/50, 1/25, ...].
-         */
-        if (SEL_INT & BENCHMARK) {
-            String old_key, new_key;
-            String[] sel_group_keys = {"abc", "bcde"};
-            short[][] weights = {{49, 1}, {24, 1}};  // w1:w2, w2=add_int_header
-            /*try {
-                Thread.sleep(8000);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }*/
-            for (int i=0; i<30; ) {
-                // mod group table at sw1
-                try {
-                    Thread.sleep(TIME_INTERVAL);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                old_key = sel_group_keys[i % 2];
-                new_key = sel_group_keys[++i % 2];
-                weight1 = weights[i % 2][0];
-                weight2 = weights[i % 2][1];
-                log.info("i:{}, mapInfo:{}, old_key:{}, new_key:{}, w1:{}, w2:{}", i, mapInfo, old_key, new_key, weight1, weight2);
-
-                /* change group table at sw1 */
-                install_mod_pof_select_group_rule(sw1, sw1_tbl0, port3, port3, srcIp, old_key, new_key, sel_groupId, 12, weight1, weight2, mapInfo);
-            }
-        }
+        /* change group table at sw1 */
+        update_pof_select_group_rule(sw1, sw1_tbl0, port3, port3, srcIp, sel_key, 12, weight1, weight2, mapInfo);
     }
 
     public void pofTestStop4() {
+        open_teardown("pofTestStop4");
         /* remove group tables */
         if (SEL_INT) {
-            remove_pof_group_tables(sw1, sel_key);
-            remove_pof_group_tables(sw1, "bcde");
+            remove_pof_versioned_group(sw1, sel_key);
         }
         remove_pof_group_tables(sw6, all_key);
 
         /* for path revalidation scenario only. */
         if (SIMULATE_SEL_GROUP_TABLE) {
-            remove_pof_group_tables(sw2, sw2_sel_key);
-            remove_pof_group_tables(sw2, sw2_sel_key2);
+            remove_pof_versioned_group(sw2, sw2_sel_key);
         }
         if (SIMULATE_ALL_GROUP_TABLE) {
             remove_pof_group_tables(sw2, sw2_all_key);
@@ -678,34 +1056,49 @@ public class AppComponent {
 
         remove_pof_flow_table(sw5, sw5_tbl0);
         remove_pof_flow_table(sw6, sw6_tbl0);
+        run_teardown();
+        sixNodesProvisioned = false;
         log.info("org.onosproject.test.action Stopped: all flow/group tables are removed!");
     }
 
     public void pofTestStart5() {
         log.info("org.onosproject.pof.test.action Started");
 
-        sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
-        sw2_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw2, "AddIntMetadata");
-        sw3_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw3, "AddIntMetadata");
+        String mapInfo = "01";
+        int sampling_rate_N = 50;           // for p4-sINT
+        short weight1 = 49, weight2 = 1;    // for Sel-INT, w2: add_int_header
+        scenarioRunner.thenAwait("provision six nodes",
+                () -> provision_six_nodes("pofTestStart5", () -> pofTestEntries5(mapInfo, sampling_rate_N, weight1, weight2)));
 
-        if (TEST_PATH_RAVALIDATION) {
-            sw4_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw4, "AddIntMetadata");
+        // =========================================================================================
+
+        /** Evaluate to change sampling rate for p4-sINT at sw1.
+         *  The trace is [50, 100, 50, 100, 50, 100, ...] Mpps, and sampling rate will be double for [1/50, 1/25, 1/12, 1/6, 1/3, 1].
+         * */
+        if (P4_sINT) {  // sampling_rate_N: 50 -> 25 -> 12 -> 6 -> 3 -> 1
+            schedule_p4_sint_sampling_rates(mapInfo, 60000);    // run 60s, then to adjust sw_id
         }
 
-        sw5_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw5, "AddIntMetadata");
-        sw6_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw6, "MirrorIntMetadata");
+        /** Evaluate to change sampling rate for P4-sINT at sw1 per 100ms when ECMP (sw_id changes)
+         *  The trace is stable at 1 Mpps, and sampling rate will be [1/50, 1/25, 1/12, 1/6, 1/3, 1].
+         * */
+        if (P4_ECMP) {
 
-        // wait 1s
-        try {
-            Thread.sleep(1000);
-        } catch (Exception e) {
-            e.printStackTrace();
         }
 
+        /**
+         * Evaluate to change sampling rate for Sel-INT at sw1.
+         * The trace is 1 Mpps, and sampling rate will be [1/50, ...].
+         */
+        if (SEL_INT) {
+            // do nothing, maintain the sampling rate = w1:w2
+        }
+
+        scenarioRunner.start();
+    }
+
+    public void pofTestEntries5(String mapInfo, int sampling_rate_N, short weight1, short weight2) {
         /** SRC(sw1): send flow table match ip{208, 32} */
-        String mapInfo = "01";
-        int sampling_rate_N = 50;           // for p4-sINT
-        short weight1 = 49, weight2 = 1;    // for Sel-INT, w2: add_int_header
         if (P4_sINT) {
             /* rule1: send add_int_field rule to insert INT header in 1/N, the key->len refers to 'N'.*/
             install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
@@ -768,98 +1161,22 @@ public class AppComponent {
         /** SINK(sw6): trick, we don't mirror for performance consideration. */
 //        install_pof_add_int_field_rule_match_type(sw6, sw6_tbl0, int_type, port3, 12, "ff");   // "ff" means read mapInfo from pkts
 
-        // =========================================================================================
-
-        /** Evaluate to change sampling rate for p4-sINT at sw1.
-         *  The trace is [50, 100, 50, 100, 50, 100, ...] Mpps, and sampling rate will be double for [1/50, 1/25, 1/12, 1/6, 1/3, 1].
-         * */
-        if (P4_sINT) {  // sampling_rate_N: 50 -> 25 -> 12 -> 6 -> 3 -> 1
-            int i=0;
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            try {
-                Thread.sleep(60000);    // run 60s, then to adjust sw_id
-            } catch (Exception e) {
-                e.printStackTrace();
-            }  // for alignment
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            sampling_rate_N = 25;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            sampling_rate_N = 12;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            sampling_rate_N = 6;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            // wait
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            sampling_rate_N = 3;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i++);
-            try {
-                Thread.sleep(TIME_INTERVAL);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            sampling_rate_N = 1;
-            install_pof_add_int_field_rule_match_srcIp(sw1, sw1_tbl0, srcIp, port3, 12, mapInfo, sampling_rate_N);
-            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, i);
-        }
-
-        /** Evaluate to change sampling rate for P4-sINT at sw1 per 100ms when ECMP (sw_id changes)
-         *  The trace is stable at 1 Mpps, and sampling rate will be [1/50, 1/25, 1/12, 1/6, 1/3, 1].
-         * */
-        if (P4_ECMP) {
-
-        }
-
-        /**
-         * Evaluate to change sampling rate for Sel-INT at sw1.
-         * The trace is 1 Mpps, and sampling rate will be [1/50, ...].
-         */
-        if (SEL_INT) {
-            // do nothing, maintain the sampling rate = w1:w2
+        if (P4_sINT) {
+            log.info("P4-sINT, sampling_rate_N: {}, i:{}th", sampling_rate_N, 0);
         }
     }
 
     public void pofTestStop5() {
+        open_teardown("pofTestStop5");
         /* remove group tables */
         if (SEL_INT) {
-            remove_pof_group_tables(sw1, sel_key);
-            remove_pof_group_tables(sw1, "bcde");
+            remove_pof_versioned_group(sw1, sel_key);
         }
         remove_pof_group_tables(sw6, all_key);
 
         /* for path revalidation scenario only. */
         if (SIMULATE_SEL_GROUP_TABLE) {
-            remove_pof_group_tables(sw2, sw2_sel_key);
-            remove_pof_group_tables(sw2, sw2_sel_key2);
+            remove_pof_versioned_group(sw2, sw2_sel_key);
         }
         if (SIMULATE_ALL_GROUP_TABLE) {
             remove_pof_group_tables(sw2, sw2_all_key);
@@ -876,19 +1193,476 @@ public class AppComponent {
 
         remove_pof_flow_table(sw5, sw5_tbl0);
         remove_pof_flow_table(sw6, sw6_tbl0);
+        run_teardown();
+        sixNodesProvisioned = false;
         log.info("org.onosproject.test.action Stopped: all flow/group tables are removed!");
     }
 
+    /**
+     * ==================== rule batch ==================
+     */
+    public void open_rule_batch(String name) {
+        ruleBatch = new FlowRuleBatch(flowRuleService, name, flowControl);
+    }
+
+    /**
+     * send the queued entries as FlowRuleOperations stages, later entries are applied immediately.
+     * the entries of a device are sent after its groups added in the batch are confirmed.
+     */
+    public CompletableFuture<Boolean> submit_rule_batch() {
+        FlowRuleBatch batch = ruleBatch;
+        ruleBatch = null;
+        if (batch == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        /* groups may take up to INSTALL_TIMEOUT, then the entries up to INSTALL_TIMEOUT. */
+        return installTracker.within(batch.submit(), 2 * INSTALL_TIMEOUT);
+    }
+
+    /* add the group, the entries queued in the opened batch wait until the device has added it. */
+    public void apply_pof_group(GroupDescription group) {
+        DesiredState desired = desiredState;
+        if (desired != null) {
+            desired.addGroup(group);
+            return;
+        }
+        CompletableFuture<Void> added = send_pof_group(group);
+        FlowRuleBatch batch = ruleBatch;
+        if (batch != null) {
+            batch.afterGroup(group.deviceId(), group.appCookie(), added);
+        }
+    }
+
+    /* add the group within the flow control of its device, completes when the device has added it. */
+    public CompletableFuture<Void> send_pof_group(GroupDescription group) {
+        CompletableFuture<Void> added = installTracker.groupAdded(group.deviceId(), group.appCookie(), INSTALL_TIMEOUT);
+        flowControl.submit(group.deviceId(), 1, () -> {
+            groupService.addGroup(group);
+            return added;
+        });
+        return added;
+    }
+
+    /* change the buckets (and key) of a group within the flow control of its device, completes when the device has. */
+    public CompletableFuture<Void> send_pof_group_buckets(DeviceId deviceId, GroupKey key, GroupBuckets buckets, GroupKey new_key) {
+        CompletableFuture<Void> updated = installTracker.groupUpdated(deviceId, new_key, INSTALL_TIMEOUT);
+        flowControl.submit(deviceId, 1, () -> {
+            groupService.setBucketsForGroup(deviceId, key, buckets, new_key, appId);
+            return updated;
+        });
+        return updated;
+    }
+
+    /* remove a group within the flow control of its device, completes when the device has removed it. */
+    public CompletableFuture<Void> send_pof_group_removal(DeviceId deviceId, GroupKey key) {
+        CompletableFuture<Void> removed = installTracker.groupRemoved(deviceId, key, INSTALL_TIMEOUT);
+        flowControl.submit(deviceId, 1, () -> {
+            groupService.removeGroup(deviceId, key, appId);
+            return removed;
+        });
+        return removed;
+    }
+
+    /* entries queued for 'deviceId' after this call are sent after the previous ones are applied. */
+    public void new_rule_stage(DeviceId deviceId) {
+        FlowRuleBatch batch = ruleBatch;
+        if (batch != null) {
+            batch.newStage(deviceId);
+        }
+    }
+
+    /**
+     * ==================== teardown ==================
+     */
+    /* the following remove_pof_flow_table() and remove_pof_group_tables() calls are queued. */
+    public void open_teardown(String name) {
+        teardown = new_teardown(name);
+    }
+
+    /**
+     * remove the queued entries, groups and tables, all devices in parallel, and wait for it,
+     * so that deactivate() returns with the switches cleaned.
+     * @return true if all devices confirmed the removal
+     */
+    public boolean run_teardown() {
+        TeardownEngine opened = teardown;
+        teardown = null;
+        if (opened == null) {
+            return true;
+        }
+        try {
+            return opened.run().get(3 * INSTALL_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("teardown is not finished: {}", e.toString());
+            return false;
+        }
+    }
+
+    private TeardownEngine new_teardown(String name) {
+        return new TeardownEngine(name, flowRuleService, flowTableStore, flowTableService, groupService,
+                                  installTracker, flowControl, flowIds, appId, INSTALL_TIMEOUT);
+    }
+
+    /* record the entry into the desired state or queue it into the opened batch, otherwise apply it immediately. */
+    public void apply_pof_flow_rule(FlowRule flowRule) {
+        DesiredState desired = desiredState;
+        if (desired != null) {
+            desired.addEntry(flowRule);
+            return;
+        }
+        FlowRuleBatch batch = ruleBatch;
+        if (batch != null) {
+            batch.add(flowRule);
+        } else {
+            flowControl.submit(flowRule.deviceId(), 1, () -> {
+                CompletableFuture<Void> added = installTracker.flowRuleAdded(flowRule.deviceId(),
+                                                                             flowRule.id().value(), INSTALL_TIMEOUT);
+                flowRuleService.applyFlowRules(flowRule);
+                return added;
+            });
+        }
+    }
+
+    /**
+     * SRC(sw1) matches ip{208, 32}, INTER(sw2..sw5) and SINK(sw6) match int_type{272, 16}.
+     * @return deviceId -> completes when the switch has added its table
+     */
+    public Map<DeviceId, CompletableFuture<Void>> send_pof_flow_tables_at_six_nodes() {
+        Map<DeviceId, CompletableFuture<Void>> added = new LinkedHashMap<>();
+        for (DeviceId deviceId : six_nodes()) {
+            byte tableId = send_pof_flow_table_at_node(deviceId);
+            added.put(deviceId, installTracker.tableAdded(deviceId, tableId, INSTALL_TIMEOUT));
+        }
+        return added;
+    }
+
+    /* sw1..sw6, sw4 only if TEST_PATH_RAVALIDATION. */
+    public List<DeviceId> six_nodes() {
+        List<DeviceId> nodes = new ArrayList<>(Arrays.asList(sw1, sw2, sw3, sw4, sw5, sw6));
+        if (!TEST_PATH_RAVALIDATION) {
+            nodes.remove(sw4);
+        }
+        return nodes;
+    }
+
+    /* send the table of one of sw1..sw6 and remember its tableId. */
+    public byte send_pof_flow_table_at_node(DeviceId deviceId) {
+        if (deviceId.equals(sw1)) {
+            sw1_tbl0 = send_pof_flow_table_match_SIP_at_SRC(sw1, "AddIntHeader");
+            return sw1_tbl0;
+        } else if (deviceId.equals(sw2)) {
+            sw2_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw2, "AddIntMetadata");
+            return sw2_tbl0;
+        } else if (deviceId.equals(sw3)) {
+            sw3_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw3, "AddIntMetadata");
+            return sw3_tbl0;
+        } else if (deviceId.equals(sw4)) {
+            sw4_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw4, "AddIntMetadata");
+            return sw4_tbl0;
+        } else if (deviceId.equals(sw5)) {
+            sw5_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw5, "AddIntMetadata");
+            return sw5_tbl0;
+        } else {
+            sw6_tbl0 = send_pof_flow_table_match_INT_TYPE_at_INTER(sw6, "MirrorIntMetadata");
+            return sw6_tbl0;
+        }
+    }
+
+    /* the tableId of one of sw1..sw6. */
+    public byte table_at_node(DeviceId deviceId) {
+        if (deviceId.equals(sw1)) {
+            return sw1_tbl0;
+        } else if (deviceId.equals(sw2)) {
+            return sw2_tbl0;
+        } else if (deviceId.equals(sw3)) {
+            return sw3_tbl0;
+        } else if (deviceId.equals(sw4)) {
+            return sw4_tbl0;
+        } else if (deviceId.equals(sw5)) {
+            return sw5_tbl0;
+        } else {
+            return sw6_tbl0;
+        }
+    }
+
+    /**
+     * provision sw1..sw6 independently: each switch gets its entries as soon as its own table
+     * (and the groups its entries point to) is added, without waiting for the other switches.
+     * @param name used for logs
+     * @param installEntries calls install_pof_*() for the six switches, the entries are queued
+     * @return completes with true when all switches have applied their entries
+     */
+    public CompletableFuture<Boolean> provision_six_nodes(String name, Runnable installEntries) {
+        if (sixNodesProvisioned) {
+            /* the tables are there, push only what changed. */
+            return reprovision_six_nodes(name, installEntries);
+        }
+        sixNodesProvisioned = true;
+        provisionedEntries = installEntries;
+        long start = System.currentTimeMillis();
+        Map<DeviceId, CompletableFuture<Void>> tables = send_pof_flow_tables_at_six_nodes();
+
+        /* groups are sent right away, entries are queued per device. */
+        open_rule_batch(name);
+        installEntries.run();
+        FlowRuleBatch batch = ruleBatch;
+        ruleBatch = null;
+        /* the next runs reconcile these groups. */
+        batch.groups().forEach((deviceId, keys) -> keys.forEach(key -> reconciler.own(SIX_NODES, deviceId, key)));
+        return submit_when_tables_added(name, batch, tables, start);
+    }
+
+    /* submit the entries of each device of 'batch' as soon as its table in 'tables' is added. */
+    private CompletableFuture<Boolean> submit_when_tables_added(String name, FlowRuleBatch batch,
+                                                               Map<DeviceId, CompletableFuture<Void>> tables,
+                                                               long start) {
+        List<CompletableFuture<Boolean>> devices = new ArrayList<>();
+        for (Map.Entry<DeviceId, CompletableFuture<Void>> table : tables.entrySet()) {
+            DeviceId deviceId = table.getKey();
+            CompletableFuture<Boolean> applied = table.getValue()
+                    .handle((r, e) -> null)     // timeout: send the entries anyway
+                    .thenCompose(v -> batch.submit(deviceId))
+                    .whenComplete((ok, e) -> log.info("{}: device<{}> provisioned in {} ms, ok: {}",
+                                                      name, deviceId, System.currentTimeMillis() - start, ok));
+            devices.add(installTracker.within(applied, 3 * INSTALL_TIMEOUT).exceptionally(e -> false));
+        }
+        /* entries of switches without a table here, if any. */
+        for (DeviceId deviceId : batch.devices()) {
+            if (!tables.containsKey(deviceId)) {
+                devices.add(batch.submit(deviceId));
+            }
+        }
+
+        return CompletableFuture.allOf(devices.toArray(new CompletableFuture[0]))
+                .thenApply(v -> devices.stream().allMatch(CompletableFuture::join));
+    }
+
+    /**
+     * ==================== INT path ==================
+     */
+    /**
+     * instrument the path from 'src' to 'dst' computed from the topology: each switch gets a table and
+     * the rules of its role, SOURCE add_int_field, TRANSIT add_int_field + INT-TTL, SINK the mirror all_group.
+     * the rules of all hops are built in parallel into one batch of the path, not the opened one;
+     * a switch gets its entries once its own table is added.
+     * @param name names the path, for logs, the sink group key and remove_int_path()
+     * @param src source host or device
+     * @param dst sink host or device
+     * @param sinkPort the port towards the user if 'dst' is a device, otherwise null
+     * @param collectorPort the port of the sink towards the INT collector
+     * @param srcIP the flow to instrument at the source, such as "0a000001", hex str
+     * @param mapInfo the INT data to add at the source, such as "01"
+     * @return completes with true when all switches of the path have applied their entries, false
+     *         if there is no path or a hop has no out port
+     */
+    public CompletableFuture<Boolean> provision_int_path(String name, ElementId src, ElementId dst, PortNumber sinkPort,
+                                                         int collectorPort, String srcIP, String mapInfo) {
+        List<IntPathCompiler.Hop> hops = intPathCompiler.compile(src, dst, sinkPort);
+        if (hops.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        for (IntPathCompiler.Hop hop : hops) {
+            if (hop.outPort() == null) {
+                /* only the sink can miss it, when 'dst' is a device. */
+                log.warn("INT path<{}>: {} has no out port, give the sinkPort of device {}.", name, hop, dst);
+                return CompletableFuture.completedFuture(false);
+            }
+        }
+        long start = System.currentTimeMillis();
+        Map<DeviceId, Byte> tableIds = new ConcurrentHashMap<>();
+        Map<DeviceId, CompletableFuture<Void>> tables = new ConcurrentHashMap<>();
+
+        FlowRuleBatch batch = new FlowRuleBatch(flowRuleService, name, flowControl);
+        hops.parallelStream().forEach(hop -> {
+            DeviceId deviceId = hop.deviceId();
+            byte tableId = hop.role() == IntPathCompiler.Role.SOURCE
+                    ? send_pof_flow_table_match_SIP_at_SRC(deviceId, "AddIntHeader")
+                    : send_pof_flow_table_match_INT_TYPE_at_INTER(deviceId,
+                            hop.role() == IntPathCompiler.Role.SINK ? "MirrorIntMetadata" : "AddIntMetadata");
+            tableIds.put(deviceId, tableId);
+            tables.put(deviceId, installTracker.tableAdded(deviceId, tableId, INSTALL_TIMEOUT));
+            install_int_path_hop(batch, name, hop, tableId, collectorPort, srcIP, mapInfo);
+        });
+        intPaths.put(name, tableIds);
+        add_provisioned_path(name, hops.stream().map(IntPathCompiler.Hop::deviceId).collect(Collectors.toList()));
+        return submit_when_tables_added(name, batch, tables, start);
+    }
+
+    /**
+     * the rules of one switch of the INT path, queued into 'batch'. it only touches its own
+     * switch and the thread-safe allocators, so the hops of a path are built in parallel.
+     */
+    public void install_int_path_hop(FlowRuleBatch batch, String name, IntPathCompiler.Hop hop, byte tableId,
+                                     int collectorPort, String srcIP, String mapInfo) {
+        DeviceId deviceId = hop.deviceId();
+        int outport = (int) hop.outPort().toLong();
+        switch (hop.role()) {
+            case SOURCE:
+                batch.add(pof_add_int_field_rule_match_srcIp(deviceId, tableId, srcIP, outport, 12, mapInfo,
+                                                             flowIds.entryId(deviceId, tableId)));
+                batch.add(pof_output_flow_rule_match_default_ip_at_SRC(deviceId, tableId, srcIP, outport, 2,
+                                                                       flowIds.entryId(deviceId, tableId)));
+                break;
+            case TRANSIT:
+                batch.add(pof_add_int_field_rule_match_type(deviceId, tableId, int_type, outport, 12, "ff",   // "ff" means read mapInfo from pkts
+                                                            flowIds.entryId(deviceId, tableId)));
+                batch.add(pof_output_flow_rule_match_default_type_at_INTER_or_SINK(deviceId, tableId, int_type, outport, 1,
+                                                                                   flowIds.entryId(deviceId, tableId)));
+                break;
+            case SINK:
+                /* the mirror group gets its own key and groupId, removed by remove_pof_versioned_group(). */
+                GroupKeyAllocator.Version mirror = groupVersions.next(deviceId, name);
+                groupVersions.commit(deviceId, mirror);
+                GroupDescription mirror_group = pof_all_group_match_type(deviceId, mirror.keyStr(), mirror.groupId(),
+                                                                         outport, collectorPort, "ff");
+                batch.afterGroup(deviceId, mirror_group.appCookie(), send_pof_group(mirror_group));
+                batch.add(pof_group_rule_match_type(deviceId, tableId, int_type, mirror.groupId(), 12,
+                                                    flowIds.entryId(deviceId, tableId)));
+                batch.newStage(deviceId);
+                batch.add(pof_output_flow_rule_match_default_type_at_INTER_or_SINK(deviceId, tableId, int_type, outport, 1,  // usr_port
+                                                                                   flowIds.entryId(deviceId, tableId)));
+                break;
+            default:
+                break;
+        }
+        log.info("INT path<{}>: {} queued, deviceId<{}> tableId<{}>", name, hop.role(), deviceId.toString(), tableId);
+    }
+
+    /* remove the groups and tables of an INT path added by provision_int_path(). */
+    public void remove_int_path(String name) {
+        Map<DeviceId, Byte> tableIds = intPaths.remove(name);
+        if (tableIds == null) {
+            return;
+        }
+        remove_provisioned_path(name);
+        boolean own = teardown == null;
+        if (own) {
+            open_teardown("int-path-" + name);
+        }
+        for (Map.Entry<DeviceId, Byte> table : tableIds.entrySet()) {
+            if (groupVersions.current(table.getKey(), name) != null) {
+                remove_pof_versioned_group(table.getKey(), name);
+            }
+            remove_pof_flow_table(table.getKey(), table.getValue());
+        }
+        if (own) {
+            run_teardown();
+        }
+        log.info("INT path<{}> removed from {} devices.", name, tableIds.size());
+    }
+
+    /**
+     * compute the entries and groups of sw1..sw6 again and send only the difference
+     * against what the switches have, keeping the existing tables.
+     */
+    public CompletableFuture<Boolean> reprovision_six_nodes(String name, Runnable installEntries) {
+        provisionedEntries = installEntries;
+        open_desired_state(name, SIX_NODES);
+        DesiredState desired = desiredState;
+        desire_table(desired, sw1, sw1_tbl0);
+        desire_table(desired, sw2, sw2_tbl0);
+        desire_table(desired, sw3, sw3_tbl0);
+        desire_table(desired, sw5, sw5_tbl0);
+        desire_table(desired, sw6, sw6_tbl0);
+        if (TEST_PATH_RAVALIDATION) {
+            desire_table(desired, sw4, sw4_tbl0);
+        }
+        installEntries.run();
+        return reconcile_desired_state();
+    }
+
+    /* with its definition if this app sent the table, so the reconciler can add it again. */
+    private void desire_table(DesiredState desired, DeviceId deviceId, byte tableId) {
+        FlowTable table = sentTables.getOrDefault(deviceId, Collections.emptyMap()).get((int) tableId);
+        if (table != null) {
+            desired.addTable(table);
+        } else {
+            desired.addTable(deviceId, tableId);
+        }
+    }
+
+    /**
+     * provision one switch of sw1..sw6 again, e.g. after it restarted and lost its table, entries and groups:
+     * a new table, then the entries of the provisioned scenario for this switch only. the other switches
+     * are not touched. groups still in the group store are restored by the group audit of ONOS.
+     * @return completes with true when the switch has applied its entries
+     */
+    public CompletableFuture<Boolean> reprovision_device(DeviceId deviceId) {
+        Runnable installEntries = provisionedEntries;
+        if (!sixNodesProvisioned || installEntries == null || !six_nodes().contains(deviceId)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        String name = "reprovision-" + deviceId;
+        long start = System.currentTimeMillis();
+
+        /* the switch has lost the table, drop it from the store together with its entries. */
+        byte oldTableId = table_at_node(deviceId);
+        flowTableService.removeFlowTablesByTableId(deviceId, FlowTableId.valueOf(oldTableId));
+        forget_sent_table(deviceId, oldTableId);
+        flowIds.forgetTable(deviceId, oldTableId);
+        byte tableId = send_pof_flow_table_at_node(deviceId);
+        CompletableFuture<Void> table = installTracker.tableAdded(deviceId, tableId, INSTALL_TIMEOUT);
+
+        /* replay the scenario into a desired state, keep only this switch. */
+        open_desired_state(name);
+        installEntries.run();
+        DesiredState desired = desiredState;
+        desiredState = null;
+        for (DeviceId other : desired.devices()) {
+            if (!other.equals(deviceId)) {
+                desired.entries(other).values().forEach(
+                        flowRule -> flowIds.release(other, flowRule.tableId(), flowRule.id().value()));
+            }
+        }
+
+        FlowRuleBatch batch = new FlowRuleBatch(flowRuleService, name, flowControl);
+        batch.after(deviceId, table);
+        for (GroupDescription group : desired.groups(deviceId).values()) {
+            if (groupService.getGroup(deviceId, group.appCookie()) == null) {
+                batch.after(deviceId, send_pof_group(group));
+            }
+        }
+        for (FlowRule flowRule : desired.entries(deviceId).values()) {
+            batch.add(flowRule);
+        }
+        return installTracker.within(batch.submit(deviceId), 3 * INSTALL_TIMEOUT)
+                .exceptionally(e -> false)
+                .whenComplete((ok, e) -> log.info("{}: {} entries in {} ms, ok: {}", name,
+                                                  desired.entries(deviceId).size(), System.currentTimeMillis() - start, ok));
+    }
+
+    /* the following install_pof_*() calls only describe the entries and groups. */
+    public void open_desired_state(String name) {
+        desiredState = new DesiredState(name);
+    }
+
+    /* as open_desired_state(name), the groups belong to 'owner' across the states. */
+    public void open_desired_state(String name, String owner) {
+        desiredState = new DesiredState(name, owner);
+    }
+
+    /* send the difference between the recorded state and the switches, later calls are applied immediately. */
+    public CompletableFuture<Boolean> reconcile_desired_state() {
+        DesiredState desired = desiredState;
+        desiredState = null;
+        if (desired == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return installTracker.within(reconciler.reconcile(desired), 2 * INSTALL_TIMEOUT);
+    }
+
     public byte send_pof_flow_table_match_SIP_at_SRC(DeviceId deviceId, String table_name) {
-        byte globeTableId = (byte) tableStore.getNewGlobalFlowTableId(deviceId, OFTableType.OF_MM_TABLE);
-        byte tableId = tableStore.parseToSmallTableId(deviceId, globeTableId);
+        byte tableId = flowIds.tableId(deviceId, OFTableType.OF_MM_TABLE);
 //        byte tableId = global_tbl_0;
 
         OFMatch20 srcIP = new OFMatch20();
         srcIP.setFieldId((short) SIP);
         srcIP.setFieldName("srcIP");
-        srcIP.setOffset((short) 208);
-        srcIP.setLength((short) 32);
+        srcIP.setOffset(IPV4_SRC_OFF);
+        srcIP.setLength(IPV4_ADDR_LEN);
 
         ArrayList<OFMatch20> match20List = new ArrayList<>();
         match20List.add(srcIP);
@@ -909,7 +1683,7 @@ public class AppComponent {
                 .forDevice(deviceId)
                 .fromApp(appId);
 
-        flowTableService.applyFlowTables(flowTable.build());
+        apply_pof_flow_table(flowTable.build());
 
         log.info("table<{}> applied to device<{}> successfully.", tableId, deviceId.toString());
 
@@ -917,8 +1691,7 @@ public class AppComponent {
     }
 
     public byte send_pof_flow_table_match_INT_TYPE_at_INTER(DeviceId deviceId, String table_name) {
-        byte globeTableId = (byte) tableStore.getNewGlobalFlowTableId(deviceId, OFTableType.OF_MM_TABLE);
-        byte tableId = tableStore.parseToSmallTableId(deviceId, globeTableId);
+        byte tableId = flowIds.tableId(deviceId, OFTableType.OF_MM_TABLE);
 
 //        byte tableId = global_tbl_0;
 
@@ -947,49 +1720,78 @@ public class AppComponent {
                 .forDevice(deviceId)
                 .fromApp(appId);
 
-        flowTableService.applyFlowTables(flowTable.build());
+        apply_pof_flow_table(flowTable.build());
         log.info("table<{}> applied to device<{}> successfully.", tableId, deviceId.toString());
 
         return tableId;
     }
 
+    /* send the table, and keep it for desire_table(). */
+    private void apply_pof_flow_table(FlowTable table) {
+        sentTables.computeIfAbsent(table.deviceId(), k -> new ConcurrentHashMap<>())
+                .put((int) table.id().value(), table);
+        flowTableService.applyFlowTables(table);
+    }
+
+    private void forget_sent_table(DeviceId deviceId, byte tableId) {
+        Map<Integer, FlowTable> tables = sentTables.get(deviceId);
+        if (tables != null) {
+            tables.remove((int) tableId);
+        }
+    }
+
+    /* remove the entries of this table only, then the table. queued if a teardown is opened. */
     public void remove_pof_flow_table(DeviceId deviceId, byte tableId) {
-        flowRuleService.removeFlowRulesById(appId);  // for ovs-pof
-        flowTableService.removeFlowTablesByTableId(deviceId, FlowTableId.valueOf(tableId));
+        forget_sent_table(deviceId, tableId);
+        TeardownEngine opened = teardown;
+        if (opened != null) {
+            opened.removeTable(deviceId, tableId);
+        } else {
+            new_teardown("table-" + tableId).removeTable(deviceId, tableId).run();
+        }
         log.info(" remove table from device<{}>  table<{}> successfully.", deviceId.toString(), tableId);
     }
 
     public void install_pof_output_flow_rule_match_default_ip_at_SRC(DeviceId deviceId, byte tableId, String srcIP, int outport,
                                                            int priority) {
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
+        apply_pof_flow_rule(pof_output_flow_rule_match_default_ip_at_SRC(deviceId, tableId, srcIP, outport, priority, newFlowEntryId));
+        log.info("match_default_ip_at_SRC: apply to deviceId<{}> tableId<{}>, entryId=<{}>", deviceId.toString(), tableId, newFlowEntryId);
+    }
+
+    public FlowRule pof_output_flow_rule_match_default_ip_at_SRC(DeviceId deviceId, byte tableId, String srcIP, int outport,
+                                                       int priority, long entryId) {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "00000000"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "00000000"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_output);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
 
-        // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
-        FlowRule.Builder flowRule = DefaultFlowRule.builder()
+        return DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
                 .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withTreatment(actionTemplates.treatment(actions))
                 .withPriority(priority)
-                .withCookie(newFlowEntryId)
-                .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
-        log.info("match_default_ip_at_SRC: apply to deviceId<{}> tableId<{}>, entryId=<{}>", deviceId.toString(), tableId, newFlowEntryId);
+                .withCookie(entryId)
+                .makePermanent()
+                .build();
     }
 
     public void install_pof_output_flow_rule_match_default_type_at_INTER_or_SINK(DeviceId deviceId, byte tableId, String intType, int outport,
                                                                      int priority) {
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
+        apply_pof_flow_rule(pof_output_flow_rule_match_default_type_at_INTER_or_SINK(deviceId, tableId, intType, outport, priority, newFlowEntryId));
+        log.info("match_default_type_at_INTER_or_SINK: apply to deviceId<{}> tableId<{}>, entryId=<{}>", deviceId.toString(), tableId, newFlowEntryId);
+    }
+
+    public FlowRule pof_output_flow_rule_match_default_type_at_INTER_or_SINK(DeviceId deviceId, byte tableId, String intType, int outport,
+                                                                 int priority, long entryId) {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
@@ -997,24 +1799,19 @@ public class AppComponent {
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_output);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
 
-        // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
-        FlowRule.Builder flowRule = DefaultFlowRule.builder()
+        return DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
                 .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withTreatment(actionTemplates.treatment(actions))
                 .withPriority(priority)
-                .withCookie(newFlowEntryId)
-                .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
-        log.info("match_default_type_at_INTER_or_SINK: apply to deviceId<{}> tableId<{}>, entryId=<{}>", deviceId.toString(), tableId, newFlowEntryId);
+                .withCookie(entryId)
+                .makePermanent()
+                .build();
     }
 
     /**
@@ -1030,19 +1827,19 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength((short) SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength((short) SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
         TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_output);
         trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
         log.info("action_output: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1051,7 +1848,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
         log.info("Test no INT: apply to deviceId<{}> tableId<{}>, entryId=<{}>", deviceId.toString(), tableId, newFlowEntryId);
     }
 
@@ -1066,6 +1863,12 @@ public class AppComponent {
      * @param mapInfo hex str, one byte. such as '3f'
      */
     public void install_pof_add_int_field_rule_match_type(DeviceId deviceId, byte tableId, String int_type, int outport, int priority, String mapInfo) {
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
+        apply_pof_flow_rule(pof_add_int_field_rule_match_type(deviceId, tableId, int_type, outport, priority, mapInfo, newFlowEntryId));
+        log.info("install_pof_int_field_flow_rule_match_type: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
+    }
+
+    public FlowRule pof_add_int_field_rule_match_type(DeviceId deviceId, byte tableId, String int_type, int outport, int priority, String mapInfo, long entryId) {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
@@ -1074,25 +1877,19 @@ public class AppComponent {
 
         // action
         short int_field_id = -1;
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
 
         /* 0b'00 00 00 00 = x | x | bandwidth | egress_time || ingress_time | out_port | in_port | dpid.
          * if 'mapInfo' == 0xff, then read 'mapInfo' from packets.
          * at src node or single node, 'mapInfo' cannot be 0xff.
          */
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo).action();
-        OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo);
+        OFAction action_add_func_field = path_func_field(deviceId);
 
         // modify INT-ttl
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
+        OFAction action_inc_INT_ttl = actionTemplates.modifyField(INT_TTL, "INT_ttl", INT_HEADER_TTL_OFF, INT_HEADER_TTL_LEN, 1);
 
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
 
         actions.add(action_add_int_field);    /* add int metadata. */
         if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
@@ -1100,22 +1897,17 @@ public class AppComponent {
         }
         actions.add(action_inc_INT_ttl);      /* increment int_ttl field by 1 */
         actions.add(action_output);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
         log.info("action_add_field: {}.", actions);
 
-        // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
-        FlowRule.Builder flowRule = DefaultFlowRule.builder()
+        return DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
                 .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withTreatment(actionTemplates.treatment(actions))
                 .withPriority(priority)
-                .withCookie(newFlowEntryId)
-                .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
-
-        log.info("install_pof_int_field_flow_rule_match_type: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
+                .withCookie(entryId)
+                .makePermanent()
+                .build();
     }
 
     public void install_modify_pof_add_int_field_rule_match_type(DeviceId deviceId, byte tableId, String int_type, long entryId, int outport, int priority, String mapInfo) {
@@ -1127,25 +1919,19 @@ public class AppComponent {
 
         // action
         short int_field_id = -1;
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
 
         /* 0b'00 00 00 00 = x | x | bandwidth | egress_time || ingress_time | out_port | in_port | dpid.
          * if 'mapInfo' == 0xff, then read 'mapInfo' from packets.
          * at src node or single node, 'mapInfo' cannot be 0xff.
          */
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo).action();
-        OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo);
+        OFAction action_add_func_field = path_func_field(deviceId);
 
         // modify INT-ttl
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
+        OFAction action_inc_INT_ttl = actionTemplates.modifyField(INT_TTL, "INT_ttl", INT_HEADER_TTL_OFF, INT_HEADER_TTL_LEN, 1);
 
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
 
         actions.add(action_add_int_field);    /* add int metadata. */
         if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
@@ -1153,7 +1939,6 @@ public class AppComponent {
         }
         actions.add(action_inc_INT_ttl);      /* increment int_ttl field by 1 */
         actions.add(action_output);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
         log.info("action_add_field: {}.", actions);
 
         // apply
@@ -1163,11 +1948,11 @@ public class AppComponent {
                 .forDevice(deviceId)
                 .forTable(tableId)
                 .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withTreatment(actionTemplates.treatment(actions))
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("install_pof_int_field_flow_rule_match_type: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
     }
@@ -1183,45 +1968,45 @@ public class AppComponent {
      * @param mapInfo hex str, one byte. such as '3f'
      */
     public void install_pof_add_int_field_rule_match_srcIp(DeviceId deviceId, byte tableId, String srcIp, int outport, int priority, String mapInfo) {
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
+        apply_pof_flow_rule(pof_add_int_field_rule_match_srcIp(deviceId, tableId, srcIp, outport, priority, mapInfo, newFlowEntryId));
+        log.info("install_pof_int_field_flow_rule_match_srcIP: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
+    }
+
+    public FlowRule pof_add_int_field_rule_match_srcIp(DeviceId deviceId, byte tableId, String srcIp, int outport, int priority, String mapInfo, long entryId) {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIp, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIp, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
         short int_field_id = -1;
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
 
         /* 0b'00 00 00 00 = x | x | bandwidth | egress_time || ingress_time | out_port | in_port | dpid.
          * if 'mapInfo' == 0xff, then read 'mapInfo' from packets.
          * at src node or single node, 'mapInfo' cannot be 0xff.
          */
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo).action();
-        OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo);
+        OFAction action_add_func_field = path_func_field(deviceId);
 
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
 
         actions.add(action_add_int_field);
 //        actions.add(action_add_func_field);  /* This action used to revalidate path. */
         actions.add(action_output);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
         log.info("action_add_field: {}.", actions);
 
-        // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
-        FlowRule.Builder flowRule = DefaultFlowRule.builder()
+        return DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
                 .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withTreatment(actionTemplates.treatment(actions))
                 .withPriority(priority)
-                .withCookie(newFlowEntryId)
-                .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
-
-        log.info("install_pof_int_field_flow_rule_match_srcIP: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
+                .withCookie(entryId)
+                .makePermanent()
+                .build();
     }
 
 
@@ -1229,17 +2014,17 @@ public class AppComponent {
      * 1/N sampling method to insert INT header. just apply 'add_int_field' action
      * @param sampling_rate_N
      */
-    public void install_pof_add_int_field_rule_match_srcIp(DeviceId deviceId, byte tableId, String srcIp, int outport,
-                                                           int priority, String mapInfo, int sampling_rate_N) {
+    public CompletableFuture<Boolean> install_pof_add_int_field_rule_match_srcIp(DeviceId deviceId, byte tableId, String srcIp,
+                                                                                 int outport, int priority, String mapInfo,
+                                                                                 int sampling_rate_N) {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIp, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIp, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
         short int_field_id = -1;
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
 
         /* 0b'00 00 00 00 = x | x | bandwidth | egress_time || ingress_time | out_port | in_port | dpid.
@@ -1247,38 +2032,70 @@ public class AppComponent {
          * at src node or single node, 'mapInfo' cannot be 0xff.
          * sampling_rate_N define the 'N' to select one in N
          */
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, sampling_rate_N * 8, mapInfo).action();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, sampling_rate_N * 8, mapInfo);
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_add_int_field);
         actions.add(action_output);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
 
-        // get existed flow rules in flow table. if the srcIp equals, then delete it
-        /*Map<Integer, FlowRule> existedFlowRules = new HashMap<>();
-        existedFlowRules = flowTableStore.getFlowEntries(deviceId, FlowTableId.valueOf(tableId));
-        if(existedFlowRules != null) {
-            for(Integer flowEntryId : existedFlowRules.keySet()) {
-                if(existedFlowRules.get(flowEntryId).selector().equals(trafficSelector.build())) {
-                    flowTableService.removeFlowEntryByEntryId(deviceId, tableId, flowEntryId);
-                    log.info("install_pof_add_int_field_rule_match_srcIp: remove flow entry, deviceId<{}> tableId<{}> entryId<{}>",
-                            deviceId.toString(), tableId, flowEntryId);
-                }
+        // get existed flow rules in flow table. if the srcIp equals, then modify it in place (same entryId),
+        // so that a new 'sampling_rate_N' does not add another entry of the same selector and priority.
+        TrafficSelector selector = trafficSelector.build();
+        TrafficTreatment treatment = actionTemplates.treatment(actions);
+        if (desiredState != null || ruleBatch != null) {
+            /* part of a scenario setup, sent with the rest of it. */
+            long newFlowEntryId = sampling_entry_id(deviceId, tableId, selector);
+            if (newFlowEntryId < 0) {
+                newFlowEntryId = flowIds.entryId(deviceId, tableId);
             }
-        }*/
+            apply_pof_flow_rule(sampling_rule(deviceId, tableId, selector, treatment, priority, newFlowEntryId));
+            return CompletableFuture.completedFuture(true);
+        }
 
-        // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
-        FlowRule.Builder flowRule = DefaultFlowRule.builder()
+        /* one modification at a time per entry, only the latest pending 'sampling_rate_N' is sent. */
+        return updates.submit(Arrays.asList(deviceId, tableId, selector.criteria()), () -> {
+            long newFlowEntryId = sampling_entry_id(deviceId, tableId, selector);
+            FlowRuleBatch batch = new FlowRuleBatch(flowRuleService, "sampling-" + srcIp, flowControl);
+            if (newFlowEntryId < 0) {
+                newFlowEntryId = flowIds.entryId(deviceId, tableId);
+                batch.add(sampling_rule(deviceId, tableId, selector, treatment, priority, newFlowEntryId));
+            } else {
+                batch.modify(sampling_rule(deviceId, tableId, selector, treatment, priority, newFlowEntryId));
+            }
+            log.info("install_pof_int_field_flow_rule_match_srcIP: apply to deviceId<{}> tableId<{}> entryId<{}> N<{}>",
+                     deviceId.toString(), tableId, newFlowEntryId, sampling_rate_N);
+            return installTracker.within(batch.submit(), INSTALL_TIMEOUT);
+        });
+    }
+
+    /* the entryId of the entry matching 'selector' at (deviceId, tableId), the other entries
+     * of the same selector are removed. -1 if there is none. */
+    private long sampling_entry_id(DeviceId deviceId, byte tableId, TrafficSelector selector) {
+        long newFlowEntryId = -1;
+        for (int flowEntryId : selectorIndex.lookup(deviceId, tableId, selector)) {
+            if (newFlowEntryId < 0) {
+                newFlowEntryId = flowEntryId;
+                continue;
+            }
+            flowTableService.removeFlowEntryByEntryId(deviceId, tableId, flowEntryId);
+            selectorIndex.remove(deviceId, tableId, selector, flowEntryId);
+            flowIds.release(deviceId, tableId, flowEntryId);
+            log.info("install_pof_add_int_field_rule_match_srcIp: remove flow entry, deviceId<{}> tableId<{}> entryId<{}>",
+                     deviceId.toString(), tableId, flowEntryId);
+        }
+        return newFlowEntryId;
+    }
+
+    private FlowRule sampling_rule(DeviceId deviceId, byte tableId, TrafficSelector selector,
+                                   TrafficTreatment treatment, int priority, long entryId) {
+        return DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
-                .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withSelector(selector)
+                .withTreatment(treatment)
                 .withPriority(priority)
-                .withCookie(newFlowEntryId)
-                .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
-
-        log.info("install_pof_int_field_flow_rule_match_srcIP: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
+                .withCookie(entryId)
+                .makePermanent()
+                .build();
     }
 
     /**
@@ -1330,7 +2147,7 @@ public class AppComponent {
         // bucket1: action: output
         TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket1 = new ArrayList<>();
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, port3).action();
+        OFAction action_output1 = actionTemplates.output(port3);
         actions_bucket1.add(action_output1);
         trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
 
@@ -1341,8 +2158,8 @@ public class AppComponent {
         short int_field_id = -1;
         TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket2 = new ArrayList<>();
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, (short) 16, mapInfo).action();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, port3).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, (short) 16, mapInfo);
+        OFAction action_output2 = actionTemplates.output(port3);
         actions_bucket2.add(action_add_int_field);
         actions_bucket2.add(action_output2);
         trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
@@ -1359,13 +2176,13 @@ public class AppComponent {
 
         if (is_add) {  // add group
             log.info("Add group table");
-            groupService.addGroup(select_group);
+            apply_pof_group(select_group);
         } else {      // mod group
             log.info("Mod group table");
             byte[] new_keyData = new_key_str.getBytes();
             final GroupKey new_key = new DefaultGroupKey(new_keyData);
             GroupBuckets new_buckets = new GroupBuckets(ImmutableList.of(bucket2));
-            groupService.setBucketsForGroup(deviceId, key, new_buckets, new_key, appId);
+            send_pof_group_buckets(deviceId, key, new_buckets, new_key);
         }
     }
 
@@ -1374,7 +2191,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength((short) SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength((short) SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
 
 //        matchList.add(Criteria.matchOffsetLength((short) SMAC, (short) 48, (short) 48, srcIP, "ffffffffffff"));
 
@@ -1384,9 +2201,9 @@ public class AppComponent {
         // action
         TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
 //        OFAction action_add_field1 = DefaultPofActions.addField((short) 16, (short) 272, (short) 64, "0102030405060708").action();
-        OFAction action_add_dynamic_field1 = DefaultPofActions.addField((short) -1, (short) 272, (short) 16, "3f").action();
+        OFAction action_add_dynamic_field1 = actionTemplates.addField((short) -1, INT_HEADER_BASE, (short) 16, "3f");
 //        actions.add(action_add_field1);
 //        actions.add(action_add_dynamic_field1);
         actions.add(action_output);
@@ -1394,7 +2211,7 @@ public class AppComponent {
         log.info("action_output: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                                                    .forDevice(deviceId)
                                                    .forTable(tableId)
@@ -1403,7 +2220,7 @@ public class AppComponent {
                                                    .withPriority(priority)
                                                    .withCookie(newFlowEntryId)
                                                    .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installOutputFlowRule: apply to deviceId<{}> tableId<{}>, entryId=<{}>", deviceId.toString(), tableId, newFlowEntryId);
     }
@@ -1419,10 +2236,10 @@ public class AppComponent {
         // action
         TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_set_dstIp = DefaultPofActions.setField(DIP, (short) 240, (short) 32, "0a020202", "ffffffff").action();
-        OFAction action_set_srcIp = DefaultPofActions.setField(SIP, (short) 208, (short) 32, "0a0a0a0a", "ffffffff").action();
+        OFAction action_set_dstIp = DefaultPofActions.setField(DIP, IPV4_DST_OFF, IPV4_ADDR_LEN, "0a020202", "ffffffff").action();
+        OFAction action_set_srcIp = DefaultPofActions.setField(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, "0a0a0a0a", "ffffffff").action();
 //        OFAction action_set_ttl = DefaultPofActions.setField(TTL, (short) 176, (short) 8, "66", "ff").action();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
 //        actions.add(action_set_dstIp);
         actions.add(action_set_srcIp);
 //        actions.add(action_set_ttl);
@@ -1431,7 +2248,7 @@ public class AppComponent {
         log.info("action_set_field: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1440,7 +2257,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installSetFieldFlowRule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
@@ -1449,7 +2266,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
 //        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "00000000"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
@@ -1459,10 +2276,10 @@ public class AppComponent {
         short field_id3 = 19;
         TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_add_field1 = DefaultPofActions.addField(field_id1, (short) 272, (short) 16, "0908").action();
+        OFAction action_add_field1 = actionTemplates.addField(field_id1, INT_HEADER_BASE, (short) 16, "0908");
 //        OFAction action_add_field2 = DefaultPofActions.addField(field_id2, (short) 272, (short) 16, "1918").action();
 //        OFAction action_add_field3 = DefaultPofActions.addField(field_id3, (short) 272, (short) 16, "2928").action();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_add_field1);
 //        actions.add(action_add_field2);
 //        actions.add(action_add_field3);
@@ -1471,7 +2288,7 @@ public class AppComponent {
         log.info("action_add_field: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1480,7 +2297,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installAddFieldFlowRule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
@@ -1490,7 +2307,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
@@ -1501,10 +2318,10 @@ public class AppComponent {
         /* 0b'00 00 00 00 = x | x | bandwidth | egress_time || ingress_time | out_port | in_port | dpid.
         * if 'filed_value' == 0xff, then read 'mapInfo' from packets.
         */
-        OFAction action_add_field1 = DefaultPofActions.addField(field_id1, INT_HEADER_DATA_OFF, (short) 16, "01").action();
-        OFAction action_add_func_field1 = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action();
+        OFAction action_add_field1 = actionTemplates.addField(field_id1, INT_HEADER_DATA_OFF, (short) 16, "01");
+        OFAction action_add_func_field1 = path_func_field(deviceId);
 
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
 
         actions.add(action_add_field1);
 //        actions.add(action_add_func_field1);
@@ -1513,7 +2330,7 @@ public class AppComponent {
         log.info("action_add_field: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1522,7 +2339,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("install_pof_dynamic_field_flow_rule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
@@ -1531,7 +2348,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
@@ -1542,7 +2359,7 @@ public class AppComponent {
         List<OFAction> actions = new ArrayList<>();
         OFAction action_delete_field = DefaultPofActions.deleteField(offset, len).action();
 //        OFAction action_delete_field1 = DefaultPofActions.deleteField((short) 272, (short) 16).action();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_delete_field);
 //        actions.add(action_delete_field1);
 //        actions.add(action_delete_field1);
@@ -1551,7 +2368,7 @@ public class AppComponent {
         log.info("action_delete_field: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1560,7 +2377,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installDeleteFieldFlowRule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
@@ -1570,7 +2387,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
@@ -1579,14 +2396,14 @@ public class AppComponent {
         TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
         OFAction action_delete_field = DefaultPofActions.deleteField(offset, len).action();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_delete_field);
         actions.add(action_output);
         trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
         log.info("action_delete_field: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1595,7 +2412,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installDeleteFieldFlowRule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
@@ -1605,7 +2422,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
@@ -1614,14 +2431,14 @@ public class AppComponent {
         TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
         OFAction action_delete_field = DefaultPofActions.deleteField(offset, len).action();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
+        OFAction action_output = actionTemplates.output(outport);
         actions.add(action_delete_field);
         actions.add(action_output);
         trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
         log.info("action_delete_field: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1630,7 +2447,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installDeleteFieldFlowRule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
@@ -1640,7 +2457,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // modify ttl
@@ -1670,8 +2487,8 @@ public class AppComponent {
         OFAction action_modify_ttl = DefaultPofActions.modifyField(FIELD_TTL, 65535).action();
 //        OFAction action_modify_dip = DefaultPofActions.modifyField(FIELD_DIP, 12).action();
 //        OFAction action_modify_sip = DefaultPofActions.modifyField(FIELD_SIP, 12).action();
-        OFAction action_output = DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action();
-        OFAction action_add_field1 = DefaultPofActions.addField((short) 16, (short) 272, (short) 64, "0102030405060708").action();
+        OFAction action_output = actionTemplates.output(outport);
+        OFAction action_add_field1 = actionTemplates.addField((short) 16, INT_HEADER_BASE, (short) 64, "0102030405060708");
         actions.add(action_add_field1);
         actions.add(action_modify_ttl);
 //        actions.add(action_modify_dip);
@@ -1681,7 +2498,7 @@ public class AppComponent {
         log.info("action_modify_field: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1690,7 +2507,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installModifyFieldFlowRule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
@@ -1699,7 +2516,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
@@ -1711,7 +2528,7 @@ public class AppComponent {
         log.info("action_drop: {}.", actions);
 
         // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -1720,41 +2537,56 @@ public class AppComponent {
                 .withPriority(1)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
 
         log.info("installDropFlowRule: apply to deviceId<{}> tableId<{}>", deviceId.toString(), tableId);
     }
 
     public void install_pof_group_rule_match_srcIp(DeviceId deviceId, byte tableId, String srcIP, int groupId, int priority) {
+        /* the group may have been updated since, see install_pof_select_group_rule(). */
+        groupId = groupVersions.currentGroupId(deviceId, groupId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
+        apply_pof_flow_rule(pof_group_rule_match_srcIp(deviceId, tableId, srcIP, groupId, priority, newFlowEntryId));
+        log.info("group_rule_match_srcIp: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
+    }
+
+    /* the entry matching srcIP{208, 32} which goes to 'groupId'. */
+    public FlowRule pof_group_rule_match_srcIp(DeviceId deviceId, byte tableId, String srcIP, int groupId, int priority,
+                                               long entryId) {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_group = DefaultPofActions.group(groupId).action();
+        OFAction action_group = actionTemplates.group(groupId);
         actions.add(action_group);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
 
-        // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
-        FlowRule.Builder flowRule = DefaultFlowRule.builder()
+        return DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
                 .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withTreatment(actionTemplates.treatment(actions))
                 .withPriority(priority)
-                .withCookie(newFlowEntryId)
-                .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
-        log.info("group_rule_match_srcIp: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
+                .withCookie(entryId)
+                .makePermanent()
+                .build();
     }
 
 
     public void install_pof_group_rule_match_type(DeviceId deviceId, byte tableId, String int_type, int groupId, int priority) {
+        /* the group may have been updated since, see install_pof_select_group_rule_at_sw2(). */
+        groupId = groupVersions.currentGroupId(deviceId, groupId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
+        apply_pof_flow_rule(pof_group_rule_match_type(deviceId, tableId, int_type, groupId, priority, newFlowEntryId));
+        log.info("group_rule_match_type: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
+    }
+
+    /* the entry matching int_type{272, 16} which goes to 'groupId'. */
+    public FlowRule pof_group_rule_match_type(DeviceId deviceId, byte tableId, String int_type, int groupId, int priority,
+                                              long entryId) {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
@@ -1762,305 +2594,234 @@ public class AppComponent {
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action
-        TrafficTreatment.Builder trafficTreamt = DefaultTrafficTreatment.builder();
         List<OFAction> actions = new ArrayList<>();
-        OFAction action_group = DefaultPofActions.group(groupId).action();
+        OFAction action_group = actionTemplates.group(groupId);
         actions.add(action_group);
-        trafficTreamt.add(DefaultPofInstructions.applyActions(actions));
 
-        // apply
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
-        FlowRule.Builder flowRule = DefaultFlowRule.builder()
+        return DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
                 .withSelector(trafficSelector.build())
-                .withTreatment(trafficTreamt.build())
+                .withTreatment(actionTemplates.treatment(actions))
                 .withPriority(priority)
-                .withCookie(newFlowEntryId)
-                .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
-        log.info("group_rule_match_type: apply to deviceId<{}> tableId<{}> entryId<{}>", deviceId.toString(), tableId, newFlowEntryId);
+                .withCookie(entryId)
+                .makePermanent()
+                .build();
     }
 
     /* sel_group at sw1 (src_node), bucket2 do INT operation. */
     public void install_pof_select_group_rule(DeviceId deviceId, byte tableId, int out_port1, int out_port2, String srcIP,
                                               String key_str, int groupId, int priority,
                                               short weight1, short weight2, String mapInfo) {
-        GroupId select_group_id = new GroupId(groupId);
-
-        byte[] keyData = key_str.getBytes();
-        final GroupKey key = new DefaultGroupKey(keyData);
-
-        /* modify SIP: make this flow into 2 flows. otherwise, match error at next node. Only used at src.
-         *             because dpdk->rss_hash will hash src_ip and dst_ip and see them as one flow. We insert
-         *             INT_HEADER behind IPv4.dst, will mis-match (encounter match-only-one-flow again)
-         *             at next node.
-         */
-        short int_field_id = -1;
-        OFMatch20 Field_SIP =  new OFMatch20();
-        Field_SIP.setFieldName("SIP_B3");
-        Field_SIP.setFieldId(SIP);
-        Field_SIP.setOffset((short) (208 + 16));
-        Field_SIP.setLength((short) 8);
-        OFAction action_inc_SIP = DefaultPofActions.modifyField(Field_SIP, 1).action();
-
-        // modify INT-ttl
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
-
-        // bucket1: action = output
-        TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
-        List<OFAction> actions_bucket1 = new ArrayList<>();
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port1).action();
-        actions_bucket1.add(action_inc_SIP);   // must contain this action, make 'rss_hash' different
-        actions_bucket1.add(action_output1);
-        trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
-
-        // bucket1: weight1 -- output
-        GroupBucket bucket1 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket1.build(), weight1);
-
-
-        // bucket2: action = add_int_field + output, inc_int_ttl at data plane (src node).
-        TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
-        List<OFAction> actions_bucket2 = new ArrayList<>();
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_BASE, (short) 24, mapInfo).action();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port2).action();
-        actions_bucket2.add(action_add_int_field);
-        if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
-            OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action(); // for path revalidation
-            actions_bucket2.add(action_add_func_field);
+        /* a replay after update_pof_select_group_rule() describes the current version, not version 0 again. */
+        GroupKeyAllocator.Version version = groupVersions.current(deviceId, key_str);
+        if (version == null) {
+            version = groupVersions.register(deviceId, key_str, groupId);
         }
-//        actions_bucket2.add(action_inc_INT_ttl);   // no need inc_INT_ttl here, we directly set it at src node.
-        actions_bucket2.add(action_output2);
-        trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
+        GroupId select_group_id = new GroupId(version.groupId());
 
-        // bucket2: weight2 -- int-operation
-        GroupBucket bucket2 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket2.build(), weight2);
+        final GroupKey key = version.key();
 
-        // buckets
-        GroupBuckets select_group_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
+        GroupBuckets select_group_buckets = sel_int_buckets(deviceId, out_port1, out_port2, weight1, weight2, mapInfo);
 
         // apply
         DefaultGroupDescription select_group = new DefaultGroupDescription(deviceId,
                 GroupDescription.Type.SELECT, select_group_buckets, key, select_group_id.id(), appId);
 
-        groupService.addGroup(select_group);
-        log.info("Add select group table to deviceId<{}>, groupId<{}>, w1:w2={}:{}", deviceId.toString(), groupId, weight1, weight2);
+        apply_pof_group(select_group);
+        log.info("Add select group table to deviceId<{}>, {}, w1:w2={}:{}", deviceId.toString(), version, weight1, weight2);
     }
 
-    /* moddify sel_group Mod at sw1 (src_node), bucket2 do INT operation. */
-    public void install_mod_pof_select_group_rule(DeviceId deviceId, byte tableId, int out_port1, int out_port2, String srcIP,
-                                              String old_key_str, String new_key_str, int groupId, int priority,
-                                              short weight1, short weight2, String mapInfo) {
-        GroupId select_group_id = new GroupId(groupId);
-
-        byte[] keyData = old_key_str.getBytes();
-        final GroupKey old_key = new DefaultGroupKey(keyData);
-
+    /* sel_group buckets at sw1 (src_node): bucket1 output with weight1, bucket2 INT operation with weight2. */
+    public GroupBuckets sel_int_buckets(DeviceId deviceId, int out_port1, int out_port2,
+                                        short weight1, short weight2, String mapInfo) {
         /* modify SIP: make this flow into 2 flows. otherwise, match error at next node. Only used at src.
          *             because dpdk->rss_hash will hash src_ip and dst_ip and see them as one flow. We insert
          *             INT_HEADER behind IPv4.dst, will mis-match (encounter match-only-one-flow again)
          *             at next node.
          */
         short int_field_id = -1;
-        OFMatch20 Field_SIP =  new OFMatch20();
-        Field_SIP.setFieldName("SIP_B3");
-        Field_SIP.setFieldId(SIP);
-        Field_SIP.setOffset((short) (208 + 16));
-        Field_SIP.setLength((short) 8);
-        OFAction action_inc_SIP = DefaultPofActions.modifyField(Field_SIP, 1).action();
+        OFAction action_inc_SIP = actionTemplates.modifyField(SIP, "SIP_B3", IPV4_SRC_B3_OFF, IPV4_SRC_B3_LEN, 1);
 
         // modify INT-ttl
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
+        OFAction action_inc_INT_ttl = actionTemplates.modifyField(INT_TTL, "INT_ttl", INT_HEADER_TTL_OFF, INT_HEADER_TTL_LEN, 1);
 
         // bucket1: action = output
-        TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket1 = new ArrayList<>();
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port1).action();
+        OFAction action_output1 = actionTemplates.output(out_port1);
         actions_bucket1.add(action_inc_SIP);   // must contain this action, make 'rss_hash' different
         actions_bucket1.add(action_output1);
-        trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
 
         // bucket1: weight1 -- output
-        GroupBucket bucket1 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket1.build(), weight1);
+        GroupBucket bucket1 = DefaultGroupBucket.createSelectGroupBucket(actionTemplates.treatment(actions_bucket1), weight1);
 
 
         // bucket2: action = add_int_field + output, inc_int_ttl at data plane (src node).
-        TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket2 = new ArrayList<>();
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_BASE, (short) 24, mapInfo).action();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port2).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_BASE, INT_HEADER_TYPE_TTL_LEN, mapInfo);
+        OFAction action_output2 = actionTemplates.output(out_port2);
         actions_bucket2.add(action_add_int_field);
         if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
-            OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action(); // for path revalidation
+            OFAction action_add_func_field = path_func_field(deviceId); // for path revalidation
             actions_bucket2.add(action_add_func_field);
         }
 //        actions_bucket2.add(action_inc_INT_ttl);   // no need inc_INT_ttl here, we directly set it at src node.
         actions_bucket2.add(action_output2);
-        trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
 
         // bucket2: weight2 -- int-operation
-        GroupBucket bucket2 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket2.build(), weight2);
+        GroupBucket bucket2 = DefaultGroupBucket.createSelectGroupBucket(actionTemplates.treatment(actions_bucket2), weight2);
 
         // buckets
-        GroupBuckets select_group_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
+        return new GroupBuckets(ImmutableList.of(bucket1, bucket2));
+    }
 
-        // apply
-        DefaultGroupDescription select_group = new DefaultGroupDescription(deviceId,
-                GroupDescription.Type.SELECT, select_group_buckets, old_key, select_group_id.id(), appId);
+    /**
+     * change the sel_group 'key_str' at sw1 make-before-break: add the next version of the group with
+     * its own key and groupId, re-point the entry matching 'srcIP' to it (same entryId), then remove
+     * the previous version. if the new version is not confirmed, it is removed and the old one stays.
+     * while an update of the group is running, only the latest of the following updates is sent.
+     * @param key_str the key the group was installed with by install_pof_select_group_rule()
+     * @return completes with true if the entry points to the new version
+     */
+    public CompletableFuture<Boolean> update_pof_select_group_rule(DeviceId deviceId, byte tableId, int out_port1, int out_port2,
+                                                                   String srcIP, String key_str, int priority,
+                                                                   short weight1, short weight2, String mapInfo) {
+        return update_pof_versioned_group(deviceId, tableId, key_str,
+                () -> sel_int_buckets(deviceId, out_port1, out_port2, weight1, weight2, mapInfo),
+                (groupId, entryId) -> pof_group_rule_match_srcIp(deviceId, tableId, srcIP, groupId, priority, entryId),
+                "w1:w2=" + weight1 + ":" + weight2);
+    }
+
+    /**
+     * change the sel_group 'key_str' at sw2 as update_pof_select_group_rule() does at sw1,
+     * the entry matching 'int_type' is re-pointed to the new version.
+     * @param key_str the key the group was installed with by install_pof_select_group_rule_at_sw2()
+     */
+    public CompletableFuture<Boolean> update_pof_select_group_rule_at_sw2(DeviceId deviceId, byte tableId, int out_port1, int out_port2,
+                                                                          String int_type, String key_str, int priority,
+                                                                          short weight1, short weight2, String mapInfo) {
+        return update_pof_versioned_group(deviceId, tableId, key_str,
+                () -> sel_int_buckets_at_sw2(deviceId, out_port1, out_port2, weight1, weight2, mapInfo),
+                (groupId, entryId) -> pof_group_rule_match_type(deviceId, tableId, int_type, groupId, priority, entryId),
+                "w1:w2=" + weight1 + ":" + weight2);
+    }
 
+    /**
+     * add the next version of the select group 'key_str' with 'buckets', re-point the entries 'entry' selects
+     * to it, then retire the previous version. see update_pof_select_group_rule().
+     * @param entry (groupId, entryId) -> the entry to the group, its selector finds the entries to re-point
+     */
+    private CompletableFuture<Boolean> update_pof_versioned_group(DeviceId deviceId, byte tableId, String key_str,
+                                                                  Supplier<GroupBuckets> buckets,
+                                                                  BiFunction<Integer, Long, FlowRule> entry,
+                                                                  String change) {
+        return updates.submit(Arrays.asList(deviceId, key_str), () -> {
+            GroupKeyAllocator.Version old_version = groupVersions.current(deviceId, key_str);
+            GroupKeyAllocator.Version new_version = groupVersions.next(deviceId, key_str);
+            DefaultGroupDescription select_group = new DefaultGroupDescription(deviceId,
+                    GroupDescription.Type.SELECT, buckets.get(), new_version.key(), new_version.groupId(), appId);
+
+            return send_pof_group(select_group).thenCompose(v -> {
+                /* modify the existing entry in place, so that packets always hit a group. */
+                FlowRuleBatch batch = new FlowRuleBatch(flowRuleService, "repoint-" + new_version.keyStr(), flowControl);
+                Set<Integer> entryIds = selectorIndex.lookup(deviceId, tableId, entry.apply(new_version.groupId(), 0L).selector());
+                if (entryIds.isEmpty()) {
+                    batch.add(entry.apply(new_version.groupId(), (long) flowIds.entryId(deviceId, tableId)));
+                }
+                for (int entryId : entryIds) {
+                    batch.modify(entry.apply(new_version.groupId(), (long) entryId));
+                }
+                return installTracker.within(batch.submit(), INSTALL_TIMEOUT);
+            }).handle((ok, e) -> {
+                if (e == null && ok) {
+                    groupVersions.commit(deviceId, new_version);
+                    if (old_version != null) {
+                        retire_pof_group_version(deviceId, old_version);
+                    }
+                    log.info("Update select group table at deviceId<{}>: {} -> {}, {}",
+                             deviceId.toString(), old_version, new_version, change);
+                    return true;
+                }
+                retire_pof_group_version(deviceId, new_version);
+                log.warn("Update select group table at deviceId<{}> failed, keep {}.", deviceId.toString(), old_version);
+                return false;
+            });
+        });
+    }
 
-        /* this is add a new group table. */
-//        groupService.addGroup(select_group);
-//        log.info("Add select group table to deviceId<{}>, groupId<{}>, w1:w2={}:{}", deviceId.toString(), groupId, weight1, weight2);
+    /* remove one version of a group, its groupId is reused only once the device has removed it,
+     * and never the hard-coded groupId of version 0, see GroupKeyAllocator.release(). */
+    public void retire_pof_group_version(DeviceId deviceId, GroupKeyAllocator.Version version) {
+        send_pof_group_removal(deviceId, version.key()).thenRun(() -> groupVersions.release(deviceId, version));
+    }
 
-        /* this is modify a exsisting group table. */
-        byte[] new_keyData = new_key_str.getBytes();
-        final GroupKey new_key = new DefaultGroupKey(new_keyData);
-        GroupBuckets new_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
-        groupService.setBucketsForGroup(deviceId, old_key, new_buckets, new_key, appId);
-        log.info("Modify select group table to deviceId<{}>, groupId<{}>, w1:w2={}:{}", deviceId.toString(), groupId, weight1, weight2);
+    /* remove the current version of a group updated by update_pof_select_group_rule(). */
+    public void remove_pof_versioned_group(DeviceId deviceId, String key_str) {
+        remove_pof_group_tables(deviceId, groupVersions.currentKey(deviceId, key_str));
+        groupVersions.forget(deviceId, key_str);
     }
 
     /* sel_group at sw2, all buckets do INT operation. */
     public void install_pof_select_group_rule_at_sw2(DeviceId deviceId, byte tableId, int out_port1, int out_port2, String srcIP,
                                               String key_str, int groupId, int priority,
                                               short weight1, short weight2, String mapInfo) {
-        GroupId select_group_id = new GroupId(groupId);
-
-        byte[] keyData = key_str.getBytes();
-        final GroupKey key = new DefaultGroupKey(keyData);
-
-        // modify INT-ttl
-        short int_field_id = -1;
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
-        OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action(); // for path revalidation
-
-        // bucket1: action = add_int_field + inc_int_ttl + output:out_port1
-        TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
-        List<OFAction> actions_bucket1 = new ArrayList<>();
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, (short) 16, mapInfo).action();
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port1).action();
-        actions_bucket1.add(action_add_int_field);
-        if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
-            actions_bucket1.add(action_add_func_field);
-        }
-        actions_bucket1.add(action_inc_INT_ttl);
-        actions_bucket1.add(action_output1);
-        trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
-
-        // bucket1: weight1 -- output
-        GroupBucket bucket1 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket1.build(), weight1);
-
-        // bucket2: action = add_int_field + inc_int_ttl + output:out_port2
-        TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
-        List<OFAction> actions_bucket2 = new ArrayList<>();
-//        OFAction action_add_int_field2 = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, (short) 16, mapInfo).action();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port2).action();
-        actions_bucket2.add(action_add_int_field);
-        if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
-            actions_bucket2.add(action_add_func_field);
+        /* a replay after update_pof_select_group_rule_at_sw2() describes the current version, not version 0 again. */
+        GroupKeyAllocator.Version version = groupVersions.current(deviceId, key_str);
+        if (version == null) {
+            version = groupVersions.register(deviceId, key_str, groupId);
         }
-        actions_bucket2.add(action_inc_INT_ttl);
-        actions_bucket2.add(action_output2);
-        trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
+        GroupId select_group_id = new GroupId(version.groupId());
 
-        // bucket2: weight2 -- int-operation
-        GroupBucket bucket2 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket2.build(), weight2);
+        final GroupKey key = version.key();
 
-        // buckets
-        GroupBuckets select_group_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
+        GroupBuckets select_group_buckets = sel_int_buckets_at_sw2(deviceId, out_port1, out_port2, weight1, weight2, mapInfo);
 
         // apply
         DefaultGroupDescription select_group = new DefaultGroupDescription(deviceId,
                 GroupDescription.Type.SELECT, select_group_buckets, key, select_group_id.id(), appId);
 
-        groupService.addGroup(select_group);
-        log.info("Add select group table at sw2, deviceId<{}> groupId<{}>", deviceId.toString(), groupId);
+        apply_pof_group(select_group);
+        log.info("Add select group table at sw2, deviceId<{}> {}", deviceId.toString(), version);
     }
 
-    /* sel_group at sw2, all buckets do INT operation. */
-    public void install_mod_pof_select_group_rule_at_sw2(DeviceId deviceId, byte tableId, int out_port1, int out_port2, String srcIP,
-                                                     String old_key_str, String new_key_str, int groupId, int priority,
-                                                     short weight1, short weight2, String mapInfo) {
-        GroupId select_group_id = new GroupId(groupId);
-
-        byte[] keyData = old_key_str.getBytes();
-        final GroupKey old_key = new DefaultGroupKey(keyData);
-
+    /* sel_group buckets at sw2: both buckets do INT operation, bucket1 to out_port1 with weight1, bucket2 to out_port2 with weight2. */
+    public GroupBuckets sel_int_buckets_at_sw2(DeviceId deviceId, int out_port1, int out_port2,
+                                               short weight1, short weight2, String mapInfo) {
         // modify INT-ttl
         short int_field_id = -1;
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
-        OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action(); // for path revalidation
+        OFAction action_inc_INT_ttl = actionTemplates.modifyField(INT_TTL, "INT_ttl", INT_HEADER_TTL_OFF, INT_HEADER_TTL_LEN, 1);
+        OFAction action_add_func_field = path_func_field(deviceId); // for path revalidation
 
         // bucket1: action = add_int_field + inc_int_ttl + output:out_port1
-        TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket1 = new ArrayList<>();
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, (short) 16, mapInfo).action();
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port1).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, (short) 16, mapInfo);
+        OFAction action_output1 = actionTemplates.output(out_port1);
         actions_bucket1.add(action_add_int_field);
         if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
             actions_bucket1.add(action_add_func_field);
         }
         actions_bucket1.add(action_inc_INT_ttl);
         actions_bucket1.add(action_output1);
-        trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
 
         // bucket1: weight1 -- output
-        GroupBucket bucket1 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket1.build(), weight1);
+        GroupBucket bucket1 = DefaultGroupBucket.createSelectGroupBucket(actionTemplates.treatment(actions_bucket1), weight1);
 
         // bucket2: action = add_int_field + inc_int_ttl + output:out_port2
-        TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket2 = new ArrayList<>();
 //        OFAction action_add_int_field2 = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, (short) 16, mapInfo).action();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, out_port2).action();
+        OFAction action_output2 = actionTemplates.output(out_port2);
         actions_bucket2.add(action_add_int_field);
         if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
             actions_bucket2.add(action_add_func_field);
         }
         actions_bucket2.add(action_inc_INT_ttl);
         actions_bucket2.add(action_output2);
-        trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
 
         // bucket2: weight2 -- int-operation
-        GroupBucket bucket2 = DefaultGroupBucket.createSelectGroupBucket(trafficTreatment_bucket2.build(), weight2);
+        GroupBucket bucket2 = DefaultGroupBucket.createSelectGroupBucket(actionTemplates.treatment(actions_bucket2), weight2);
 
         // buckets
-        GroupBuckets select_group_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
-
-        // apply
-        DefaultGroupDescription select_group = new DefaultGroupDescription(deviceId,
-                GroupDescription.Type.SELECT, select_group_buckets, old_key, select_group_id.id(), appId);
-
-        /* this is add a new group table. */
-//        groupService.addGroup(select_group);
-//        log.info("Add select group table to deviceId<{}>, groupId<{}>, w1:w2={}:{}", deviceId.toString(), groupId, weight1, weight2);
-
-        /* this is modify a exsisting group table. */
-        byte[] new_keyData = new_key_str.getBytes();
-        final GroupKey new_key = new DefaultGroupKey(new_keyData);
-        GroupBuckets new_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
-        groupService.setBucketsForGroup(deviceId, old_key, new_buckets, new_key, appId);
-        log.info("Modify select group table at sw2 to deviceId<{}>, groupId<{}>, w1:w2={}:{}", deviceId.toString(), groupId, weight1, weight2);
+        return new GroupBuckets(ImmutableList.of(bucket1, bucket2));
     }
 
     /* used to test collector performance */
@@ -2072,37 +2833,33 @@ public class AppComponent {
         final GroupKey key = new DefaultGroupKey(keyData);
 
         // bucket1: output
-        TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket1 = new ArrayList<>();
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, usr_port).action();
+        OFAction action_output1 = actionTemplates.output(usr_port);
         actions_bucket1.add(action_output1);
-        trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
 
         // bucket1: weight
-        GroupBucket bucket1 = DefaultGroupBucket.createAllGroupBucket(trafficTreatment_bucket1.build());
+        GroupBucket bucket1 = DefaultGroupBucket.createAllGroupBucket(actionTemplates.treatment(actions_bucket1));
 
         // bucket2: action: add_int_field + output
         short del_int_off = INT_HEADER_BASE;
         short del_int_len = -1;   // means sw read 'mapInfo' from pkts and get the real deleted len.
         short int_field_id = -1;
-        TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket2 = new ArrayList<>();
 //        OFAction action_set_dstIp2 = DefaultPofActions.setField(DIP, (short) 240, (short) 32, "0a020202", "ffffffff").action();
 //        OFAction action_add_field1 = DefaultPofActions.addField(TEST, (short) 272, (short) 24, "090802").action();
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, (short) 272, (short) 16, mapInfo).action();
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_BASE, (short) 16, mapInfo);
 //        OFAction action_delete_field = DefaultPofActions.deleteField((short) 272, 16).action();
 //        OFAction action_del_int_field = DefaultPofActions.deleteField(del_int_off, del_int_len).action();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, collect_port).action();
+        OFAction action_output2 = actionTemplates.output(collect_port);
 //        actions_bucket2.add(action_set_dstIp2);
 //        actions_bucket2.add(action_delete_field);
         actions_bucket2.add(action_add_int_field);   // {off, len} no meaning
 //        actions_bucket2.add(action_add_field1);
 //        actions_bucket2.add(action_del_int_field);
         actions_bucket2.add(action_output2);
-        trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
 
         // bucket2: weight
-        GroupBucket bucket2 = DefaultGroupBucket.createAllGroupBucket(trafficTreatment_bucket2.build());
+        GroupBucket bucket2 = DefaultGroupBucket.createAllGroupBucket(actionTemplates.treatment(actions_bucket2));
 
         // buckets:
         GroupBuckets all_group_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
@@ -2111,71 +2868,65 @@ public class AppComponent {
         DefaultGroupDescription all_group = new DefaultGroupDescription(deviceId,
                 GroupDescription.Type.ALL, all_group_buckets, key, select_group_id.id(), appId);
 
-        groupService.addGroup(all_group);
+        apply_pof_group(all_group);
         log.info("Add all group table");
 
     }
 
     public void install_pof_all_group_rule_match_type(DeviceId deviceId, byte tableId, String int_type,String key_str, int groupId,
                                            int priority, int usr_port, int collect_port, String mapInfo) {
+        apply_pof_group(pof_all_group_match_type(deviceId, key_str, groupId, usr_port, collect_port, mapInfo));
+        log.info("Add all group table to deviceiId<{}> groupId<{}>", deviceId.toString(), groupId);
+    }
+
+    /* the mirror all_group of the sink: bucket1 adds its INT data and goes to the collector, bucket2 to the user. */
+    public GroupDescription pof_all_group_match_type(DeviceId deviceId, String key_str, int groupId,
+                                                     int usr_port, int collect_port, String mapInfo) {
         GroupId select_group_id = new GroupId(groupId);
 
         byte[] keyData = key_str.getBytes();
         final GroupKey key = new DefaultGroupKey(keyData);
 
         // bucket1: output
-        TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket1 = new ArrayList<>();
 
         // add-int-field
         short int_field_id = -1;
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo).action(); // 'mapInfo' should be 0xff
-        OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action(); // for path revalidation
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo); // 'mapInfo' should be 0xff
+        OFAction action_add_func_field = path_func_field(deviceId); // for path revalidation
 
         // modify INT-ttl
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
-
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, collect_port).action();
+        OFAction action_inc_INT_ttl = actionTemplates.modifyField(INT_TTL, "INT_ttl", INT_HEADER_TTL_OFF, INT_HEADER_TTL_LEN, 1);
+
+        OFAction action_output1 = actionTemplates.output(collect_port);
         actions_bucket1.add(action_add_int_field);    /* add int metadata. */
         if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
             actions_bucket1.add(action_add_func_field);  /* This action used to revalidate path. */
         }
         actions_bucket1.add(action_inc_INT_ttl);      /* increment int_ttl field by 1 */
         actions_bucket1.add(action_output1);
-        trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
 
         // bucket1: weight
-        GroupBucket bucket1 = DefaultGroupBucket.createAllGroupBucket(trafficTreatment_bucket1.build());
+        GroupBucket bucket1 = DefaultGroupBucket.createAllGroupBucket(actionTemplates.treatment(actions_bucket1));
 
         // bucket2: action: del_int_field + output
         short del_int_off = INT_HEADER_BASE;
         short del_int_len = -1;   // means sw read 'mapInfo' from pkts and get the real deleted len.
-        TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket2 = new ArrayList<>();
         OFAction action_del_int_field = DefaultPofActions.deleteField(del_int_off, del_int_len).action();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, usr_port).action();
+        OFAction action_output2 = actionTemplates.output(usr_port);
         actions_bucket2.add(action_del_int_field);
         actions_bucket2.add(action_output2);
-        trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
 
         // bucket2: weight
-        GroupBucket bucket2 = DefaultGroupBucket.createAllGroupBucket(trafficTreatment_bucket2.build());
+        GroupBucket bucket2 = DefaultGroupBucket.createAllGroupBucket(actionTemplates.treatment(actions_bucket2));
 
         // buckets:
         GroupBuckets all_group_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
 
         // apply
-        DefaultGroupDescription all_group = new DefaultGroupDescription(deviceId,
+        return new DefaultGroupDescription(deviceId,
                 GroupDescription.Type.ALL, all_group_buckets, key, select_group_id.id(), appId);
-
-        groupService.addGroup(all_group);
-        log.info("Add all group table to deviceiId<{}> groupId<{}>", deviceId.toString(), groupId);
-
     }
 
     /* sw2, all buckets do INT operation. */
@@ -2187,46 +2938,37 @@ public class AppComponent {
         final GroupKey key = new DefaultGroupKey(keyData);
 
         // bucket1: output
-        TrafficTreatment.Builder trafficTreatment_bucket1 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket1 = new ArrayList<>();
 
         // add-int-field
         short int_field_id = -1;
-        OFAction action_add_int_field = DefaultPofActions.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo).action(); // 'mapInfo' should be 0xff
-        OFAction action_add_func_field = DefaultPofActions.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId)).action(); // for path revalidation
+        OFAction action_add_int_field = actionTemplates.addField(int_field_id, INT_HEADER_DATA_OFF, INT_HEADER_TYPE_LEN, mapInfo); // 'mapInfo' should be 0xff
+        OFAction action_add_func_field = path_func_field(deviceId); // for path revalidation
 
         // modify INT-ttl
-        OFMatch20 Field_INT_ttl =  new OFMatch20();
-        Field_INT_ttl.setFieldName("INT_ttl");
-        Field_INT_ttl.setFieldId(INT_TTL);
-        Field_INT_ttl.setOffset(INT_HEADER_TTL_OFF);
-        Field_INT_ttl.setLength(INT_HEADER_TTL_LEN);
-        OFAction action_inc_INT_ttl = DefaultPofActions.modifyField(Field_INT_ttl, 1).action();
-
-        OFAction action_output1 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, collect_port).action();
+        OFAction action_inc_INT_ttl = actionTemplates.modifyField(INT_TTL, "INT_ttl", INT_HEADER_TTL_OFF, INT_HEADER_TTL_LEN, 1);
+
+        OFAction action_output1 = actionTemplates.output(collect_port);
         actions_bucket1.add(action_add_int_field);    /* add int metadata. */
-        if (TEST_PATH_RAVALIDATION) {
+        if (TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION) {
             actions_bucket1.add(action_add_func_field);  /* This action used to revalidate path. */
         }
         actions_bucket1.add(action_inc_INT_ttl);      /* increment int_ttl field by 1 */
         actions_bucket1.add(action_output1);
-        trafficTreatment_bucket1.add(DefaultPofInstructions.applyActions(actions_bucket1));
 
         // bucket1: weight
-        GroupBucket bucket1 = DefaultGroupBucket.createAllGroupBucket(trafficTreatment_bucket1.build());
+        GroupBucket bucket1 = DefaultGroupBucket.createAllGroupBucket(actionTemplates.treatment(actions_bucket1));
 
         // bucket2: action: add_int_field (auto-run-bucket1, then run bucket2) + output
-        TrafficTreatment.Builder trafficTreatment_bucket2 = DefaultTrafficTreatment.builder();
         List<OFAction> actions_bucket2 = new ArrayList<>();
-        OFAction action_output2 = DefaultPofActions.output((short) 0, (short) 0, (short) 0, usr_port).action();
+        OFAction action_output2 = actionTemplates.output(usr_port);
 //        actions_bucket2.add(action_add_int_field);    /* add int metadata. */
 //        actions_bucket2.add(action_add_func_field);  /* This action used to revalidate path. */
 //        actions_bucket2.add(action_inc_INT_ttl);      /* increment int_ttl field by 1 */
         actions_bucket2.add(action_output2);
-        trafficTreatment_bucket2.add(DefaultPofInstructions.applyActions(actions_bucket2));
 
         // bucket2: weight
-        GroupBucket bucket2 = DefaultGroupBucket.createAllGroupBucket(trafficTreatment_bucket2.build());
+        GroupBucket bucket2 = DefaultGroupBucket.createAllGroupBucket(actionTemplates.treatment(actions_bucket2));
 
         // buckets:
         GroupBuckets all_group_buckets = new GroupBuckets(ImmutableList.of(bucket1, bucket2));
@@ -2235,7 +2977,7 @@ public class AppComponent {
         DefaultGroupDescription all_group = new DefaultGroupDescription(deviceId,
                 GroupDescription.Type.ALL, all_group_buckets, key, select_group_id.id(), appId);
 
-        groupService.addGroup(all_group);
+        apply_pof_group(all_group);
         log.info("Add all group table at sw2");
 
     }
@@ -2244,7 +2986,12 @@ public class AppComponent {
     public void remove_pof_group_tables(DeviceId deviceId, String key_str) {
         byte[] keyData = key_str.getBytes();
         final GroupKey key = new DefaultGroupKey(keyData);
-        groupService.removeGroup(deviceId, key, appId);
+        TeardownEngine opened = teardown;
+        if (opened != null) {
+            opened.removeGroup(deviceId, key);
+        } else {
+            send_pof_group_removal(deviceId, key);
+        }
         log.info("remove group table deviceId <>.", deviceId.toString());
     }
 
@@ -2253,7 +3000,7 @@ public class AppComponent {
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // metadata bits
@@ -2265,8 +3012,8 @@ public class AppComponent {
         OFMatch20 next_table_match_srcIP = new OFMatch20();
         next_table_match_srcIP.setFieldId(SIP);
         next_table_match_srcIP.setFieldName("srcIP");
-        next_table_match_srcIP.setOffset((short) 208);
-        next_table_match_srcIP.setLength((short) 32);
+        next_table_match_srcIP.setOffset(IPV4_SRC_OFF);
+        next_table_match_srcIP.setLength(IPV4_ADDR_LEN);
 
         ArrayList<OFMatch20> match20List = new ArrayList<>();
         match20List.add(next_table_match_srcIP);
@@ -2282,7 +3029,7 @@ public class AppComponent {
                 .gotoTable((byte) next_table_id, next_table_match_field_num, next_table_packet_offset, match20List));
 //                .gotoDirectTable((byte) next_table_id, (byte) 0, (short) 0, 0, new OFMatch20()));
 
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
@@ -2291,7 +3038,7 @@ public class AppComponent {
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
     }
 
     public void install_pof_add_vlc_header_entry(DeviceId deviceId, int tableId, String srcIP, int outport, int priority,
@@ -2308,18 +3055,18 @@ public class AppComponent {
         short write_len = 16;
 
         // vlc_header
-        StringBuilder vlc_header = new StringBuilder();
-        vlc_header.append(short2HexStr(type));
-        vlc_header.append(short2HexStr(len));
-        vlc_header.append(byte2HexStr(timeSlot));
-        vlc_header.append(short2HexStr(ledId));
-        vlc_header.append(short2HexStr(ueId));
-        vlc_header.append(short2HexStr(serviceId));
+        StringBuilder vlc_header = new StringBuilder(2 * 11);
+        HexCodec.append(vlc_header, type, 2);
+        HexCodec.append(vlc_header, len, 2);
+        HexCodec.append(vlc_header, timeSlot & 0xff, 1);
+        HexCodec.append(vlc_header, ledId & 0xffff, 2);
+        HexCodec.append(vlc_header, ueId & 0xffff, 2);
+        HexCodec.append(vlc_header, serviceId & 0xffff, 2);
 
         // match
         TrafficSelector.Builder trafficSelector = DefaultTrafficSelector.builder();
         ArrayList<Criterion> matchList = new ArrayList<>();
-        matchList.add(Criteria.matchOffsetLength(SIP, (short) 208, (short) 32, srcIP, "ffffffff"));
+        matchList.add(Criteria.matchOffsetLength(SIP, IPV4_SRC_OFF, IPV4_ADDR_LEN, srcIP, "ffffffff"));
         trafficSelector.add(Criteria.matchOffsetLength(matchList));
 
         // action: add vlc header
@@ -2358,28 +3105,25 @@ public class AppComponent {
         trafficTreatment.add(DefaultPofInstructions.applyActions(actions));
 
         // get existed flow rules in flow table. if the dstIp equals, then delete it
-        Map<Integer, FlowRule> existedFlowRules = new HashMap<>();
-        existedFlowRules = flowTableStore.getFlowEntries(deviceId, FlowTableId.valueOf(tableId));
-        if(existedFlowRules != null) {
-            for(Integer flowEntryId : existedFlowRules.keySet()) {
-                log.info("existedFlowRules.get(flowEntryId).selector().equals(trafficSelector.build()) ==> {}",
-                        existedFlowRules.get(flowEntryId).selector().equals(trafficSelector.build()));
-                if(existedFlowRules.get(flowEntryId).selector().equals(trafficSelector.build())) {
-                    flowTableService.removeFlowEntryByEntryId(deviceId, tableId, flowEntryId);
-                }
-            }
+        TrafficSelector selector = trafficSelector.build();
+        for (int flowEntryId : selectorIndex.lookup(deviceId, tableId, selector)) {
+            flowTableService.removeFlowEntryByEntryId(deviceId, tableId, flowEntryId);
+            selectorIndex.remove(deviceId, tableId, selector, flowEntryId);
+            flowIds.release(deviceId, tableId, flowEntryId);
+            log.info("install_pof_add_vlc_header_entry: remove flow entry, deviceId<{}> tableId<{}> entryId<{}>",
+                     deviceId.toString(), tableId, flowEntryId);
         }
 
-        long newFlowEntryId = flowTableStore.getNewFlowEntryId(deviceId, tableId);
+        long newFlowEntryId = flowIds.entryId(deviceId, tableId);
         FlowRule.Builder flowRule = DefaultFlowRule.builder()
                 .forDevice(deviceId)
                 .forTable(tableId)
-                .withSelector(trafficSelector.build())
+                .withSelector(selector)
                 .withTreatment(trafficTreatment.build())
                 .withPriority(priority)
                 .withCookie(newFlowEntryId)
                 .makePermanent();
-        flowRuleService.applyFlowRules(flowRule.build());
+        apply_pof_flow_rule(flowRule.build());
     }
 
 
@@ -2408,7 +3152,7 @@ public class AppComponent {
                 .fromApp(appId)
                 .makePermanent()
                 .build();
-        flowRuleService.applyFlowRules(flowRule);
+        apply_pof_flow_rule(flowRule);
     }
 
     public void installGroupActionFlowRule(DeviceId deviceId, byte tableId, int group_id) {
@@ -2432,7 +3176,7 @@ public class AppComponent {
                 .fromApp(appId)
                 .makePermanent()
                 .build();
-        flowRuleService.applyFlowRules(flowRule);
+        apply_pof_flow_rule(flowRule);
     }
 
     public void installSelectGroupFlowRule(DeviceId deviceId, byte tableId, String key_str, int group_id) {
@@ -2462,14 +3206,14 @@ public class AppComponent {
         // apply
         DefaultGroupDescription select_group = new DefaultGroupDescription(deviceId,
                 GroupDescription.Type.SELECT, select_group_buckets, key, select_group_id1.id(), appId);
-        groupService.addGroup(select_group);
+        apply_pof_group(select_group);
 
     }
 
     public void removeGroupTables(DeviceId deviceId, String key_str) {
         byte[] keyData = key_str.getBytes();
         final GroupKey key = new DefaultGroupKey(keyData);
-        groupService.removeGroup(deviceId, key, appId);
+        send_pof_group_removal(deviceId, key);
     }
 
     public void install_openflow_mod_nw_dst_rule(DeviceId deviceId, byte tableId) {
@@ -2494,7 +3238,7 @@ public class AppComponent {
                 .fromApp(appId)
                 .makePermanent()
                 .build();
-        flowRuleService.applyFlowRules(flowRule);
+        apply_pof_flow_rule(flowRule);
     }
 
 
@@ -2503,40 +3247,58 @@ public class AppComponent {
      */
 
     public String short2HexStr(short shortNum) {
-        StringBuilder hex_str = new StringBuilder();
-        byte[] b = new byte[2];
-        b[1] = (byte) (shortNum & 0xff);
-        b[0] = (byte) ((shortNum >> 8) & 0xff);
-
-        return bytes_to_hex_str(b);
+        return HexCodec.toHex(shortNum);
     }
 
     public String byte2HexStr(byte byteNum) {
-        String hex = Integer.toHexString(   byteNum & 0xff);
-        if (hex.length() == 1) {
-            hex = '0' + hex;
-        }
-        return hex;
+        return HexCodec.toHex(byteNum);
     }
 
+    /* parsed once per device, it is used by every add_func_field action. */
     public String funcByteHexStr(DeviceId deviceId) {
-        String device = deviceId.toString().substring(18, 20);   /* for 'pof:000000000000000x', get '0x' */
-        byte dpid = Integer.valueOf(device).byteValue();
-        int k = 2, b = 1;
-        byte y = (byte) (k * dpid + b);   // simple linear function
-        return byte2HexStr(y);
+        return funcBytes.computeIfAbsent(deviceId, k -> func_byte_hex(dpid(k)));
+    }
+
+    /* the func byte of the switch with 'dpid', the proof IntPathVerifier expects after that dpid. */
+    static String func_byte_hex(long dpid) {
+        return HexCodec.toHex(IntPathVerifier.proof(PATH_FUNC_K, PATH_FUNC_B, dpid));   // simple linear function
+    }
+
+    /* the add_func_field of 'deviceId', null unless TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION. */
+    private OFAction path_func_field(DeviceId deviceId) {
+        if (!(TEST_PATH_RAVALIDATION && TEST_PATH_FUNCTION)) {
+            return null;
+        }
+        return actionTemplates.addField(TEST, INT_DATA_DPID_END_OFF, (short) 8, funcByteHexStr(deviceId));
     }
 
     public String bytes_to_hex_str(byte[] b) {
-        StringBuilder hex_str = new StringBuilder();
-        for (int i = 0; i < b.length; i++) {
-            String hex = Integer.toHexString(b[i] & 0xff);
-            if (hex.length() == 1) {
-                hex = '0' + hex;
+        return HexCodec.toHex(b);
+    }
+
+
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public void event(DeviceEvent event) {
+            DeviceId deviceId = event.subject().id();
+            switch (event.type()) {
+                case DEVICE_ADDED:
+                case DEVICE_AVAILABILITY_CHANGED:
+                    if (!deviceService.isAvailable(deviceId) || !sixNodesProvisioned || scenarioRunner.isStopped()
+                            || !six_nodes().contains(deviceId)) {
+                        return;
+                    }
+                    /* one reprovision at a time per switch, both events come on a reconnect. */
+                    if (!reprovisioning.add(deviceId)) {
+                        return;
+                    }
+                    log.info("deviceId<{}> connected, reprovision it.", deviceId);
+                    scenarioRunner.executor().execute(
+                            () -> reprovision_device(deviceId).whenComplete((ok, e) -> reprovisioning.remove(deviceId)));
+                    break;
+                default:
+                    break;
             }
-            hex_str.append(hex);
         }
-        return hex_str.toString();
     }
-
 }
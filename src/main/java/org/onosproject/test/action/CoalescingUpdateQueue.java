@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one update per object (e.g. a group or an entry of a device) at a time,
+ * and keeps only the latest of the updates submitted meanwhile: when the running update
+ * finishes, the latest pending one is sent and the older pending ones are dropped.
+ *
+ * The future of a dropped update completes with the result of the update which
+ * superseded it, since that one carries the newer state.
+ */
+public class CoalescingUpdateQueue {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+
+    /* object -> running and pending update */
+    private final Map<Object, Slot> slots = new HashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+
+    public CoalescingUpdateQueue(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param key identifies the object, e.g. (deviceId, group key) or (deviceId, tableId, criteria)
+     * @param update sends the update, completes with true if the switch applied it
+     * @return completes with the result of this update or of the update superseding it
+     */
+    public CompletableFuture<Boolean> submit(Object key, Supplier<CompletableFuture<Boolean>> update) {
+        submitted.incrementAndGet();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        synchronized (this) {
+            Slot slot = slots.get(key);
+            if (slot == null) {
+                slots.put(key, new Slot());
+            } else {
+                if (slot.pending != null) {
+                    superseded.incrementAndGet();
+                    log.debug("queue<{}>: update of {} superseded.", name, key);
+                }
+                slot.pending = update;
+                slot.waiters.add(result);
+                return result;
+            }
+        }
+        run(key, update, result);
+        return result;
+    }
+
+    public long submitted() {
+        return submitted.get();
+    }
+
+    public long applied() {
+        return applied.get();
+    }
+
+    /* updates dropped because a newer one for the same object arrived before they were sent. */
+    public long superseded() {
+        return superseded.get();
+    }
+
+    /* objects with a pending update. */
+    public synchronized int pending() {
+        int pending = 0;
+        for (Slot slot : slots.values()) {
+            if (slot.pending != null) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    @Override
+    public String toString() {
+        return "queue<" + name + ">: submitted " + submitted() + ", applied " + applied()
+                + ", superseded " + superseded() + ", pending " + pending();
+    }
+
+    private void run(Object key, Supplier<CompletableFuture<Boolean>> update, CompletableFuture<Boolean> result) {
+        CompletableFuture<Boolean> done;
+        try {
+            done = update.get();
+        } catch (Exception e) {
+            done = new CompletableFuture<>();
+            done.completeExceptionally(e);
+        }
+        done.whenComplete((ok, e) -> {
+            if (e == null && ok) {
+                applied.incrementAndGet();
+            }
+            if (e == null) {
+                result.complete(ok);
+            } else {
+                result.completeExceptionally(e);
+            }
+            runNext(key);
+        });
+    }
+
+    /* send the latest pending update of 'key', if any. */
+    private void runNext(Object key) {
+        Supplier<CompletableFuture<Boolean>> next;
+        List<CompletableFuture<Boolean>> waiters;
+        synchronized (this) {
+            Slot slot = slots.get(key);
+            if (slot.pending == null) {
+                slots.remove(key);
+                return;
+            }
+            next = slot.pending;
+            waiters = slot.waiters;
+            slot.pending = null;
+            slot.waiters = new ArrayList<>();
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        result.whenComplete((ok, e) -> {
+            for (CompletableFuture<Boolean> waiter : waiters) {
+                if (e == null) {
+                    waiter.complete(ok);
+                } else {
+                    waiter.completeExceptionally(e);
+                }
+            }
+        });
+        run(key, next, result);
+    }
+
+    private static final class Slot {
+        private Supplier<CompletableFuture<Boolean>> pending;
+        private List<CompletableFuture<Boolean>> waiters = new ArrayList<>();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.table.FlowTable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The tables, entries and groups a scenario wants on each device. It is filled by the
+ * install_pof_*() methods instead of sending, then Reconciler pushes only the difference.
+ *
+ * An entry is identified by (tableId, selector, priority), its treatment is the value
+ * to compare. A group is identified by its GroupKey, its type and buckets are the value.
+ *
+ * The owner names who installs the groups, e.g. every run of the six-node scenario:
+ * only the groups of the same owner which are not desired anymore are removed.
+ */
+public class DesiredState {
+
+    private final String name;
+    private final String owner;
+
+    /* deviceId -> tableIds owned by the scenario */
+    private final Map<DeviceId, Set<Integer>> tables = new LinkedHashMap<>();
+    /* deviceId -> tableId -> table, to add it again if the device lost it */
+    private final Map<DeviceId, Map<Integer, FlowTable>> tableDefinitions = new LinkedHashMap<>();
+    /* deviceId -> entry key -> entry */
+    private final Map<DeviceId, Map<EntryKey, FlowRule>> entries = new LinkedHashMap<>();
+    /* deviceId -> group key -> group */
+    private final Map<DeviceId, Map<GroupKey, GroupDescription>> groups = new LinkedHashMap<>();
+
+    public DesiredState(String name) {
+        this(name, name);
+    }
+
+    public DesiredState(String name, String owner) {
+        this.name = name;
+        this.owner = owner;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    /* entries of 'tableId' which are not desired are removed by the reconciler. */
+    public synchronized DesiredState addTable(DeviceId deviceId, int tableId) {
+        tables.computeIfAbsent(deviceId, k -> new HashSet<>()).add(tableId);
+        return this;
+    }
+
+    /* as addTable(deviceId, tableId), the reconciler adds 'table' if the device does not have it. */
+    public synchronized DesiredState addTable(FlowTable table) {
+        int tableId = (int) table.id().value();
+        addTable(table.deviceId(), tableId);
+        tableDefinitions.computeIfAbsent(table.deviceId(), k -> new LinkedHashMap<>()).put(tableId, table);
+        return this;
+    }
+
+    /* a later entry with the same (tableId, selector, priority) replaces the former. */
+    public synchronized DesiredState addEntry(FlowRule flowRule) {
+        addTable(flowRule.deviceId(), flowRule.tableId());
+        entries.computeIfAbsent(flowRule.deviceId(), k -> new LinkedHashMap<>())
+                .put(EntryKey.of(flowRule), flowRule);
+        return this;
+    }
+
+    public synchronized DesiredState addGroup(GroupDescription group) {
+        groups.computeIfAbsent(group.deviceId(), k -> new LinkedHashMap<>())
+                .put(group.appCookie(), group);
+        return this;
+    }
+
+    public synchronized Set<DeviceId> devices() {
+        Set<DeviceId> devices = new HashSet<>(tables.keySet());
+        devices.addAll(groups.keySet());
+        return devices;
+    }
+
+    public synchronized Set<Integer> tables(DeviceId deviceId) {
+        return new HashSet<>(tables.getOrDefault(deviceId, Collections.emptySet()));
+    }
+
+    /* null if only the tableId of the table is known. */
+    public synchronized FlowTable table(DeviceId deviceId, int tableId) {
+        return tableDefinitions.getOrDefault(deviceId, Collections.emptyMap()).get(tableId);
+    }
+
+    public synchronized Map<EntryKey, FlowRule> entries(DeviceId deviceId) {
+        return new LinkedHashMap<>(entries.getOrDefault(deviceId, Collections.emptyMap()));
+    }
+
+    public synchronized Map<GroupKey, GroupDescription> groups(DeviceId deviceId) {
+        return new LinkedHashMap<>(groups.getOrDefault(deviceId, Collections.emptyMap()));
+    }
+
+    /**
+     * identifies an entry in a table regardless of its entryId.
+     */
+    public static final class EntryKey {
+        private final int tableId;
+        private final TrafficSelector selector;
+        private final int priority;
+
+        private EntryKey(int tableId, TrafficSelector selector, int priority) {
+            this.tableId = tableId;
+            this.selector = selector;
+            this.priority = priority;
+        }
+
+        public static EntryKey of(FlowRule flowRule) {
+            return new EntryKey(flowRule.tableId(), flowRule.selector(), flowRule.priority());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof EntryKey)) {
+                return false;
+            }
+            EntryKey that = (EntryKey) o;
+            return tableId == that.tableId && priority == that.priority && Objects.equals(selector, that.selector);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tableId, selector, priority);
+        }
+
+        @Override
+        public String toString() {
+            return "table<" + tableId + "> priority<" + priority + "> " + selector;
+        }
+    }
+}
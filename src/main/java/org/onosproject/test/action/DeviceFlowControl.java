@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.DeviceId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Limits the flow rule and group operations sent to each device, so that a large
+ * reconfiguration does not overflow the control channel of ovs-pof:
+ * a token bucket ('rate' operations/s, up to 'burst' at once) and a window of at
+ * most 'window' operations sent but not yet confirmed.
+ *
+ * Operations over the limits are queued per device and sent in order, by one drainer
+ * at a time per device. rate <= 0 or window <= 0 disables that limit. A request may
+ * carry at most maxRequest() operations, larger ones fail: the caller splits them,
+ * e.g. FlowRuleBatch sends a large batch in chunks.
+ */
+public class DeviceFlowControl {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            groupedThreads("onos/int-test", "flow-control-%d", log));
+
+    private final Map<DeviceId, Channel> channels = new ConcurrentHashMap<>();
+
+    private volatile double rate;
+    private volatile int burst;
+    private volatile int window;
+
+    public DeviceFlowControl(double rate, int burst, int window) {
+        configure(rate, burst, window);
+    }
+
+    public void configure(double rate, int burst, int window) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.window = window;
+        /* queued requests may pass now. */
+        channels.values().forEach(this::drain);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        for (Channel channel : channels.values()) {
+            synchronized (channel) {
+                channel.queue.forEach(r -> r.result.cancel(false));
+                channel.queue.clear();
+            }
+        }
+    }
+
+    /* the most operations of one request, min(burst, window) of the limits enabled. */
+    public int maxRequest() {
+        int max = rate > 0 ? burst : Integer.MAX_VALUE;
+        return window > 0 ? Math.min(max, window) : max;
+    }
+
+    /**
+     * send 'ops' operations to 'deviceId' when the limits allow it.
+     * @param ops at most maxRequest()
+     * @param send sends the operations, completes when the device confirmed them
+     * @return completes when 'send' completes, exceptionally if 'ops' is over maxRequest()
+     */
+    public CompletableFuture<Void> submit(DeviceId deviceId, int ops, Supplier<CompletableFuture<?>> send) {
+        Request request = new Request(ops, send);
+        if (ops > maxRequest()) {
+            request.result.completeExceptionally(oversized(ops));
+            return request.result;
+        }
+        Channel channel = channels.computeIfAbsent(deviceId, Channel::new);
+        synchronized (channel) {
+            channel.queue.add(request);
+            channel.maxDepth = Math.max(channel.maxDepth, channel.queue.size());
+        }
+        drain(channel);
+        return request.result;
+    }
+
+    /* operations queued for 'deviceId'. */
+    public int queueDepth(DeviceId deviceId) {
+        Channel channel = channels.get(deviceId);
+        if (channel == null) {
+            return 0;
+        }
+        synchronized (channel) {
+            return channel.queue.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("flow control:");
+        for (Channel channel : channels.values()) {
+            synchronized (channel) {
+                sb.append(String.format(" deviceId<%s> sent %d, queued %d (max %d), avg wait %.1f ms, outstanding %d;",
+                                        channel.deviceId, channel.sent, channel.queue.size(), channel.maxDepth,
+                                        channel.sent == 0 ? 0.0 : channel.waitNanos / 1e6 / channel.sent,
+                                        channel.outstanding));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * send the queued requests the limits allow, in order. Only one caller drains a channel:
+     * the others return at once, the drainer checks the queue again after each round.
+     */
+    private void drain(Channel channel) {
+        synchronized (channel) {
+            if (channel.draining) {
+                return;
+            }
+            channel.draining = true;
+        }
+        while (true) {
+            List<Request> failed = new ArrayList<>();
+            List<Request> ready = poll(channel, failed);
+            /* completed outside the lock, the callbacks may submit again. */
+            failed.forEach(request -> request.result.completeExceptionally(oversized(request.ops)));
+            if (ready.isEmpty()) {
+                return;
+            }
+            for (Request request : ready) {
+                send(channel, request);
+            }
+        }
+    }
+
+    /**
+     * the requests the limits allow now, an empty list also ends the drain.
+     * @param failed gets the requests over maxRequest()
+     */
+    private List<Request> poll(Channel channel, List<Request> failed) {
+        List<Request> ready = new ArrayList<>();
+        synchronized (channel) {
+            long now = System.nanoTime();
+            refill(channel, now);
+            while (!channel.queue.isEmpty()) {
+                Request request = channel.queue.peek();
+                if (request.ops > maxRequest()) {
+                    /* queued before configure() lowered the limits. */
+                    failed.add(channel.queue.poll());
+                    continue;
+                }
+                if (window > 0 && channel.outstanding + request.ops > window) {
+                    break;      // release() drains again
+                }
+                if (rate > 0 && channel.tokens < request.ops) {
+                    scheduleDrain(channel, (long) ((request.ops - channel.tokens) / rate * 1e9));
+                    break;
+                }
+                channel.queue.poll();
+                if (rate > 0) {
+                    channel.tokens -= request.ops;
+                }
+                channel.outstanding += request.ops;
+                channel.sent++;
+                channel.waitNanos += now - request.queuedNanos;
+                ready.add(request);
+            }
+            if (ready.isEmpty()) {
+                channel.draining = false;
+            }
+        }
+        return ready;
+    }
+
+    private void send(Channel channel, Request request) {
+        CompletableFuture<?> done;
+        try {
+            done = request.send.get();
+        } catch (Exception e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            done = failed;
+        }
+        done.whenComplete((r, e) -> {
+            release(channel, request.ops);
+            if (e == null) {
+                request.result.complete(null);
+            } else {
+                request.result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private IllegalArgumentException oversized(int ops) {
+        return new IllegalArgumentException(ops + " operations in one request, over the limit of " + maxRequest());
+    }
+
+    private void release(Channel channel, int ops) {
+        synchronized (channel) {
+            channel.outstanding -= ops;
+        }
+        drain(channel);
+    }
+
+    private void refill(Channel channel, long now) {
+        if (rate <= 0) {
+            return;
+        }
+        double elapsed = (now - channel.refillNanos) / 1e9;
+        channel.tokens = Math.min(burst, channel.tokens + elapsed * rate);
+        channel.refillNanos = now;
+    }
+
+    private void scheduleDrain(Channel channel, long delayNanos) {
+        if (channel.drainScheduled || executor.isShutdown()) {
+            return;
+        }
+        channel.drainScheduled = true;
+        executor.schedule(() -> {
+            synchronized (channel) {
+                channel.drainScheduled = false;
+            }
+            drain(channel);
+        }, Math.max(1, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private final class Channel {
+        private final DeviceId deviceId;
+        private final Deque<Request> queue = new ArrayDeque<>();
+        private double tokens = burst;
+        private long refillNanos = System.nanoTime();
+        private int outstanding;
+        private boolean drainScheduled;
+        /* a caller of drain() is sending, see drain() */
+        private boolean draining;
+
+        /* stats */
+        private long sent;
+        private long maxDepth;
+        private long waitNanos;
+
+        private Channel(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    private static final class Request {
+        private final int ops;
+        private final Supplier<CompletableFuture<?>> send;
+        private final long queuedNanos = System.nanoTime();
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Request(int ops, Supplier<CompletableFuture<?>> send) {
+            this.ops = ops;
+            this.send = send;
+        }
+    }
+}
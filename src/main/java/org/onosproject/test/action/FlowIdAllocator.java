@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.floodlightpof.protocol.table.OFTableType;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.table.FlowTableStore;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Hands out flow entryIds and tableIds locally instead of one flowTableStore call each.
+ *
+ * The tables are created by this app, so their entryIds are ours: the first entryId of
+ * a table comes from flowTableStore.getNewFlowEntryId(), then the range from it up is
+ * reserved and allocated here, lowest free entryId first. Released entryIds are reused,
+ * forgetTable() drops the range when the table is removed.
+ *
+ * For tables, the offset between the global and the small tableId of each (device, type)
+ * is kept, so that parseToSmallTableId() is called once per device and table type.
+ */
+public class FlowIdAllocator {
+
+    private final FlowTableStore flowTableStore;
+
+    /* (deviceId, tableId) -> entryIds in use, from 'first' */
+    private final Map<Table, Range> ranges = new HashMap<>();
+    /* (deviceId, type) -> global tableId - small tableId */
+    private final Map<Table, Integer> tableIdOffsets = new HashMap<>();
+
+    private long storeCalls;
+    private long allocated;
+
+    public FlowIdAllocator(FlowTableStore flowTableStore) {
+        this.flowTableStore = flowTableStore;
+    }
+
+    /* a new entryId in 'tableId', i.e. the cookie of the flow entry. */
+    public synchronized int entryId(DeviceId deviceId, int tableId) {
+        allocated++;
+        Table table = new Table(deviceId, tableId);
+        Range range = ranges.get(table);
+        if (range == null) {
+            storeCalls++;
+            range = new Range(flowTableStore.getNewFlowEntryId(deviceId, tableId));
+            ranges.put(table, range);
+        }
+        int entryId = range.used.nextClearBit(0);
+        range.used.set(entryId);
+        return range.first + entryId;
+    }
+
+    /* the entry is removed, its entryId can be reused. */
+    public synchronized void release(DeviceId deviceId, int tableId, long entryId) {
+        Range range = ranges.get(new Table(deviceId, tableId));
+        if (range != null && entryId >= range.first) {
+            range.used.clear((int) (entryId - range.first));
+        }
+    }
+
+    /* the table is removed, its next entryIds come from flowTableStore again. */
+    public synchronized void forgetTable(DeviceId deviceId, int tableId) {
+        ranges.remove(new Table(deviceId, tableId));
+    }
+
+    /* a new small tableId of 'type' on 'deviceId'. */
+    public synchronized byte tableId(DeviceId deviceId, OFTableType type) {
+        storeCalls++;
+        int globalTableId = flowTableStore.getNewGlobalFlowTableId(deviceId, type);
+        Table key = new Table(deviceId, type.ordinal());
+        Integer offset = tableIdOffsets.get(key);
+        if (offset == null) {
+            storeCalls++;
+            byte tableId = flowTableStore.parseToSmallTableId(deviceId, globalTableId);
+            tableIdOffsets.put(key, globalTableId - tableId);
+            return tableId;
+        }
+        return (byte) (globalTableId - offset);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "flow ids: " + allocated + " entryIds allocated, " + storeCalls + " flowTableStore calls, "
+                + ranges.size() + " tables";
+    }
+
+    private static final class Range {
+        private final int first;
+        private final BitSet used = new BitSet();
+
+        private Range(int first) {
+            this.first = first;
+        }
+    }
+
+    private static final class Table {
+        private final DeviceId deviceId;
+        private final int id;
+
+        private Table(DeviceId deviceId, int id) {
+            this.deviceId = deviceId;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Table)) {
+                return false;
+            }
+            Table that = (Table) o;
+            return id == that.id && Objects.equals(deviceId, that.deviceId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, id);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.group.GroupKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Collects the flow entries of one scenario into FlowRuleOperations stages,
+ * so that they are sent with one apply() instead of one applyFlowRules() per entry.
+ *
+ * Stages are kept per device: newStage(deviceId) only orders the entries of that
+ * device, the i-th stage of all devices is merged into the i-th stage of the batch.
+ * after(deviceId, future) delays the entries of a device until e.g. the groups
+ * they point to have been added.
+ *
+ * With a DeviceFlowControl the entries of each device are sent as their own
+ * FlowRuleOperations, within the limits of that device. More entries than
+ * DeviceFlowControl.maxRequest() are sent stage by stage, in chunks of that size.
+ */
+public class FlowRuleBatch {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final FlowRuleService flowRuleService;
+    private final String name;
+    private final DeviceFlowControl flowControl;
+
+    /* deviceId -> stages -> operations */
+    private final Map<DeviceId, List<List<FlowRuleOperation>>> stages = new HashMap<>();
+    /* deviceId -> what the entries of the device wait for */
+    private final Map<DeviceId, List<CompletableFuture<?>>> dependencies = new HashMap<>();
+    /* deviceId -> groups added for the entries of the device */
+    private final Map<DeviceId, List<GroupKey>> groups = new HashMap<>();
+
+    public FlowRuleBatch(FlowRuleService flowRuleService, String name) {
+        this(flowRuleService, name, null);
+    }
+
+    /**
+     * @param flowControl limits the operations sent to each device, null means no limit
+     */
+    public FlowRuleBatch(FlowRuleService flowRuleService, String name, DeviceFlowControl flowControl) {
+        this.flowRuleService = flowRuleService;
+        this.name = name;
+        this.flowControl = flowControl;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public FlowRuleBatch add(FlowRule flowRule) {
+        return append(new FlowRuleOperation(flowRule, FlowRuleOperation.Type.ADD));
+    }
+
+    public FlowRuleBatch modify(FlowRule flowRule) {
+        return append(new FlowRuleOperation(flowRule, FlowRuleOperation.Type.MODIFY));
+    }
+
+    public FlowRuleBatch remove(FlowRule flowRule) {
+        return append(new FlowRuleOperation(flowRule, FlowRuleOperation.Type.REMOVE));
+    }
+
+    /**
+     * entries added to 'deviceId' after this call are sent only after the
+     * previous stage has been confirmed by the devices.
+     */
+    public synchronized FlowRuleBatch newStage(DeviceId deviceId) {
+        List<List<FlowRuleOperation>> deviceStages = deviceStages(deviceId);
+        if (!deviceStages.get(deviceStages.size() - 1).isEmpty()) {
+            deviceStages.add(new ArrayList<>());
+        }
+        return this;
+    }
+
+    /**
+     * entries of 'deviceId' are sent only after 'dependency' completes, successfully or not.
+     */
+    public synchronized FlowRuleBatch after(DeviceId deviceId, CompletableFuture<?> dependency) {
+        dependencies.computeIfAbsent(deviceId, k -> new ArrayList<>()).add(dependency);
+        return this;
+    }
+
+    /* as after(), 'added' completes when the device has added the group 'groupKey'. */
+    public synchronized FlowRuleBatch afterGroup(DeviceId deviceId, GroupKey groupKey, CompletableFuture<?> added) {
+        groups.computeIfAbsent(deviceId, k -> new ArrayList<>()).add(groupKey);
+        return after(deviceId, added);
+    }
+
+    /* deviceId -> groups given to afterGroup(). */
+    public synchronized Map<DeviceId, List<GroupKey>> groups() {
+        Map<DeviceId, List<GroupKey>> copy = new HashMap<>();
+        groups.forEach((deviceId, keys) -> copy.put(deviceId, new ArrayList<>(keys)));
+        return copy;
+    }
+
+    /* devices with queued entries or dependencies. */
+    public synchronized Set<DeviceId> devices() {
+        Set<DeviceId> devices = new HashSet<>(stages.keySet());
+        devices.addAll(dependencies.keySet());
+        return devices;
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (List<List<FlowRuleOperation>> deviceStages : stages.values()) {
+            for (List<FlowRuleOperation> stage : deviceStages) {
+                size += stage.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * submit the entries of all devices.
+     * @return completes with true if all stages are applied, false otherwise
+     */
+    public CompletableFuture<Boolean> submit() {
+        if (flowControl == null) {
+            return submit(null);
+        }
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (DeviceId deviceId : devices()) {
+            results.add(submit(deviceId));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .thenApply(v -> results.stream().allMatch(CompletableFuture::join));
+    }
+
+    /**
+     * submit the entries of one device only, the entries of other devices stay queued.
+     * @param deviceId such as "pof:000000000000000x", null means all devices
+     * @return completes with true if all stages are applied, false otherwise
+     */
+    public CompletableFuture<Boolean> submit(DeviceId deviceId) {
+        List<CompletableFuture<?>> waitFor;
+        List<List<FlowRuleOperation>> merged;
+        synchronized (this) {
+            waitFor = drainDependencies(deviceId);
+            merged = drain(deviceId);
+        }
+        if (waitFor.isEmpty()) {
+            return apply(deviceId, merged);
+        }
+        return CompletableFuture.allOf(waitFor.toArray(new CompletableFuture[0]))
+                .handle((r, e) -> null)
+                .thenCompose(v -> apply(deviceId, merged));
+    }
+
+    private CompletableFuture<Boolean> apply(DeviceId deviceId, List<List<FlowRuleOperation>> merged) {
+        int count = 0;
+        for (List<FlowRuleOperation> stage : merged) {
+            count += stage.size();
+        }
+        if (count == 0) {
+            return CompletableFuture.completedFuture(true);
+        }
+        if (flowControl == null || deviceId == null) {
+            return send(deviceId, merged, count);
+        }
+        int limit = flowControl.maxRequest();
+        if (count <= limit) {
+            return submitChunk(deviceId, merged, count);
+        }
+        /* over the limits of the device: stage by stage, each in chunks of at most 'limit'. */
+        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
+        for (List<FlowRuleOperation> stage : merged) {
+            if (!stage.isEmpty()) {
+                result = result.thenCompose(ok -> ok ? applyStage(deviceId, stage, limit)
+                        : CompletableFuture.completedFuture(false));
+            }
+        }
+        return result;
+    }
+
+    /* the chunks of one stage are queued together, they need not be applied in order. */
+    private CompletableFuture<Boolean> applyStage(DeviceId deviceId, List<FlowRuleOperation> stage, int limit) {
+        List<CompletableFuture<Boolean>> chunks = new ArrayList<>();
+        for (int from = 0; from < stage.size(); from += limit) {
+            List<FlowRuleOperation> chunk = stage.subList(from, Math.min(stage.size(), from + limit));
+            chunks.add(submitChunk(deviceId, Collections.singletonList(chunk), chunk.size()));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                .thenApply(v -> chunks.stream().allMatch(CompletableFuture::join));
+    }
+
+    /* one request of the flow control, 'count' operations of 'merged'. */
+    private CompletableFuture<Boolean> submitChunk(DeviceId deviceId, List<List<FlowRuleOperation>> merged,
+                                                   int count) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        flowControl.submit(deviceId, count, () -> send(deviceId, merged, count).thenAccept(result::complete))
+                .whenComplete((v, e) -> {
+                    /* dropped by flowControl.shutdown(), or over its limits */
+                    if (e != null) {
+                        result.complete(false);
+                    }
+                });
+        return result;
+    }
+
+    private CompletableFuture<Boolean> send(DeviceId deviceId, List<List<FlowRuleOperation>> merged, int count) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        FlowRuleOperations.Builder builder = FlowRuleOperations.builder();
+        int stageNum = 0;
+        for (List<FlowRuleOperation> stage : merged) {
+            if (stage.isEmpty()) {
+                continue;
+            }
+            for (FlowRuleOperation op : stage) {
+                switch (op.type()) {
+                    case ADD:
+                        builder.add(op.rule());
+                        break;
+                    case MODIFY:
+                        builder.modify(op.rule());
+                        break;
+                    case REMOVE:
+                        builder.remove(op.rule());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            builder.newStage();
+            stageNum++;
+        }
+
+        final int entries = count;
+        final long start = System.currentTimeMillis();
+        flowRuleService.apply(builder.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations ops) {
+                log.info("batch<{}>: {} entries in {} stages applied in {} ms.",
+                         name, entries, ops.stages().size(), System.currentTimeMillis() - start);
+                result.complete(true);
+            }
+
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                log.warn("batch<{}>: failed to apply {} entries, failed ops: {}", name, entries, ops);
+                result.complete(false);
+            }
+        }));
+        log.info("batch<{}>: submit {} entries in {} stages, deviceId<{}>.", name, entries, stageNum,
+                 deviceId == null ? "all" : deviceId.toString());
+        return result;
+    }
+
+    private synchronized FlowRuleBatch append(FlowRuleOperation op) {
+        List<List<FlowRuleOperation>> deviceStages = deviceStages(op.rule().deviceId());
+        deviceStages.get(deviceStages.size() - 1).add(op);
+        return this;
+    }
+
+    private List<List<FlowRuleOperation>> deviceStages(DeviceId deviceId) {
+        return stages.computeIfAbsent(deviceId, k -> {
+            List<List<FlowRuleOperation>> deviceStages = new ArrayList<>();
+            deviceStages.add(new ArrayList<>());
+            return deviceStages;
+        });
+    }
+
+    private synchronized List<CompletableFuture<?>> drainDependencies(DeviceId deviceId) {
+        List<CompletableFuture<?>> waitFor = new ArrayList<>();
+        Iterator<Map.Entry<DeviceId, List<CompletableFuture<?>>>> it = dependencies.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<DeviceId, List<CompletableFuture<?>>> entry = it.next();
+            if (deviceId == null || deviceId.equals(entry.getKey())) {
+                waitFor.addAll(entry.getValue());
+                it.remove();
+            }
+        }
+        return waitFor;
+    }
+
+    /* remove the queued operations of 'deviceId' (or all devices), merging stages by index. */
+    private synchronized List<List<FlowRuleOperation>> drain(DeviceId deviceId) {
+        List<List<FlowRuleOperation>> merged = new ArrayList<>();
+        Iterator<Map.Entry<DeviceId, List<List<FlowRuleOperation>>>> it = stages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<DeviceId, List<List<FlowRuleOperation>>> entry = it.next();
+            if (deviceId != null && !deviceId.equals(entry.getKey())) {
+                continue;
+            }
+            List<List<FlowRuleOperation>> deviceStages = entry.getValue();
+            for (int i = 0; i < deviceStages.size(); i++) {
+                if (merged.size() <= i) {
+                    merged.add(new ArrayList<>());
+                }
+                merged.get(i).addAll(deviceStages.get(i));
+            }
+            it.remove();
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index from (deviceId, tableId, selector) to the entryIds of the flow entries, so that
+ * replacing the entry of a selector is a hash lookup instead of a scan of getFlowEntries().
+ *
+ * The selector is normalized to its criteria set: the POF criteria carry
+ * (fieldId, offset, length, value, mask) and compare by value. A table is loaded from
+ * flowTableStore on its first lookup, then kept current by flow rule events.
+ */
+public class FlowSelectorIndex {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final FlowRuleService flowRuleService;
+    private final FlowTableStore flowTableStore;
+
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    /* (deviceId, tableId, criteria) -> entryIds */
+    private final Map<Key, Set<Integer>> entries = new ConcurrentHashMap<>();
+    /* (deviceId, tableId) loaded from flowTableStore */
+    private final Set<Key> loadedTables = ConcurrentHashMap.newKeySet();
+    /* (deviceId, tableId) -> lock of its load(), so that a table is scanned once */
+    private final Map<Key, Object> loadLocks = new ConcurrentHashMap<>();
+
+    public FlowSelectorIndex(FlowRuleService flowRuleService, FlowTableStore flowTableStore) {
+        this.flowRuleService = flowRuleService;
+        this.flowTableStore = flowTableStore;
+    }
+
+    public void activate() {
+        flowRuleService.addListener(flowRuleListener);
+    }
+
+    public void deactivate() {
+        flowRuleService.removeListener(flowRuleListener);
+        entries.clear();
+        loadedTables.clear();
+        loadLocks.clear();
+    }
+
+    /**
+     * @return entryIds of the entries in 'tableId' whose selector equals 'selector', may be empty
+     */
+    public Set<Integer> lookup(DeviceId deviceId, int tableId, TrafficSelector selector) {
+        load(deviceId, tableId);
+        Set<Integer> entryIds = entries.get(new Key(deviceId, tableId, selector.criteria()));
+        if (entryIds == null) {
+            return Collections.emptySet();
+        }
+        synchronized (entryIds) {
+            return new HashSet<>(entryIds);
+        }
+    }
+
+    /* index 'flowRule' now, e.g. right after it is sent. */
+    public void put(FlowRule flowRule) {
+        /* in the same compute() as remove(), a set emptied and dropped meanwhile is not added to. */
+        entries.compute(Key.of(flowRule), (k, entryIds) -> {
+            Set<Integer> more = entryIds == null ? new HashSet<>() : entryIds;
+            synchronized (more) {
+                more.add(entryId(flowRule));
+            }
+            return more;
+        });
+    }
+
+    /* forget 'entryId', e.g. right after removeFlowEntryByEntryId(). */
+    public void remove(DeviceId deviceId, int tableId, TrafficSelector selector, int entryId) {
+        Key key = new Key(deviceId, tableId, selector.criteria());
+        entries.computeIfPresent(key, (k, entryIds) -> {
+            synchronized (entryIds) {
+                entryIds.remove(entryId);
+                return entryIds.isEmpty() ? null : entryIds;
+            }
+        });
+    }
+
+    private void remove(FlowRule flowRule) {
+        remove(flowRule.deviceId(), flowRule.tableId(), flowRule.selector(), entryId(flowRule));
+    }
+
+    /*
+     * the first lookup of a table scans it once. Lookups of the table wait for the scan,
+     * the table is marked loaded only after it.
+     */
+    private void load(DeviceId deviceId, int tableId) {
+        Key table = new Key(deviceId, tableId, null);
+        if (loadedTables.contains(table)) {
+            return;
+        }
+        synchronized (loadLock(table)) {
+            if (loadedTables.contains(table)) {
+                return;
+            }
+            Map<Integer, FlowRule> existedFlowRules = flowTableStore.getFlowEntries(deviceId, FlowTableId.valueOf(tableId));
+            if (existedFlowRules != null) {
+                for (FlowRule flowRule : existedFlowRules.values()) {
+                    put(flowRule);
+                }
+                log.info("selector index: load deviceId<{}> tableId<{}>, {} entries.",
+                         deviceId, tableId, existedFlowRules.size());
+            }
+            loadedTables.add(table);
+        }
+    }
+
+    private Object loadLock(Key table) {
+        return loadLocks.computeIfAbsent(table, k -> new Object());
+    }
+
+    /* the entryId is the cookie, i.e. FlowIdAllocator.entryId(). */
+    private static int entryId(FlowRule flowRule) {
+        return (int) flowRule.id().value();
+    }
+
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule flowRule = event.subject();
+            switch (event.type()) {
+                case RULE_ADD_REQUESTED:
+                case RULE_ADDED:
+                    put(flowRule);
+                    break;
+                case RULE_REMOVE_REQUESTED:
+                case RULE_REMOVED:
+                    remove(flowRule);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static final class Key {
+        private final DeviceId deviceId;
+        private final int tableId;
+        private final Set<Criterion> criteria;
+
+        private Key(DeviceId deviceId, int tableId, Set<Criterion> criteria) {
+            this.deviceId = deviceId;
+            this.tableId = tableId;
+            this.criteria = criteria;
+        }
+
+        private static Key of(FlowRule flowRule) {
+            return new Key(flowRule.deviceId(), flowRule.tableId(), flowRule.selector().criteria());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return tableId == that.tableId && Objects.equals(deviceId, that.deviceId)
+                    && Objects.equals(criteria, that.criteria);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, tableId, criteria);
+        }
+    }
+}
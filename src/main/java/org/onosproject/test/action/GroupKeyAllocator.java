@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.group.DefaultGroupKey;
+import org.onosproject.net.group.GroupKey;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Versioned GroupKeys and groupIds for groups which are replaced make-before-break:
+ * version v+1 is added with its own key and groupId next to version v, the entry is
+ * re-pointed to it, and only then version v is removed and its groupId reused.
+ *
+ * A group is named by its first key, e.g. "abc" -> "abc", "abc#1", "abc#2", ...
+ * Callers run one update of a group at a time, so that at most two versions exist.
+ * Code written for version 0, e.g. a replayed scenario, finds the current version
+ * with current() and currentGroupId() instead of registering the group again.
+ */
+public class GroupKeyAllocator {
+
+    private final int firstGroupId;
+
+    /* (deviceId, name) -> current version */
+    private final Map<Name, Version> current = new HashMap<>();
+    /* deviceId -> groupId given to register() -> name */
+    private final Map<DeviceId, Map<Integer, String>> registered = new HashMap<>();
+    /* deviceId -> released groupIds */
+    private final Map<DeviceId, Deque<Integer>> freeGroupIds = new HashMap<>();
+    /* deviceId -> next never used groupId */
+    private final Map<DeviceId, Integer> nextGroupIds = new HashMap<>();
+
+    /**
+     * @param firstGroupId new groupIds start from here, keep it above the hard-coded groupIds
+     */
+    public GroupKeyAllocator(int firstGroupId) {
+        this.firstGroupId = firstGroupId;
+    }
+
+    /* the group as installed by install_pof_*(), version 0. */
+    public synchronized Version register(DeviceId deviceId, String name, int groupId) {
+        Version version = new Version(name, 0, name, groupId);
+        current.put(new Name(deviceId, name), version);
+        registered.computeIfAbsent(deviceId, k -> new HashMap<>()).put(groupId, name);
+        return version;
+    }
+
+    /* the groupId of the current version of the group registered with 'groupId', else 'groupId' itself. */
+    public synchronized int currentGroupId(DeviceId deviceId, int groupId) {
+        String name = registered.getOrDefault(deviceId, Collections.emptyMap()).get(groupId);
+        Version version = name == null ? null : current.get(new Name(deviceId, name));
+        return version == null ? groupId : version.groupId();
+    }
+
+    /* @return null if 'name' is not registered */
+    public synchronized Version current(DeviceId deviceId, String name) {
+        return current.get(new Name(deviceId, name));
+    }
+
+    /* the key to remove the group with, 'name' itself if it was never updated. */
+    public synchronized String currentKey(DeviceId deviceId, String name) {
+        Version version = current.get(new Name(deviceId, name));
+        return version == null ? name : version.keyStr();
+    }
+
+    /* a new key and groupId, not current until commit(). */
+    public synchronized Version next(DeviceId deviceId, String name) {
+        Version version = current.get(new Name(deviceId, name));
+        int next = version == null ? 0 : version.version() + 1;
+        return new Version(name, next, name + "#" + next, allocateGroupId(deviceId));
+    }
+
+    public synchronized void commit(DeviceId deviceId, Version version) {
+        current.put(new Name(deviceId, version.name()), version);
+    }
+
+    /**
+     * the group of 'version' is removed, its groupId can be reused. A groupId below
+     * firstGroupId, e.g. the hard-coded one of register(), is not handed out again:
+     * the static group may be added again under it.
+     */
+    public synchronized void release(DeviceId deviceId, Version version) {
+        if (version.groupId() < firstGroupId) {
+            return;
+        }
+        freeGroupIds.computeIfAbsent(deviceId, k -> new ArrayDeque<>()).push(version.groupId());
+    }
+
+    /* the group is removed for good. */
+    public synchronized void forget(DeviceId deviceId, String name) {
+        current.remove(new Name(deviceId, name));
+        Map<Integer, String> names = registered.get(deviceId);
+        if (names != null) {
+            names.values().remove(name);
+        }
+    }
+
+    private int allocateGroupId(DeviceId deviceId) {
+        Deque<Integer> free = freeGroupIds.get(deviceId);
+        if (free != null && !free.isEmpty()) {
+            return free.pop();
+        }
+        int groupId = nextGroupIds.getOrDefault(deviceId, firstGroupId);
+        nextGroupIds.put(deviceId, groupId + 1);
+        return groupId;
+    }
+
+    /**
+     * one version of a group.
+     */
+    public static final class Version {
+        private final String name;
+        private final int version;
+        private final String keyStr;
+        private final int groupId;
+
+        private Version(String name, int version, String keyStr, int groupId) {
+            this.name = name;
+            this.version = version;
+            this.keyStr = keyStr;
+            this.groupId = groupId;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int version() {
+            return version;
+        }
+
+        public String keyStr() {
+            return keyStr;
+        }
+
+        public GroupKey key() {
+            return new DefaultGroupKey(keyStr.getBytes());
+        }
+
+        public int groupId() {
+            return groupId;
+        }
+
+        @Override
+        public String toString() {
+            return keyStr + "/groupId<" + groupId + ">";
+        }
+    }
+
+    private static final class Name {
+        private final DeviceId deviceId;
+        private final String name;
+
+        private Name(DeviceId deviceId, String name) {
+            this.deviceId = deviceId;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Name)) {
+                return false;
+            }
+            Name that = (Name) o;
+            return Objects.equals(deviceId, that.deviceId) && Objects.equals(name, that.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, name);
+        }
+    }
+}
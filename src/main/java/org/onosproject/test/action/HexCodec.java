@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.util.Arrays;
+
+/**
+ * Lower-case hex strings of match values, masks and field values, such as "0a000001",
+ * "ffff" or mapInfo "3f", as the POF Criteria and actions take them.
+ *
+ * Encoding uses lookup tables: the 256 byte strings are built once, and a value of
+ * several bytes is written into one char[], without Integer.toHexString() per byte.
+ */
+public final class HexCodec {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /* byte -> "00".."ff" */
+    private static final String[] BYTE_HEX = new String[256];
+    /* char -> nibble, -1 if not a hex digit */
+    private static final byte[] NIBBLES = new byte[128];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            BYTE_HEX[i] = new String(new char[] {DIGITS[i >>> 4], DIGITS[i & 0xf]});
+        }
+        Arrays.fill(NIBBLES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            NIBBLES[DIGITS[i]] = (byte) i;
+            NIBBLES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    private HexCodec() {
+    }
+
+    /* no allocation, the strings are shared. */
+    public static String toHex(byte value) {
+        return BYTE_HEX[value & 0xff];
+    }
+
+    public static String toHex(short value) {
+        char[] out = new char[4];
+        write(out, 0, value, 2);
+        return new String(out);
+    }
+
+    /* e.g. an IPv4 address, 0x0a000001 -> "0a000001". */
+    public static String toHex(int value) {
+        char[] out = new char[8];
+        write(out, 0, value, 4);
+        return new String(out);
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i] = DIGITS[(bytes[i] >>> 4) & 0xf];
+            out[2 * i + 1] = DIGITS[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    /* append 'value' as 2 * 'bytes' hex digits, e.g. to build a header field by field. */
+    public static StringBuilder append(StringBuilder sb, long value, int bytes) {
+        for (int shift = 8 * bytes - 4; shift >= 0; shift -= 4) {
+            sb.append(DIGITS[(int) (value >>> shift) & 0xf]);
+        }
+        return sb;
+    }
+
+    /* "0a000001" -> {0x0a, 0x00, 0x00, 0x01} */
+    public static byte[] toBytes(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("odd length hex str: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((nibble(hex, 2 * i) << 4) | nibble(hex, 2 * i + 1));
+        }
+        return bytes;
+    }
+
+    /* "0908" -> 0x0908, at most 16 hex digits. */
+    public static long toLong(String hex) {
+        if (hex.length() > 16) {
+            throw new IllegalArgumentException("hex str longer than 8 bytes: " + hex);
+        }
+        long value = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            value = (value << 4) | nibble(hex, i);
+        }
+        return value;
+    }
+
+    private static void write(char[] out, int pos, long value, int bytes) {
+        for (int i = 0; i < 2 * bytes; i++) {
+            out[pos + i] = DIGITS[(int) (value >>> (8 * bytes - 4 - 4 * i)) & 0xf];
+        }
+    }
+
+    private static int nibble(String hex, int i) {
+        char c = hex.charAt(i);
+        int n = c < 128 ? NIBBLES[c] : -1;
+        if (n < 0) {
+            throw new IllegalArgumentException("not a hex digit '" + c + "' in: " + hex);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.table.FlowTable;
+import org.onosproject.net.table.FlowTableEvent;
+import org.onosproject.net.table.FlowTableListener;
+import org.onosproject.net.table.FlowTableService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Tracks flow entries, groups and flow tables until the device reports them as ADDED
+ * (or a group as REMOVED),
+ * so that a scenario waits for the switch instead of a fixed Thread.sleep().
+ *
+ * Confirmations of this app which arrive before anyone waits for them are kept for
+ * CONFIRMED_TTL_MS, so registering after the install request is not racy. A waiter is
+ * registered, and a confirmation checked, in one waiting.compute() step per key.
+ */
+public class InstallTracker {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /* a confirmation nobody waited for is dropped after this long. */
+    static final long CONFIRMED_TTL_MS = 60000;
+
+    private final ApplicationId appId;
+
+    private final FlowRuleService flowRuleService;
+    private final GroupService groupService;
+    private final FlowTableService flowTableService;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            groupedThreads("onos/int-test", "install-timer-%d", log));
+
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+    private final GroupListener groupListener = new InternalGroupListener();
+    private final FlowTableListener flowTableListener = new InternalFlowTableListener();
+
+    /* confirmed by the device, but nobody waited yet: key -> time confirmed, in ms. */
+    private final Map<Key, Long> confirmed = new ConcurrentHashMap<>();
+    private final Map<Key, List<CompletableFuture<Void>>> waiting = new ConcurrentHashMap<>();
+
+    public InstallTracker(FlowRuleService flowRuleService, GroupService groupService,
+                          FlowTableService flowTableService, ApplicationId appId) {
+        this.appId = appId;
+        this.flowRuleService = flowRuleService;
+        this.groupService = groupService;
+        this.flowTableService = flowTableService;
+    }
+
+    public void activate() {
+        flowRuleService.addListener(flowRuleListener);
+        groupService.addListener(groupListener);
+        flowTableService.addListener(flowTableListener);
+        timer.scheduleWithFixedDelay(this::expire, CONFIRMED_TTL_MS, CONFIRMED_TTL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void deactivate() {
+        flowRuleService.removeListener(flowRuleListener);
+        groupService.removeListener(groupListener);
+        flowTableService.removeListener(flowTableListener);
+        timer.shutdownNow();
+        for (List<CompletableFuture<Void>> futures : waiting.values()) {
+            futures.forEach(f -> f.cancel(false));
+        }
+        waiting.clear();
+        confirmed.clear();
+    }
+
+    /**
+     * @param entryId the cookie of the flow entry, i.e. FlowIdAllocator.entryId()
+     * @return completes when the entry is ADDED on 'deviceId', exceptionally after 'timeoutMs'
+     */
+    public CompletableFuture<Void> flowRuleAdded(DeviceId deviceId, long entryId, long timeoutMs) {
+        return await(new Key(Kind.FLOW_RULE, deviceId, entryId), timeoutMs);
+    }
+
+    public CompletableFuture<Void> groupAdded(DeviceId deviceId, GroupKey groupKey, long timeoutMs) {
+        Key key = new Key(Kind.GROUP, deviceId, groupKey);
+        Group group = groupService.getGroup(deviceId, groupKey);
+        if (group != null && group.state() == Group.GroupState.ADDED) {
+            confirm(key);
+        }
+        return await(key, timeoutMs);
+    }
+
+    /* completes when the device confirms a setBucketsForGroup(), call it before sending. */
+    public CompletableFuture<Void> groupUpdated(DeviceId deviceId, GroupKey groupKey, long timeoutMs) {
+        Key key = new Key(Kind.GROUP, deviceId, groupKey);
+        /* the confirmation kept from the add is not the one of this update. */
+        forget(key);
+        return await(key, timeoutMs);
+    }
+
+    /* completes when the group is REMOVED from 'deviceId', e.g. before its groupId is reused. */
+    public CompletableFuture<Void> groupRemoved(DeviceId deviceId, GroupKey groupKey, long timeoutMs) {
+        Key key = new Key(Kind.GROUP_REMOVED, deviceId, groupKey);
+        if (groupService.getGroup(deviceId, groupKey) == null) {
+            confirm(key);
+        }
+        return await(key, timeoutMs);
+    }
+
+    public CompletableFuture<Void> tableAdded(DeviceId deviceId, int tableId, long timeoutMs) {
+        return await(new Key(Kind.TABLE, deviceId, (long) tableId), timeoutMs);
+    }
+
+    /* complete 'future' exceptionally with TimeoutException if not done after 'timeoutMs'. */
+    public <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeoutMs) {
+        if (!future.isDone()) {
+            timer.schedule(() -> future.completeExceptionally(new TimeoutException()),
+                           timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> await(Key key, long timeoutMs) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean[] done = new boolean[1];
+        waiting.compute(key, (k, futures) -> {
+            /* the confirmation may have arrived before we registered. */
+            if (confirmed.remove(k) != null) {
+                done[0] = true;
+                return futures;
+            }
+            List<CompletableFuture<Void>> more = futures == null ? new CopyOnWriteArrayList<>() : futures;
+            more.add(future);
+            return more;
+        });
+        if (done[0]) {
+            future.complete(null);
+            return future;
+        }
+        future.whenComplete((r, e) -> {
+            if (e != null) {
+                log.warn("{} is not confirmed in {} ms.", key, timeoutMs);
+            }
+            waiting.computeIfPresent(key, (k, futures) -> {
+                futures.remove(future);
+                return futures.isEmpty() ? null : futures;
+            });
+        });
+        return within(future, timeoutMs);
+    }
+
+    /* completes the waiters of 'key', or keeps the confirmation if there are none. */
+    private void confirm(Key key) {
+        List<List<CompletableFuture<Void>>> ready = new ArrayList<>(1);
+        waiting.compute(key, (k, futures) -> {
+            if (futures == null || futures.isEmpty()) {
+                confirmed.put(k, System.currentTimeMillis());
+            } else {
+                ready.add(futures);
+            }
+            return null;
+        });
+        /* completed outside compute(), the callbacks may register again. */
+        ready.forEach(futures -> futures.forEach(f -> f.complete(null)));
+    }
+
+    /* completes the waiters of 'key', nobody waiting is not kept, e.g. an UPDATED event. */
+    private void completeWaiting(Key key) {
+        List<CompletableFuture<Void>> futures = waiting.remove(key);
+        if (futures != null) {
+            futures.forEach(f -> f.complete(null));
+        }
+    }
+
+    private void forget(Key key) {
+        confirmed.remove(key);
+    }
+
+    private void expire() {
+        long oldest = System.currentTimeMillis() - CONFIRMED_TTL_MS;
+        confirmed.values().removeIf(time -> time < oldest);
+    }
+
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            if (rule.appId() != appId.id()) {
+                return;
+            }
+            Key key = new Key(Kind.FLOW_RULE, rule.deviceId(), rule.id().value());
+            switch (event.type()) {
+                case RULE_ADDED:
+                    confirm(key);
+                    break;
+                case RULE_UPDATED:
+                    completeWaiting(key);
+                    break;
+                case RULE_REMOVED:
+                    forget(key);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private class InternalGroupListener implements GroupListener {
+        @Override
+        public void event(GroupEvent event) {
+            Group group = event.subject();
+            if (!appId.equals(group.appId())) {
+                return;
+            }
+            Key key = new Key(Kind.GROUP, group.deviceId(), group.appCookie());
+            switch (event.type()) {
+                case GROUP_ADDED:
+                case GROUP_UPDATED:
+                    /* GROUP_UPDATED confirms a setBucketsForGroup(). */
+                    confirm(key);
+                    break;
+                case GROUP_REMOVED:
+                    forget(key);
+                    confirm(new Key(Kind.GROUP_REMOVED, group.deviceId(), group.appCookie()));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private class InternalFlowTableListener implements FlowTableListener {
+        @Override
+        public void event(FlowTableEvent event) {
+            FlowTable table = event.subject();
+            /* the tables of other apps are only kept until CONFIRMED_TTL_MS. */
+            Key key = new Key(Kind.TABLE, table.deviceId(), table.id().value());
+            switch (event.type()) {
+                case TABLE_ADDED:
+                    confirm(key);
+                    break;
+                case TABLE_UPDATED:
+                    completeWaiting(key);
+                    break;
+                case TABLE_REMOVED:
+                    forget(key);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private enum Kind {
+        FLOW_RULE, GROUP, GROUP_REMOVED, TABLE
+    }
+
+    private static final class Key {
+        private final Kind kind;
+        private final DeviceId deviceId;
+        private final Object id;
+
+        private Key(Kind kind, DeviceId deviceId, Object id) {
+            this.kind = kind;
+            this.deviceId = deviceId;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return kind == that.kind && Objects.equals(deviceId, that.deviceId) && Objects.equals(id, that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, deviceId, id);
+        }
+
+        @Override
+        public String toString() {
+            return kind + "<" + deviceId + ", " + id + ">";
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a pcap or pcapng capture of the sink mirror port through an IntCollector and its
+ * handlers, without switches, to measure the collector: packets/s, the latency of each
+ * stage per packet and the bytes allocated.
+ *
+ * The capture is memory-mapped in windows of MAP_BYTES and each packet is passed to
+ * IntCollector.receive() as a view of the mapping, with its capture time in ms. The
+ * collector is not started: after each packet the replay thread drains its hops to the
+ * handlers, so the three stages run on one thread and are timed apart.
+ * - read: next packet header, and the wait of a scaled real-time replay.
+ * - decode: IntCollector.receive(), the INT header and hop stack into the ring.
+ * - analysis: IntCollector.drain(), the handlers.
+ *
+ * e.g. java -cp ... org.onosproject.test.action.IntCaptureReplay sink.pcapng 0
+ */
+public class IntCaptureReplay {
+
+    /* bytes of the capture mapped at once, a packet never spans two windows. */
+    static final long MAP_BYTES = 256L * 1024 * 1024;
+
+    private static final int PCAP_MAGIC_US = 0xa1b2c3d4;
+    private static final int PCAP_MAGIC_NS = 0xa1b23c4d;
+    private static final int PCAP_HEADER_BYTES = 24;
+    private static final int PCAP_RECORD_BYTES = 16;
+
+    private static final int PCAPNG_SHB = 0x0a0d0d0a;
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    private static final int PCAPNG_IDB = 1;
+    private static final int PCAPNG_SPB = 3;
+    private static final int PCAPNG_EPB = 6;
+    private static final int PCAPNG_IF_TSRESOL = 9;
+    private static final int PCAPNG_MAX_INTERFACES = 64;
+
+    private static final int LINKTYPE_ETHERNET = 1;
+
+    private final IntCollector collector;
+
+    /* per replay(), so that a Result covers only its own capture */
+    private LatencyHistogram read;
+    private LatencyHistogram decode;
+    private LatencyHistogram analysis;
+
+    private FileChannel channel;
+    private long fileSize;
+    /* the mapped window, in the byte order of the capture, and the same bytes big-endian for the collector */
+    private long mapStart;
+    private ByteBuffer header;
+    private ByteBuffer packet;
+
+    /* pcapng: ns per timestamp unit of each interface, 0 if not Ethernet */
+    private final long[] tsUnitNs = new long[PCAPNG_MAX_INTERFACES];
+    private int interfaces;
+
+    private double speed;
+    private long firstTimeNs = -1;
+    private long lastTimeNs;
+    private long startNanos;
+    private long last;
+
+    private long packets;
+    private long intPackets;
+    private long hops;
+    private long bytes;
+    private long skipped;
+
+    public IntCaptureReplay(IntCollector collector) {
+        this.collector = collector;
+    }
+
+    /**
+     * @param capture a pcap or pcapng file
+     * @param speed 0 for as fast as possible, otherwise the capture timestamps divided by 'speed',
+     *              e.g. 1 at the pace of the capture, 10 ten times faster
+     * @return the result of this replay
+     * @throws IOException if the capture cannot be read or is not pcap or pcapng
+     */
+    public synchronized Result replay(Path capture, double speed) throws IOException {
+        this.speed = speed;
+        firstTimeNs = -1;
+        lastTimeNs = 0;
+        packets = intPackets = hops = bytes = skipped = 0;
+        interfaces = 0;
+        read = new LatencyHistogram();
+        decode = new LatencyHistogram();
+        analysis = new LatencyHistogram();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = allocatedBytes(threads);
+        try (FileChannel ch = FileChannel.open(capture, StandardOpenOption.READ)) {
+            channel = ch;
+            fileSize = ch.size();
+            map(0);
+            if (fileSize < 4) {
+                throw new IOException(capture + ": not a pcap or pcapng capture");
+            }
+            int magic = header.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            startNanos = System.nanoTime();
+            last = startNanos;
+            if (magic == PCAPNG_SHB) {
+                replayPcapng();
+            } else {
+                replayPcap(capture);
+            }
+        } finally {
+            channel = null;
+            header = null;
+            packet = null;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        long after = allocatedBytes(threads);
+        return new Result(packets, intPackets, hops, bytes, skipped, elapsed,
+                          read.snapshot(), decode.snapshot(), analysis.snapshot(),
+                          allocated < 0 || after < 0 ? -1 : after - allocated);
+    }
+
+    /*
+     * bytes allocated by this thread, -1 if the JVM does not count them. The counter is the
+     * HotSpot com.sun.management.ThreadMXBean, looked up through the interface it extends.
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /* maps the window starting at 'offset' of the file. */
+    private void map(long offset) throws IOException {
+        ByteOrder order = header == null ? ByteOrder.BIG_ENDIAN : header.order();
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                              Math.min(MAP_BYTES, fileSize - offset));
+        mapStart = offset;
+        header = mapped.duplicate().order(order);
+        packet = mapped.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /* the window offset of [offset, offset + length) of the file, mapped if needed; -1 past the end. */
+    private int window(long offset, long length) throws IOException {
+        if (offset + length > fileSize) {
+            return -1;
+        }
+        if (offset < mapStart || offset + length > mapStart + header.capacity()) {
+            if (length > MAP_BYTES) {
+                throw new IOException("block of " + length + " bytes at " + offset + " larger than the mapping");
+            }
+            map(offset);
+        }
+        return (int) (offset - mapStart);
+    }
+
+    private void replayPcap(Path capture) throws IOException {
+        int magic = header.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (magic != PCAP_MAGIC_US && magic != PCAP_MAGIC_NS) {
+            header.order(ByteOrder.BIG_ENDIAN);
+            magic = header.getInt(0);
+        }
+        if (magic != PCAP_MAGIC_US && magic != PCAP_MAGIC_NS) {
+            throw new IOException(capture + ": not a pcap or pcapng capture");
+        }
+        long unitNs = magic == PCAP_MAGIC_NS ? 1 : 1000;
+        if (window(0, PCAP_HEADER_BYTES) < 0 || header.getInt(20) != LINKTYPE_ETHERNET) {
+            throw new IOException(capture + ": not an Ethernet pcap capture");
+        }
+
+        long offset = PCAP_HEADER_BYTES;
+        while (true) {
+            int record = window(offset, PCAP_RECORD_BYTES);
+            if (record < 0) {
+                break;
+            }
+            long timeNs = (header.getInt(record) & 0xffffffffL) * 1000000000L
+                    + (header.getInt(record + 4) & 0xffffffffL) * unitNs;
+            int length = header.getInt(record + 8);
+            if (length < 0) {
+                throw new IOException("pcap record of " + (length & 0xffffffffL) + " bytes at " + offset);
+            }
+            int data = window(offset + PCAP_RECORD_BYTES, length);
+            if (data < 0) {
+                break;
+            }
+            receive(data, length, timeNs);
+            offset += PCAP_RECORD_BYTES + length;
+        }
+    }
+
+    private void replayPcapng() throws IOException {
+        long offset = 0;
+        while (true) {
+            int block = window(offset, 12);
+            if (block < 0) {
+                break;
+            }
+            int type = header.getInt(block);
+            if (type == PCAPNG_SHB) {
+                /* a section sets the byte order of its blocks, and has its own interfaces. */
+                int magic = header.order(ByteOrder.BIG_ENDIAN).getInt(block + 8);
+                header.order(magic == PCAPNG_BYTE_ORDER_MAGIC ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                interfaces = 0;
+            }
+            long length = header.getInt(block + 4) & 0xffffffffL;
+            if (length < 12 || (length & 3) != 0) {
+                throw new IOException("pcapng block of " + length + " bytes at " + offset);
+            }
+            block = window(offset, length);
+            if (block < 0) {
+                break;
+            }
+            switch (type) {
+                case PCAPNG_IDB:
+                    addInterface(block, (int) length);
+                    break;
+                case PCAPNG_EPB: {
+                    int id = header.getInt(block + 8);
+                    long unit = id >= 0 && id < interfaces ? tsUnitNs[id] : 0;
+                    int captured = header.getInt(block + 20);
+                    if (unit == 0 || captured < 0 || 28 + captured > length) {
+                        skipped++;
+                        break;
+                    }
+                    long ts = (header.getInt(block + 12) & 0xffffffffL) << 32 | (header.getInt(block + 16) & 0xffffffffL);
+                    receive(block + 28, captured, ts * unit);
+                    break;
+                }
+                case PCAPNG_SPB: {
+                    /* no timestamp, nor interface: the first one, at the time of the previous packet. */
+                    int captured = (int) Math.min(header.getInt(block + 8) & 0xffffffffL, length - 16);
+                    if (interfaces == 0 || tsUnitNs[0] == 0) {
+                        skipped++;
+                        break;
+                    }
+                    receive(block + 12, captured, lastTimeNs);
+                    break;
+                }
+                default:
+                    break;
+            }
+            offset += length;
+        }
+    }
+
+    private void addInterface(int block, int length) {
+        if (interfaces == PCAPNG_MAX_INTERFACES) {
+            return;
+        }
+        int linkType = header.getShort(block + 8) & 0xffff;
+        long unitNs = 1000;
+        /* options: code(2), length(2), value padded to 4 bytes, until opt_endofopt or the block end. */
+        for (int option = block + 16; option + 4 <= block + length - 4; ) {
+            int code = header.getShort(option) & 0xffff;
+            int optionLength = header.getShort(option + 2) & 0xffff;
+            if (code == 0) {
+                break;
+            }
+            if (code == PCAPNG_IF_TSRESOL && optionLength >= 1) {
+                int resolution = header.get(option + 4) & 0xff;
+                unitNs = tsUnit(resolution);
+            }
+            option += 4 + ((optionLength + 3) & ~3);
+        }
+        tsUnitNs[interfaces++] = linkType == LINKTYPE_ETHERNET ? unitNs : 0;
+    }
+
+    /* ns of the if_tsresol unit, 10^-n or 2^-n s; units finer than 1 ns are taken as 1 ns. */
+    private static long tsUnit(int resolution) {
+        int exponent = resolution & 0x7f;
+        if ((resolution & 0x80) != 0) {
+            return exponent >= 30 ? 1 : Math.max(1, 1000000000L >> exponent);
+        }
+        long unit = 1000000000L;
+        for (int i = 0; i < exponent && unit > 1; i++) {
+            unit /= 10;
+        }
+        return unit;
+    }
+
+    /* one packet at 'data' of the window, 'length' bytes captured at 'timeNs'. */
+    private void receive(int data, int length, long timeNs) {
+        if (firstTimeNs < 0) {
+            firstTimeNs = timeNs;
+        }
+        lastTimeNs = timeNs;
+        if (speed > 0) {
+            long due = startNanos + (long) ((timeNs - firstTimeNs) / speed);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        packet.limit(packet.capacity());
+        packet.position(data);
+        packet.limit(data + length);
+
+        long t0 = System.nanoTime();
+        int n = collector.receive(packet, TimeUnit.NANOSECONDS.toMillis(timeNs));
+        long t1 = System.nanoTime();
+        while (collector.drain(Integer.MAX_VALUE) > 0) {
+            /* all the hops of this packet. */
+        }
+        long t2 = System.nanoTime();
+
+        read.record(t0 - last);
+        decode.record(t1 - t0);
+        analysis.record(t2 - t1);
+        last = t2;
+        packets++;
+        bytes += length;
+        if (n >= 0) {
+            intPackets++;
+            hops += n;
+        }
+    }
+
+    /**
+     * packets and stages of one replay, the latencies in ns.
+     */
+    public static final class Result {
+        private final long packets;
+        private final long intPackets;
+        private final long hops;
+        private final long bytes;
+        private final long skipped;
+        private final long elapsedNs;
+        private final LatencyHistogram.Snapshot read;
+        private final LatencyHistogram.Snapshot decode;
+        private final LatencyHistogram.Snapshot analysis;
+        private final long allocatedBytes;
+
+        private Result(long packets, long intPackets, long hops, long bytes, long skipped, long elapsedNs,
+                       LatencyHistogram.Snapshot read, LatencyHistogram.Snapshot decode,
+                       LatencyHistogram.Snapshot analysis, long allocatedBytes) {
+            this.packets = packets;
+            this.intPackets = intPackets;
+            this.hops = hops;
+            this.bytes = bytes;
+            this.skipped = skipped;
+            this.elapsedNs = elapsedNs;
+            this.read = read;
+            this.decode = decode;
+            this.analysis = analysis;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long packets() {
+            return packets;
+        }
+
+        public long intPackets() {
+            return intPackets;
+        }
+
+        public long hops() {
+            return hops;
+        }
+
+        /* packets skipped, e.g. not Ethernet or without timestamp. */
+        public long skipped() {
+            return skipped;
+        }
+
+        public double packetsPerSecond() {
+            return elapsedNs == 0 ? 0 : packets * 1e9 / elapsedNs;
+        }
+
+        public LatencyHistogram.Snapshot read() {
+            return read;
+        }
+
+        public LatencyHistogram.Snapshot decode() {
+            return decode;
+        }
+
+        public LatencyHistogram.Snapshot analysis() {
+            return analysis;
+        }
+
+        /* bytes allocated by the replay thread, -1 if the JVM does not count them. */
+        public long allocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNs / 1e9;
+            return String.format("replay: %d packets (%d INT, %d hops, %d skipped), %d bytes in %.3f s, %.0f packets/s",
+                                 packets, intPackets, hops, skipped, bytes, seconds, packetsPerSecond())
+                    + "\n  read ns: " + read
+                    + "\n  decode ns: " + decode
+                    + "\n  analysis ns: " + analysis
+                    + (allocatedBytes < 0 ? "\n  allocation: not counted by this JVM"
+                            : String.format("%n  allocation: %d bytes, %.1f bytes/packet, %.0f bytes/s",
+                                            allocatedBytes, packets == 0 ? 0.0 : (double) allocatedBytes / packets,
+                                            seconds == 0 ? 0.0 : allocatedBytes / seconds));
+        }
+    }
+
+    /**
+     * replays a capture through a collector with the handlers of AppComponent.
+     * args: capture [speed [paths]], speed 0 (default) for as fast as possible, paths the
+     * provisioned paths for the path monitor, hex dpids from source to sink, e.g. "1,2,3,5,6;1,2,4,5,6".
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: IntCaptureReplay <capture.pcap|capture.pcapng> [speed [paths]]");
+            System.exit(2);
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        IntHopStore hopStore = new IntHopStore(IntHeaderLayout.of(AppComponent.INT_HOP_STORE_MAPINFO), 262144);
+        IntLatencyStats latencyStats = new IntLatencyStats(AppComponent.INT_MAX_HOPS, AppComponent.INT_MAX_PATHS);
+        IntPathMonitor pathMonitor = new IntPathMonitor(AppComponent.INT_DEVIATION_WINDOW_MS,
+                AppComponent.INT_DEVIATION_PACKETS, AppComponent.INT_DEVIATION_RATIO, AppComponent.INT_MAX_FLOWS,
+                e -> System.out.println(e));
+        if (args.length > 2) {
+            List<long[]> paths = new ArrayList<>();
+            for (String path : args[2].split(";")) {
+                paths.add(Arrays.stream(path.split(",")).mapToLong(dpid -> Long.parseLong(dpid.trim(), 16)).toArray());
+            }
+            pathMonitor.setPaths(paths);
+        }
+        IntCollector collector = new IntCollector(65536).addHandler(hopStore).addHandler(latencyStats)
+                .addHandler(pathMonitor);
+
+        Result result = new IntCaptureReplay(collector).replay(Paths.get(args[0]), speed);
+        System.out.println(result);
+        System.out.println(collector);
+        System.out.println(hopStore);
+        System.out.println(latencyStats.report());
+        System.out.println(pathMonitor);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * In-controller INT collector: decodes the INT packets mirrored by the sink, i.e. sent to
+ * the controller port instead of an external collector, and publishes their hops to an
+ * IntRecordRing. One thread drains the ring to the handlers added with addHandler().
+ *
+ * The INT header and the hop stack are read with the absolute gets of the inbound
+ * ByteBuffer at the IntHeaderLayout offsets, no Ethernet or hop object is built.
+ * receive() takes the packets of a local interface or a capture the same way.
+ */
+public class IntCollector implements PacketProcessor {
+
+    public static final int INT_TYPE = 0x0908;
+
+    /* records drained per ring.drain(), and the wait when the ring is empty. */
+    private static final int DRAIN_BATCH = 1024;
+    private static final long IDLE_PARK_NS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final IntRecordRing ring;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            groupedThreads("onos/int-test", "int-collector-%d", log));
+
+    private volatile IntRecordRing.HopHandler[] handlers = new IntRecordRing.HopHandler[0];
+    private final IntRecordRing.HopHandler dispatcher = this::dispatch;
+    private volatile boolean running;
+    /* set with TEST_PATH_FUNCTION, the hops then carry their proof after the dpid */
+    private volatile IntPathVerifier verifier;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder intPackets = new LongAdder();
+    private final LongAdder hops = new LongAdder();
+
+    /* @param ringSize hop records buffered between the packet threads and the drain thread */
+    public IntCollector(int ringSize) {
+        this.ring = new IntRecordRing(ringSize);
+    }
+
+    public IntRecordRing ring() {
+        return ring;
+    }
+
+    /* called on the drain thread for every hop, must not block. */
+    public synchronized IntCollector addHandler(IntRecordRing.HopHandler handler) {
+        IntRecordRing.HopHandler[] more = Arrays.copyOf(handlers, handlers.length + 1);
+        more[handlers.length] = handler;
+        handlers = more;
+        return this;
+    }
+
+    public synchronized void removeHandler(IntRecordRing.HopHandler handler) {
+        handlers = Arrays.stream(handlers).filter(h -> h != handler).toArray(IntRecordRing.HopHandler[]::new);
+    }
+
+    /* null for packets without the path proof. */
+    public void setVerifier(IntPathVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    public IntPathVerifier verifier() {
+        return verifier;
+    }
+
+    public void start() {
+        running = true;
+        executor.execute(this::drainLoop);
+        log.info("INT collector started, ring of {} hops.", ring.capacity());
+    }
+
+    public void stop() {
+        running = false;
+        executor.shutdownNow();
+        log.info("{}", this);
+    }
+
+    @Override
+    public void process(PacketContext context) {
+        if (context.isHandled()) {
+            return;
+        }
+        if (receive(context.inPacket().unparsed(), context.time()) >= 0) {
+            context.block();
+        }
+    }
+
+    /**
+     * decodes one packet from buf.position(), without moving it.
+     *
+     * @param time receive time, in ms
+     * @return hops published, -1 if it is not an INT packet
+     */
+    public int receive(ByteBuffer buf, long time) {
+        packets.increment();
+        int base = buf.position();
+        int length = buf.remaining();
+        if (length < IntHeaderLayout.INT_DATA_BASE_BYTES
+                || (buf.getShort(base + IntHeaderLayout.INT_HEADER_BASE_BYTES) & 0xffff) != INT_TYPE) {
+            return -1;
+        }
+        intPackets.increment();
+
+        int ttl = buf.get(base + IntHeaderLayout.INT_HEADER_BASE_BYTES + 2) & 0xff;
+        int mapInfo = buf.get(base + IntHeaderLayout.INT_HEADER_BASE_BYTES + 3) & 0xff;
+        IntHeaderLayout layout = IntHeaderLayout.of(mapInfo);
+        IntPathVerifier current = verifier;
+        int proof = 0;
+        if (current != null && layout.has(IntHeaderLayout.Field.DPID)) {
+            current.verify(buf);
+            proof = IntPathVerifier.PROOF_BYTES;
+        }
+        /* INT-TTL counts the hops, the payload may follow the stack. */
+        int stride = layout.recordBytes() + proof;
+        int n = stride == 0 ? 0 : Math.min(ttl, (length - IntHeaderLayout.INT_DATA_BASE_BYTES) / stride);
+        if (n == 0) {
+            return 0;
+        }
+        long seq = ring.claim(n);
+        if (seq < 0) {
+            return 0;
+        }
+        int srcIp = buf.getInt(base + IntHeaderLayout.IPV4_SRC_OFF / 8);
+        int dstIp = buf.getInt(base + IntHeaderLayout.IPV4_DST_OFF / 8);
+        for (int hop = 0; hop < n; hop++) {
+            int record = base + IntHeaderLayout.INT_DATA_BASE_BYTES + hop * stride;
+            /* the proof byte sits between the dpid and the other fields. */
+            int rest = record + proof;
+            ring.put(seq + hop, time, srcIp, dstIp, mapInfo, hop, n,
+                     layout.read(buf, record, IntHeaderLayout.Field.DPID),
+                     (int) layout.read(buf, rest, IntHeaderLayout.Field.IN_PORT),
+                     (int) layout.read(buf, rest, IntHeaderLayout.Field.OUT_PORT),
+                     layout.read(buf, rest, IntHeaderLayout.Field.INGRESS_TIME),
+                     (int) layout.read(buf, rest, IntHeaderLayout.Field.HOP_LATENCY),
+                     layout.read(buf, rest, IntHeaderLayout.Field.BANDWIDTH));
+        }
+        hops.add(n);
+        return n;
+    }
+
+    /* drains up to 'max' hops to the handlers on the calling thread, for a collector not started, e.g. a replay. */
+    public int drain(int max) {
+        return ring.drain(dispatcher, max);
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (ring.drain(dispatcher, DRAIN_BATCH) == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+    }
+
+    private void dispatch(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                          long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        IntRecordRing.HopHandler[] current = handlers;
+        for (IntRecordRing.HopHandler handler : current) {
+            try {
+                handler.hop(time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                            ingressTime, hopLatency, bandwidth);
+            } catch (RuntimeException e) {
+                /* the record is not replayed, the other handlers still get it. */
+                log.warn("INT collector: handler failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "INT collector: " + packets.sum() + " packets, " + intPackets.sum() + " INT packets, "
+                + hops.sum() + " hops, " + ring;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire layout of the INT header and of the per-hop INT data selected by 'mapInfo'.
+ *
+ * The INT header follows the ethernet and ipv4 headers:
+ * int_type(2B) | int_ttl(1B) | mapInfo(1B) | hop 1 data | hop 2 data | ...
+ * Each hop adds the fields whose bit is set in mapInfo, in bit order:
+ * 0b'00 00 00 00 = x | x | bandwidth | hop_latency || ingress_time | out_port | in_port | dpid.
+ *
+ * The layouts of the 256 mapInfo values are computed once. Offsets are in bytes from the
+ * start of a hop record, the *_OFF constants are in bits from the start of the packet,
+ * as the POF match fields and actions take them.
+ */
+public final class IntHeaderLayout {
+
+    /**
+     * a field of the per-hop INT data, 'bit' is its bit in mapInfo.
+     */
+    public enum Field {
+        DPID(0, 4),
+        IN_PORT(1, 1),
+        OUT_PORT(2, 1),
+        INGRESS_TIME(3, 8),
+        HOP_LATENCY(4, 2),
+        BANDWIDTH(5, 4);
+
+        private final int bit;
+        private final int bytes;
+
+        Field(int bit, int bytes) {
+            this.bit = bit;
+            this.bytes = bytes;
+        }
+
+        public int bit() {
+            return bit;
+        }
+
+        public int bytes() {
+            return bytes;
+        }
+
+        /* length in bits, e.g. for add_field. */
+        public short bits() {
+            return (short) (bytes * 8);
+        }
+    }
+
+    /* in bytes */
+    public static final int ETH_HEADER_BYTES = 14;
+    public static final int IPV4_HEADER_BYTES = 20;
+    public static final int INT_HEADER_BYTES = 4;
+    public static final int INT_HEADER_BASE_BYTES = ETH_HEADER_BYTES + IPV4_HEADER_BYTES;   // 34
+    public static final int INT_DATA_BASE_BYTES = INT_HEADER_BASE_BYTES + INT_HEADER_BYTES;  // 38
+
+    /* in bits from the start of the packet */
+    public static final short IPV4_SRC_OFF = (ETH_HEADER_BYTES + 12) * 8;     // 208
+    public static final short IPV4_DST_OFF = (ETH_HEADER_BYTES + 16) * 8;     // 240
+    public static final short IPV4_ADDR_LEN = 4 * 8;
+    public static final short INT_HEADER_BASE = INT_HEADER_BASE_BYTES * 8;    // 272
+    public static final short INT_HEADER_LEN = INT_HEADER_BYTES * 8;
+    public static final short INT_HEADER_TYPE_OFF = INT_HEADER_BASE;
+    public static final short INT_HEADER_TYPE_LEN = 2 * 8;
+    public static final short INT_HEADER_TTL_OFF = (INT_HEADER_BASE_BYTES + 2) * 8;
+    public static final short INT_HEADER_TTL_LEN = 8;
+    public static final short INT_HEADER_MAPINFO_OFF = (INT_HEADER_BASE_BYTES + 3) * 8;
+    public static final short INT_HEADER_MAPINFO_LEN = 8;
+    public static final short INT_HEADER_DATA_OFF = INT_DATA_BASE_BYTES * 8;  // 304
+
+    private static final Field[] FIELDS = Field.values();
+    private static final IntHeaderLayout[] LAYOUTS = new IntHeaderLayout[256];
+
+    static {
+        for (int mapInfo = 0; mapInfo < LAYOUTS.length; mapInfo++) {
+            LAYOUTS[mapInfo] = new IntHeaderLayout(mapInfo);
+        }
+    }
+
+    private final int mapInfo;
+    private final int recordBytes;
+    /* Field.ordinal() -> offset in the hop record, -1 if not in mapInfo */
+    private final int[] offsets = new int[FIELDS.length];
+    /* Field.ordinal() -> byte i of the field is shifted left by shifts[f][i] */
+    private final int[][] shifts = new int[FIELDS.length][];
+    private final long[] masks = new long[FIELDS.length];
+
+    private IntHeaderLayout(int mapInfo) {
+        this.mapInfo = mapInfo;
+        int offset = 0;
+        for (Field field : FIELDS) {
+            int f = field.ordinal();
+            if ((mapInfo & (1 << field.bit)) == 0) {
+                offsets[f] = -1;
+                continue;
+            }
+            offsets[f] = offset;
+            offset += field.bytes;
+            shifts[f] = new int[field.bytes];
+            for (int i = 0; i < field.bytes; i++) {
+                shifts[f][i] = 8 * (field.bytes - 1 - i);
+            }
+            masks[f] = field.bytes == 8 ? -1L : (1L << (8 * field.bytes)) - 1;
+        }
+        this.recordBytes = offset;
+    }
+
+    /* @param mapInfo 0x00..0xff, e.g. 0x3f for all fields */
+    public static IntHeaderLayout of(int mapInfo) {
+        return LAYOUTS[mapInfo & 0xff];
+    }
+
+    /* e.g. "3f" */
+    public static IntHeaderLayout of(String mapInfo) {
+        return of((int) HexCodec.toLong(mapInfo));
+    }
+
+    public int mapInfo() {
+        return mapInfo;
+    }
+
+    public boolean has(Field field) {
+        return offsets[field.ordinal()] >= 0;
+    }
+
+    /* bytes one hop adds. */
+    public int recordBytes() {
+        return recordBytes;
+    }
+
+    /* bits one hop adds, e.g. the length of add_int_field. */
+    public short recordBits() {
+        return (short) (recordBytes * 8);
+    }
+
+    /* offset of 'field' in a hop record in bytes, -1 if not in mapInfo. */
+    public int offset(Field field) {
+        return offsets[field.ordinal()];
+    }
+
+    /* offset of the record of hop 'hop' (from 0) in bytes from the start of the packet. */
+    public int recordOffset(int hop) {
+        return INT_DATA_BASE_BYTES + hop * recordBytes;
+    }
+
+    /* offset of 'field' of hop 'hop' in bits from the start of the packet, -1 if not in mapInfo. */
+    public short fieldOff(int hop, Field field) {
+        int offset = offsets[field.ordinal()];
+        return offset < 0 ? -1 : (short) ((recordOffset(hop) + offset) * 8);
+    }
+
+    /**
+     * @param record offset of the hop record in 'buf', e.g. recordOffset(hop) for a whole packet
+     * @return the unsigned value of 'field', big-endian
+     * @throws IllegalArgumentException if 'field' is not in mapInfo
+     */
+    public long read(byte[] buf, int record, Field field) {
+        int f = field.ordinal();
+        int offset = offsets[f];
+        if (offset < 0) {
+            throw new IllegalArgumentException(field + " not in mapInfo " + HexCodec.toHex((byte) mapInfo));
+        }
+        int[] shift = shifts[f];
+        long value = 0;
+        for (int i = 0; i < shift.length; i++) {
+            value |= (buf[record + offset + i] & 0xffL) << shift[i];
+        }
+        return value & masks[f];
+    }
+
+    /**
+     * read(byte[], int, Field) with the absolute gets of 'buf', which must be big-endian,
+     * so that a packet is decoded without copying it. A field not in mapInfo is -1, not an exception.
+     *
+     * @param record offset of the hop record in 'buf'
+     * @return the unsigned value of 'field', -1 if 'field' is not in mapInfo
+     */
+    public long read(ByteBuffer buf, int record, Field field) {
+        int offset = offsets[field.ordinal()];
+        if (offset < 0) {
+            return -1;
+        }
+        int index = record + offset;
+        switch (field.bytes) {
+            case 1:
+                return buf.get(index) & 0xffL;
+            case 2:
+                return buf.getShort(index) & 0xffffL;
+            case 4:
+                return buf.getInt(index) & 0xffffffffL;
+            default:
+                return buf.getLong(index);
+        }
+    }
+
+    /* hops in a packet of 'length' bytes, from the INT data length. */
+    public int hops(int length) {
+        return recordBytes == 0 ? 0 : Math.max(0, length - INT_DATA_BASE_BYTES) / recordBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "mapInfo<" + HexCodec.toHex((byte) mapInfo) + ">: " + recordBytes + " bytes per hop";
+    }
+}
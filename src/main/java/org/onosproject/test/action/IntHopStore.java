@@ -0,0 +1,338 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last 'capacity' INT hop records, off-heap: one direct ByteBuffer column per INT
+ * field of the mapInfo layout, plus time, srcIp, dstIp, mapInfo, hop and hops. A field
+ * not in the layout has no column, so 0x01 keeps 4 bytes of INT data per hop, 0x3f 20.
+ *
+ * One producer, the collector drain thread, appends through hop(). Any number of
+ * consumers read by sequence, each through its own Cursor. As IntRecordRing.claim() does
+ * with its head, hop() never overwrites a record a cursor has not read yet: when the
+ * slowest cursor is 'capacity' records behind, the record is dropped and counted. Without
+ * cursors the oldest record is overwritten. Reads pass the record to a HopHandler, so
+ * neither reads nor scans allocate.
+ *
+ * Times are kept nondecreasing, an earlier time is stored as the previous one, so
+ * that scan() finds a time range by binary search.
+ */
+public class IntHopStore implements IntRecordRing.HopHandler {
+
+    private static final IntHeaderLayout.Field[] FIELDS = IntHeaderLayout.Field.values();
+    private static final Cursor[] NO_CURSORS = new Cursor[0];
+
+    private final IntHeaderLayout layout;
+    private final int capacity;
+    private final int mask;
+
+    private final ByteBuffer time;
+    private final ByteBuffer srcIp;
+    private final ByteBuffer dstIp;
+    private final ByteBuffer mapInfo;
+    private final ByteBuffer hop;
+    private final ByteBuffer hops;
+    /* Field.ordinal() -> column, null if not in the layout */
+    private final ByteBuffer[] fields = new ByteBuffer[FIELDS.length];
+
+    /* the records before 'end' are readable, set after each record */
+    private final AtomicLong end = new AtomicLong();
+    /* the open cursors, copied on open and close so that hop() reads them without allocating */
+    private volatile Cursor[] cursors = NO_CURSORS;
+    private final AtomicLong dropped = new AtomicLong();
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * the read position of one consumer, from open() to close(). The store keeps the
+     * records from position() on, so a consumer reads regularly or closes its cursor.
+     */
+    public final class Cursor implements AutoCloseable {
+
+        /* next sequence to read, by the consumer */
+        private final AtomicLong next;
+
+        private Cursor(long next) {
+            this.next = new AtomicLong(next);
+        }
+
+        public long position() {
+            return next.get();
+        }
+
+        /* records appended but not read through this cursor yet. */
+        public long lag() {
+            return end.get() - next.get();
+        }
+
+        @Override
+        public void close() {
+            remove(this);
+        }
+    }
+
+    /**
+     * @param layout the INT fields kept, e.g. IntHeaderLayout.of(0x3f) for all of them
+     * @param capacity hop records kept, rounded up to a power of 2
+     */
+    public IntHopStore(IntHeaderLayout layout, int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("store capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.layout = layout;
+        this.capacity = size;
+        this.mask = size - 1;
+        time = column(8);
+        srcIp = column(4);
+        dstIp = column(4);
+        mapInfo = column(1);
+        hop = column(1);
+        hops = column(1);
+        for (IntHeaderLayout.Field field : FIELDS) {
+            if (layout.has(field)) {
+                fields[field.ordinal()] = column(field.bytes());
+            }
+        }
+    }
+
+    private ByteBuffer column(int bytes) {
+        return ByteBuffer.allocateDirect(capacity * bytes).order(ByteOrder.nativeOrder());
+    }
+
+    public IntHeaderLayout layout() {
+        return layout;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /* off-heap bytes per record. */
+    public int recordBytes() {
+        return 8 + 4 + 4 + 1 + 1 + 1 + layout.recordBytes();
+    }
+
+    /**
+     * opens a cursor at the oldest record kept. hop() waits for nothing, the records
+     * it drops while the cursor lags are counted in dropped().
+     */
+    public Cursor open() {
+        Cursor cursor = new Cursor(first());
+        synchronized (this) {
+            Cursor[] more = Arrays.copyOf(cursors, cursors.length + 1);
+            more[more.length - 1] = cursor;
+            cursors = more;
+        }
+        /*
+         * hop() may have checked the cursors before this one was added, it may then be
+         * overwriting first() at most, a cursor starting past it is not overwritten.
+         */
+        cursor.next.set(Math.max(cursor.next.get(), first()));
+        return cursor;
+    }
+
+    private synchronized void remove(Cursor cursor) {
+        for (int i = 0; i < cursors.length; i++) {
+            if (cursors[i] == cursor) {
+                Cursor[] fewer = new Cursor[cursors.length - 1];
+                System.arraycopy(cursors, 0, fewer, 0, i);
+                System.arraycopy(cursors, i + 1, fewer, i, fewer.length - i);
+                cursors = fewer;
+                return;
+            }
+        }
+    }
+
+    /* appends one record, single producer. Fields not in the layout are not kept. */
+    @Override
+    public void hop(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                    long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        long seq = end.get();
+        /* the slot of 'seq' holds record seq - capacity, kept while a cursor has not read it. */
+        long overwritten = seq - capacity;
+        if (overwritten >= 0) {
+            for (Cursor cursor : cursors) {
+                if (cursor.next.get() <= overwritten) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+        }
+        int slot = slot(seq);
+        lastTime = Math.max(lastTime, time);
+        this.time.putLong(slot * 8, lastTime);
+        this.srcIp.putInt(slot * 4, srcIp);
+        this.dstIp.putInt(slot * 4, dstIp);
+        this.mapInfo.put(slot, (byte) mapInfo);
+        this.hop.put(slot, (byte) hop);
+        this.hops.put(slot, (byte) hops);
+        put(IntHeaderLayout.Field.DPID, slot, dpid);
+        put(IntHeaderLayout.Field.IN_PORT, slot, inPort);
+        put(IntHeaderLayout.Field.OUT_PORT, slot, outPort);
+        put(IntHeaderLayout.Field.INGRESS_TIME, slot, ingressTime);
+        put(IntHeaderLayout.Field.HOP_LATENCY, slot, hopLatency);
+        put(IntHeaderLayout.Field.BANDWIDTH, slot, bandwidth);
+        /*
+         * a volatile set, not lazySet(): the cursors of the next hop() are read after it,
+         * and open() reads it after adding its cursor, so one of the two sees the other.
+         */
+        end.set(seq + 1);
+    }
+
+    private void put(IntHeaderLayout.Field field, int slot, long value) {
+        ByteBuffer column = fields[field.ordinal()];
+        if (column == null) {
+            return;
+        }
+        switch (field.bytes()) {
+            case 1:
+                column.put(slot, (byte) value);
+                break;
+            case 2:
+                column.putShort(slot * 2, (short) value);
+                break;
+            case 4:
+                column.putInt(slot * 4, (int) value);
+                break;
+            default:
+                column.putLong(slot * 8, value);
+                break;
+        }
+    }
+
+    /* the oldest sequence a new cursor starts at, the next hop() may overwrite the one before. */
+    public long first() {
+        return Math.max(0, end.get() - capacity + 1);
+    }
+
+    /* the next sequence to append, i.e. one past the newest record. */
+    public long end() {
+        return end.get();
+    }
+
+    /* records not appended because a cursor was 'capacity' records behind. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    private long time(long seq) {
+        return time.getLong(slot(seq) * 8);
+    }
+
+    /* the unsigned value of 'field' of the record in 'slot', -1 if it is not in the layout or not in the packet. */
+    private long get(int slot, IntHeaderLayout.Field field) {
+        ByteBuffer column = fields[field.ordinal()];
+        if (column == null || (mapInfo.get(slot) & (1 << field.bit())) == 0) {
+            return -1;
+        }
+        switch (field.bytes()) {
+            case 1:
+                return column.get(slot) & 0xffL;
+            case 2:
+                return column.getShort(slot * 2) & 0xffffL;
+            case 4:
+                return column.getInt(slot * 4) & 0xffffffffL;
+            default:
+                return column.getLong(slot * 8);
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) (seq & mask);
+    }
+
+    /**
+     * passes the records from the position of 'cursor' to 'handler', at most 'max' of them,
+     * then moves the cursor past them. One thread reads through a cursor at a time.
+     *
+     * @return records passed
+     */
+    public int read(Cursor cursor, IntRecordRing.HopHandler handler, int max) {
+        long seq = cursor.next.get();
+        long last = Math.min(end.get(), seq + max);
+        int n = 0;
+        for (; seq < last; seq++) {
+            visit(seq, handler);
+            n++;
+        }
+        if (n > 0) {
+            /* ordered after the reads above, hop() reuses the slots once it sees it. */
+            cursor.next.lazySet(seq);
+        }
+        return n;
+    }
+
+    /**
+     * passes the records with fromTime <= time <= toTime to 'handler', oldest first.
+     * The records are held by a cursor of its own, moved past each record passed.
+     *
+     * @return records passed
+     */
+    public long scan(long fromTime, long toTime, IntRecordRing.HopHandler handler) {
+        try (Cursor cursor = open()) {
+            long last = end.get();
+            long seq = seqAt(cursor.position(), last, fromTime);
+            cursor.next.lazySet(seq);
+            long passed = 0;
+            for (; seq < last && time(seq) <= toTime; seq++) {
+                visit(seq, handler);
+                cursor.next.lazySet(seq + 1);
+                passed++;
+            }
+            return passed;
+        }
+    }
+
+    /* the oldest sequence in [low, high) with time >= 'time', 'high' if there is none. */
+    private long seqAt(long low, long high, long time) {
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (time(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void visit(long seq, IntRecordRing.HopHandler handler) {
+        int slot = slot(seq);
+        handler.hop(time.getLong(slot * 8), srcIp.getInt(slot * 4), dstIp.getInt(slot * 4),
+                    mapInfo.get(slot) & 0xff, hop.get(slot) & 0xff, hops.get(slot) & 0xff,
+                    get(slot, IntHeaderLayout.Field.DPID),
+                    (int) get(slot, IntHeaderLayout.Field.IN_PORT),
+                    (int) get(slot, IntHeaderLayout.Field.OUT_PORT),
+                    get(slot, IntHeaderLayout.Field.INGRESS_TIME),
+                    (int) get(slot, IntHeaderLayout.Field.HOP_LATENCY),
+                    get(slot, IntHeaderLayout.Field.BANDWIDTH));
+    }
+
+    @Override
+    public String toString() {
+        long e = end.get();
+        return "INT hop store: " + e + " hops appended, " + Math.min(e, capacity) + " kept of " + capacity
+                + ", " + cursors.length + " cursors, " + dropped.get() + " hops dropped, " + layout;
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of INT hop records in memory-mapped segment files of fixed size,
+ * e.g. to keep the telemetry of a whole pofTestStart3() or pofTestStart4() run.
+ *
+ * A segment is a header and fixed-size records, little-endian:
+ * header(64B) = magic | version | RECORD_BYTES | - | first sequence | records
+ * record(40B) = time | ingress_time | bandwidth | dpid | srcIp | dstIp | hop_latency |
+ *               mapInfo | hop | hops | in_port | out_port | -
+ * A full segment rolls over to a new file, the oldest files beyond 'maxSegments' are
+ * deleted. Every INDEX_INTERVAL records the time is kept in a sparse index per segment,
+ * rebuilt from the records when an existing journal is opened.
+ *
+ * One writer appends through hop(). Readers scan a time range straight from the mapped
+ * segments, decoded into a HopHandler or as read-only slices of the records.
+ * Times are kept nondecreasing, as IntHopStore does.
+ */
+public class IntJournal implements IntRecordRing.HopHandler, Closeable {
+
+    static final int MAGIC = 0x4a544e49;  // "INTJ"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int RECORD_BYTES = 40;
+    static final int INDEX_INTERVAL = 1024;
+
+    /* header */
+    private static final int FIRST_SEQ_OFF = 16;
+    private static final int COUNT_OFF = 24;
+
+    /* record */
+    private static final int TIME = 0;
+    private static final int INGRESS_TIME = 8;
+    private static final int BANDWIDTH = 16;
+    private static final int DPID = 20;
+    private static final int SRC_IP = 24;
+    private static final int DST_IP = 28;
+    private static final int HOP_LATENCY = 32;
+    private static final int MAP_INFO = 34;
+    private static final int HOP = 35;
+    private static final int HOPS = 36;
+    private static final int IN_PORT = 37;
+    private static final int OUT_PORT = 38;
+
+    private static final String SUFFIX = ".int";
+    private static final int EXPORT_BUFFER_BYTES = 1024 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Path dir;
+    private final int segmentRecords;
+    private final int maxSegments;
+
+    /* oldest first, copied on rollover */
+    private volatile Segment[] segments;
+    private long lastTime = Long.MIN_VALUE;
+    private long lost;
+
+    /**
+     * opens the journal in 'dir', created if needed, and continues its last segment.
+     *
+     * @param segmentBytes size of a segment file
+     * @param maxSegments segments kept, the oldest are deleted
+     */
+    public IntJournal(Path dir, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes < HEADER_BYTES + RECORD_BYTES || maxSegments < 1) {
+            throw new IllegalArgumentException("segment bytes: " + segmentBytes + ", max segments: " + maxSegments);
+        }
+        this.dir = dir;
+        this.segmentRecords = (segmentBytes - HEADER_BYTES) / RECORD_BYTES;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(dir);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        List<Segment> opened = new ArrayList<>();
+        for (Path file : files) {
+            Segment segment = Segment.open(file, segmentRecords);
+            if (segment != null) {
+                opened.add(segment);
+            } else {
+                log.warn("INT journal: {} is not a segment, skipped.", file);
+            }
+        }
+        segments = opened.toArray(new Segment[0]);
+        if (segments.length == 0) {
+            segments = new Segment[] {Segment.create(file(0), 0, segmentRecords)};
+        }
+        Segment last = segments[segments.length - 1];
+        if (last.count > 0) {
+            lastTime = last.time(last.count - 1);
+        }
+        log.info("{}", this);
+    }
+
+    private Path file(long firstSeq) {
+        return dir.resolve(String.format("%020d%s", firstSeq, SUFFIX));
+    }
+
+    @Override
+    public void hop(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                    long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        Segment segment = segments[segments.length - 1];
+        if (segment.count == segmentRecords) {
+            segment = rollover(segment);
+            if (segment == null) {
+                lost++;
+                return;
+            }
+        }
+        lastTime = Math.max(lastTime, time);
+        ByteBuffer buf = segment.buf;
+        encode(buf, HEADER_BYTES + segment.count * RECORD_BYTES, lastTime, srcIp, dstIp, mapInfo, hop, hops,
+               dpid, inPort, outPort, ingressTime, hopLatency, bandwidth);
+        if (segment.count % INDEX_INTERVAL == 0) {
+            segment.index[segment.count / INDEX_INTERVAL] = lastTime;
+        }
+        buf.putLong(COUNT_OFF, segment.count + 1);
+        /* publishes the record and the index to the readers. */
+        segment.count++;
+    }
+
+    private Segment rollover(Segment full) {
+        Segment next;
+        try {
+            next = Segment.create(file(full.firstSeq + full.count), full.firstSeq + full.count, segmentRecords);
+        } catch (IOException e) {
+            /* once, not for every record lost. */
+            if (lost == 0) {
+                log.warn("INT journal: cannot create a segment in {}: {}", dir, e.getMessage());
+            }
+            return null;
+        }
+        Segment[] current = segments;
+        int retired = Math.max(0, current.length + 1 - maxSegments);
+        Segment[] more = new Segment[current.length + 1 - retired];
+        System.arraycopy(current, retired, more, 0, current.length - retired);
+        more[more.length - 1] = next;
+        segments = more;
+        for (int i = 0; i < retired; i++) {
+            try {
+                /* readers still holding the mapping keep reading it. */
+                Files.deleteIfExists(current[i].file);
+            } catch (IOException e) {
+                log.warn("INT journal: cannot delete {}: {}", current[i].file, e.getMessage());
+            }
+        }
+        return next;
+    }
+
+    /* records kept. */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /**
+     * passes the records with fromTime <= time <= toTime to 'handler', oldest first.
+     *
+     * @return records passed
+     */
+    public long scan(long fromTime, long toTime, IntRecordRing.HopHandler handler) {
+        long passed = 0;
+        for (Segment segment : segments) {
+            int count = segment.count;
+            if (count == 0 || segment.time(0) > toTime || segment.time(count - 1) < fromTime) {
+                continue;
+            }
+            for (int i = segment.seek(fromTime, count); i < count; i++) {
+                int record = HEADER_BYTES + i * RECORD_BYTES;
+                if (segment.buf.getLong(record + TIME) > toTime) {
+                    break;
+                }
+                decode(segment.buf, record, handler);
+                passed++;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * passes the records with fromTime <= time <= toTime to 'consumer' without copying them:
+     * one read-only little-endian slice of the mapped file per segment, of RECORD_BYTES records.
+     *
+     * @return slices passed
+     */
+    public int slices(long fromTime, long toTime, Consumer<ByteBuffer> consumer) {
+        int passed = 0;
+        for (Segment segment : segments) {
+            int count = segment.count;
+            if (count == 0 || segment.time(0) > toTime || segment.time(count - 1) < fromTime) {
+                continue;
+            }
+            int from = segment.seek(fromTime, count);
+            /* toTime + 1 would wrap around for an open-ended range. */
+            int to = toTime == Long.MAX_VALUE ? count : segment.seek(toTime + 1, count);
+            if (from == to) {
+                continue;
+            }
+            ByteBuffer slice = segment.buf.asReadOnlyBuffer();
+            slice.position(HEADER_BYTES + from * RECORD_BYTES).limit(HEADER_BYTES + to * RECORD_BYTES);
+            consumer.accept(slice.slice().order(ByteOrder.LITTLE_ENDIAN));
+            passed++;
+        }
+        return passed;
+    }
+
+    /**
+     * writes the records with fromTime <= time <= toTime to 'out', encoded by IntRecordCodec
+     * as one stream, e.g. to export a run in a few bytes per record.
+     *
+     * @return records written
+     */
+    public long export(long fromTime, long toTime, WritableByteChannel out) throws IOException {
+        List<ByteBuffer> ranges = new ArrayList<>();
+        slices(fromTime, toTime, ranges::add);
+        ByteBuffer buf = ByteBuffer.allocateDirect(EXPORT_BUFFER_BYTES);
+        IntRecordCodec.Encoder encoder = new IntRecordCodec.Encoder().output(buf);
+        long records = 0;
+        for (ByteBuffer range : ranges) {
+            for (int record = 0; record < range.limit(); record += RECORD_BYTES) {
+                if (buf.remaining() < IntRecordCodec.MAX_RECORD_BYTES) {
+                    write(buf, out);
+                }
+                decode(range, record, encoder);
+                records++;
+            }
+        }
+        write(buf, out);
+        log.info("INT journal: exported {} records, {}", records, encoder);
+        return records;
+    }
+
+    private static void write(ByteBuffer buf, WritableByteChannel out) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /* writes the RECORD_BYTES of one record at 'record' of a little-endian 'buf'. */
+    static void encode(ByteBuffer buf, int record, long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                       long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        buf.putLong(record + TIME, time);
+        buf.putLong(record + INGRESS_TIME, ingressTime);
+        buf.putInt(record + BANDWIDTH, (int) bandwidth);
+        buf.putInt(record + DPID, (int) dpid);
+        buf.putInt(record + SRC_IP, srcIp);
+        buf.putInt(record + DST_IP, dstIp);
+        buf.putShort(record + HOP_LATENCY, (short) hopLatency);
+        buf.put(record + MAP_INFO, (byte) mapInfo);
+        buf.put(record + HOP, (byte) hop);
+        buf.put(record + HOPS, (byte) hops);
+        buf.put(record + IN_PORT, (byte) inPort);
+        buf.put(record + OUT_PORT, (byte) outPort);
+    }
+
+    /* decodes the record at 'record' of a segment or a slice, fields not in mapInfo are -1. */
+    public static void decode(ByteBuffer buf, int record, IntRecordRing.HopHandler handler) {
+        int mapInfo = buf.get(record + MAP_INFO) & 0xff;
+        handler.hop(buf.getLong(record + TIME),
+                    buf.getInt(record + SRC_IP),
+                    buf.getInt(record + DST_IP),
+                    mapInfo,
+                    buf.get(record + HOP) & 0xff,
+                    buf.get(record + HOPS) & 0xff,
+                    has(mapInfo, IntHeaderLayout.Field.DPID) ? buf.getInt(record + DPID) & 0xffffffffL : -1,
+                    has(mapInfo, IntHeaderLayout.Field.IN_PORT) ? buf.get(record + IN_PORT) & 0xff : -1,
+                    has(mapInfo, IntHeaderLayout.Field.OUT_PORT) ? buf.get(record + OUT_PORT) & 0xff : -1,
+                    has(mapInfo, IntHeaderLayout.Field.INGRESS_TIME) ? buf.getLong(record + INGRESS_TIME) : -1,
+                    has(mapInfo, IntHeaderLayout.Field.HOP_LATENCY) ? buf.getShort(record + HOP_LATENCY) & 0xffff : -1,
+                    has(mapInfo, IntHeaderLayout.Field.BANDWIDTH) ? buf.getInt(record + BANDWIDTH) & 0xffffffffL : -1);
+    }
+
+    private static boolean has(int mapInfo, IntHeaderLayout.Field field) {
+        return (mapInfo & (1 << field.bit())) != 0;
+    }
+
+    /* the mappings are released by the GC, the records are already in the files. */
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.buf.force();
+        }
+        log.info("{}", this);
+    }
+
+    @Override
+    public String toString() {
+        Segment[] current = segments;
+        return "INT journal " + dir + ": " + size() + " records in " + current.length + " segments of "
+                + segmentRecords + ", from sequence " + current[0].firstSeq + ", " + lost + " lost";
+    }
+
+    /**
+     * one mapped segment file.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buf;
+        private final long firstSeq;
+        /* time of record i * INDEX_INTERVAL */
+        private final long[] index;
+        private volatile int count;
+
+        private Segment(Path file, MappedByteBuffer buf, long firstSeq, int segmentRecords) {
+            this.file = file;
+            this.buf = buf;
+            this.firstSeq = firstSeq;
+            this.index = new long[(segmentRecords + INDEX_INTERVAL - 1) / INDEX_INTERVAL];
+        }
+
+        private static MappedByteBuffer map(Path file, int segmentRecords) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                                   HEADER_BYTES + (long) segmentRecords * RECORD_BYTES);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                return buf;
+            }
+        }
+
+        static Segment create(Path file, long firstSeq, int segmentRecords) throws IOException {
+            MappedByteBuffer buf = map(file, segmentRecords);
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putInt(8, RECORD_BYTES);
+            buf.putLong(FIRST_SEQ_OFF, firstSeq);
+            buf.putLong(COUNT_OFF, 0);
+            return new Segment(file, buf, firstSeq, segmentRecords);
+        }
+
+        /* null if 'file' is not a segment of this layout. */
+        static Segment open(Path file, int segmentRecords) throws IOException {
+            if (Files.size(file) != HEADER_BYTES + (long) segmentRecords * RECORD_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buf = map(file, segmentRecords);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(8) != RECORD_BYTES) {
+                return null;
+            }
+            Segment segment = new Segment(file, buf, buf.getLong(FIRST_SEQ_OFF), segmentRecords);
+            int count = (int) Math.min(buf.getLong(COUNT_OFF), segmentRecords);
+            for (int i = 0; i < count; i += INDEX_INTERVAL) {
+                segment.index[i / INDEX_INTERVAL] = segment.time(i);
+            }
+            segment.count = count;
+            return segment;
+        }
+
+        long time(int i) {
+            return buf.getLong(HEADER_BYTES + i * RECORD_BYTES + TIME);
+        }
+
+        /* the first record with time >= 'time', 'count' if none: the index, then the records. */
+        int seek(long time, int count) {
+            int entries = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+            int low = 0;
+            int high = entries;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (index[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            /* the record is after index entry low - 1. */
+            int i = Math.max(0, low - 1) * INDEX_INTERVAL;
+            int end = Math.min(count, low * INDEX_INTERVAL);
+            while (i < end && time(i) < time) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency distributions of the INT hops: hop_latency per (dpid, in_port, out_port), and the
+ * end-to-end latency per path, i.e. per fingerprint of the dpid stack of the packet.
+ * The end-to-end latency is ingress_time + hop_latency of the last switch minus
+ * ingress_time of the first one, or the sum of hop_latency without ingress_time, in the
+ * unit of the switches.
+ *
+ * The histograms are indexed by LongKeyIndex, a new key is added with a CAS, so recording
+ * takes no lock and allocates only for a new key. Keys beyond the size of a table are
+ * counted, not recorded.
+ */
+public class IntLatencyStats implements IntRecordRing.HopHandler {
+
+    public static final long PATH_SEED = 0xcbf29ce484222325L;
+
+    private final Table hopLatency;
+    private final Table pathLatency;
+    /* packets without dpids, whose path is not known */
+    private final LongAdder unmonitored = new LongAdder();
+
+    /* the packet whose hops hop() is adding up, on the collector drain thread */
+    private long fingerprint;
+    private long firstIngress;
+    private long lastIngress;
+    private long latencySum;
+    private boolean complete;
+
+    /**
+     * @param maxHops (dpid, in_port, out_port) kept
+     * @param maxPaths path fingerprints kept
+     */
+    public IntLatencyStats(int maxHops, int maxPaths) {
+        this.hopLatency = new Table(maxHops);
+        this.pathLatency = new Table(maxPaths);
+    }
+
+    /* the key of (dpid, in_port, out_port), as hops() returns it. */
+    public static long hopKey(long dpid, int inPort, int outPort) {
+        return (dpid & 0xffffffffL) << 16 | (inPort & 0xff) << 8 | (outPort & 0xff);
+    }
+
+    /* adds the dpid of one more hop to 'fingerprint', start with PATH_SEED. */
+    public static long fingerprint(long fingerprint, long dpid) {
+        long h = (fingerprint ^ dpid) * 0x100000001b3L;
+        return h ^ (h >>> 29);
+    }
+
+    /* thread-safe */
+    public void recordHop(long dpid, int inPort, int outPort, long latency) {
+        LatencyHistogram histogram = hopLatency.get(hopKey(dpid, inPort, outPort));
+        if (histogram != null) {
+            histogram.record(latency);
+        }
+    }
+
+    /* thread-safe */
+    public void recordPath(long fingerprint, long latency) {
+        LatencyHistogram histogram = pathLatency.get(fingerprint);
+        if (histogram != null) {
+            histogram.record(latency);
+        }
+    }
+
+    /* the hops of a packet come in order from hop 0, call it from one thread. */
+    @Override
+    public void hop(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                    long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        if (hop == 0) {
+            fingerprint = PATH_SEED;
+            latencySum = 0;
+            complete = true;
+            /* hop 0 is the last switch the packet crossed. */
+            lastIngress = ingressTime < 0 || hopLatency < 0 ? -1 : ingressTime + hopLatency;
+        }
+        fingerprint = fingerprint(fingerprint, dpid);
+        firstIngress = ingressTime;
+        if (hopLatency >= 0) {
+            latencySum += hopLatency;
+            if (inPort >= 0 && outPort >= 0) {
+                recordHop(dpid, inPort, outPort, hopLatency);
+            }
+        } else {
+            complete = false;
+        }
+        if (hop == hops - 1) {
+            if (!IntHeaderLayout.of(mapInfo).has(IntHeaderLayout.Field.DPID)) {
+                /* the fingerprint of -1 dpids would mix all such packets into one path. */
+                unmonitored.increment();
+            } else if (lastIngress >= 0 && firstIngress >= 0) {
+                recordPath(fingerprint, lastIngress - firstIngress);
+            } else if (complete) {
+                recordPath(fingerprint, latencySum);
+            }
+        }
+    }
+
+    /* hopKey() -> snapshot. */
+    public Map<Long, LatencyHistogram.Snapshot> hops() {
+        return hopLatency.snapshots();
+    }
+
+    /* fingerprint -> snapshot. */
+    public Map<Long, LatencyHistogram.Snapshot> paths() {
+        return pathLatency.snapshots();
+    }
+
+    public LatencyHistogram.Snapshot hop(long dpid, int inPort, int outPort) {
+        LatencyHistogram histogram = hopLatency.find(hopKey(dpid, inPort, outPort));
+        return histogram == null ? null : histogram.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot path(long fingerprint) {
+        LatencyHistogram histogram = pathLatency.find(fingerprint);
+        return histogram == null ? null : histogram.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return "INT latency: " + hopLatency.size() + " hops, " + hopLatency.overflow() + " not kept, "
+                + pathLatency.size() + " paths, " + pathLatency.overflow() + " not kept, "
+                + unmonitored.sum() + " packets without dpids";
+    }
+
+    /* toString() and the snapshot of every hop and path, one per line. */
+    public String report() {
+        StringBuilder sb = new StringBuilder(toString());
+        for (Map.Entry<Long, LatencyHistogram.Snapshot> e : hops().entrySet()) {
+            long key = e.getKey();
+            sb.append("\n  hop dpid<").append(HexCodec.toHex((int) (key >>> 16)))
+                    .append("> ").append((key >>> 8) & 0xff).append("->").append(key & 0xff)
+                    .append(": ").append(e.getValue());
+        }
+        for (Map.Entry<Long, LatencyHistogram.Snapshot> e : paths().entrySet()) {
+            sb.append("\n  path<").append(Long.toHexString(e.getKey())).append(">: ").append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * key -> histogram, the keys are indexed by a LongKeyIndex.
+     */
+    private static final class Table {
+        private final LongKeyIndex keys;
+        private final AtomicReferenceArray<LatencyHistogram> values;
+
+        private Table(int maxKeys) {
+            keys = new LongKeyIndex(maxKeys);
+            values = new AtomicReferenceArray<>(maxKeys);
+        }
+
+        /* the histogram of 'key', added if absent, null if the table is full. */
+        LatencyHistogram get(long key) {
+            int index = keys.index(key);
+            if (index < 0) {
+                return null;
+            }
+            LatencyHistogram histogram = values.get(index);
+            if (histogram == null) {
+                values.compareAndSet(index, null, new LatencyHistogram());
+                histogram = values.get(index);
+            }
+            return histogram;
+        }
+
+        LatencyHistogram find(long key) {
+            int index = keys.find(key);
+            return index < 0 ? null : values.get(index);
+        }
+
+        long size() {
+            return keys.size();
+        }
+
+        long overflow() {
+            return keys.overflow();
+        }
+
+        Map<Long, LatencyHistogram.Snapshot> snapshots() {
+            Map<Long, LatencyHistogram.Snapshot> snapshots = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                LatencyHistogram histogram = values.get(i);
+                if (histogram != null) {
+                    snapshots.put(keys.key(i), histogram.snapshot());
+                }
+            }
+            return snapshots;
+        }
+    }
+}
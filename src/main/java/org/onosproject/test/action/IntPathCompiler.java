@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.ElementId;
+import org.onosproject.net.Link;
+import org.onosproject.net.Path;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.topology.PathService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes the INT path between a source and a sink, hosts or devices, with PathService,
+ * and assigns the INT role of every switch on it:
+ * SOURCE adds the INT header, TRANSIT adds its INT data and increments INT-TTL,
+ * SINK mirrors the INT packet to the collector and forwards the original to the user.
+ *
+ * Each hop carries the ports the packets enter and leave the switch through,
+ * so that the rules need no hard-coded port numbers.
+ */
+public class IntPathCompiler {
+
+    /**
+     * INT role of a switch on the path.
+     */
+    public enum Role {
+        SOURCE, TRANSIT, SINK
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final PathService pathService;
+
+    public IntPathCompiler(PathService pathService) {
+        this.pathService = pathService;
+    }
+
+    /**
+     * @param src the source host or device
+     * @param dst the sink host or device
+     * @param sinkPort if 'dst' is a device, the port of the sink towards the user, ignored otherwise
+     * @return hops from source to sink, empty if there is no path of at least two switches
+     */
+    public List<Hop> compile(ElementId src, ElementId dst, PortNumber sinkPort) {
+        Set<Path> paths = pathService.getPaths(src, dst);
+        if (paths == null || paths.isEmpty()) {
+            log.warn("INT path: no path from {} to {}.", src, dst);
+            return Collections.emptyList();
+        }
+        /* fewest hops, each one adds INT data. */
+        Path path = paths.stream().min(Comparator.comparingInt(p -> p.links().size())).get();
+
+        List<Hop> hops = new ArrayList<>();
+        PortNumber inPort = null;
+        for (Link link : path.links()) {
+            /* edge links of hosts start or end at a HostId. */
+            ConnectPoint from = link.src();
+            if (from.elementId() instanceof DeviceId) {
+                hops.add(new Hop(from.deviceId(), inPort, from.port()));
+            }
+            ConnectPoint to = link.dst();
+            inPort = to.elementId() instanceof DeviceId ? to.port() : null;
+        }
+        ConnectPoint last = path.links().get(path.links().size() - 1).dst();
+        if (last.elementId() instanceof DeviceId) {
+            hops.add(new Hop(last.deviceId(), last.port(), sinkPort));
+        }
+
+        if (hops.size() < 2) {
+            log.warn("INT path: {} to {} crosses {} switch(es), need a source and a sink.", src, dst, hops.size());
+            return Collections.emptyList();
+        }
+        hops.get(0).role = Role.SOURCE;
+        hops.get(hops.size() - 1).role = Role.SINK;
+        log.info("INT path: {} to {}: {}", src, dst, hops);
+        return hops;
+    }
+
+    /**
+     * one switch of the INT path.
+     */
+    public static final class Hop {
+        private final DeviceId deviceId;
+        private final PortNumber inPort;
+        private final PortNumber outPort;
+        private Role role = Role.TRANSIT;
+
+        private Hop(DeviceId deviceId, PortNumber inPort, PortNumber outPort) {
+            this.deviceId = deviceId;
+            this.inPort = inPort;
+            this.outPort = outPort;
+        }
+
+        public DeviceId deviceId() {
+            return deviceId;
+        }
+
+        public Role role() {
+            return role;
+        }
+
+        /* null at a device source. */
+        public PortNumber inPort() {
+            return inPort;
+        }
+
+        /* towards the next hop, or towards the user at the sink. */
+        public PortNumber outPort() {
+            return outPort;
+        }
+
+        @Override
+        public String toString() {
+            return deviceId + "/" + role + "(" + inPort + "->" + outPort + ")";
+        }
+    }
+}
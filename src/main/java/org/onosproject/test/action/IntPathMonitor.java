@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Detects a flow leaving its provisioned paths, e.g. the reroute of sw2 to port3 in the
+ * SIMULATE_ATTACK rounds of pofTestStart3(), while the INT packets arrive.
+ *
+ * Each packet is reduced to the fingerprint of its dpid stack, IntLatencyStats.fingerprint(),
+ * and counted in the sliding window of its flow (srcIp, dstIp) as on or off the provisioned
+ * paths. A flow raises DEVIATION once its window has 'minPackets' packets off the paths
+ * and they are at least 'ratio' of it, and RECOVERED once a whole window has none. The
+ * latency of a DEVIATION is from the first packet off the paths, in ms of the receive time.
+ *
+ * The window of a flow is BUCKETS counters in flat arrays indexed by LongKeyIndex, so
+ * a flow takes a fixed amount of memory and a packet allocates nothing. hop() is called
+ * from one thread, the collector drain thread, which also calls the listener.
+ */
+public class IntPathMonitor implements IntRecordRing.HopHandler {
+
+    public static final int BUCKETS = 10;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final long bucketMs;
+    private final int minPackets;
+    private final double ratio;
+    private final Consumer<Event> listener;
+
+    /* fingerprints of the provisioned paths, sorted */
+    private volatile long[] provisioned = new long[0];
+
+    private final LongKeyIndex flows;
+    /* flow * BUCKETS + epoch % BUCKETS -> packets, and packets off the paths */
+    private final int[] bucketPackets;
+    private final int[] bucketDeviating;
+    /* per flow: the last epoch counted, the sums of its window, the state */
+    private final long[] headEpoch;
+    private final int[] windowPackets;
+    private final int[] windowDeviating;
+    private final long[] firstDeviation;
+    private final long[] lastFingerprint;
+    private final boolean[] alarmed;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder deviating = new LongAdder();
+    private final LongAdder unmonitored = new LongAdder();
+    private final LongAdder alarms = new LongAdder();
+
+    /* the packet whose hops hop() is adding up */
+    private long fingerprint;
+
+    /**
+     * @param windowMs the window of a flow, in BUCKETS steps
+     * @param minPackets packets off the paths in the window before an event
+     * @param ratio share of the window off the paths before an event, 0 for any
+     * @param maxFlows flows monitored, later ones are only counted as unmonitored
+     * @param listener gets the events on the collector drain thread, must not block
+     */
+    public IntPathMonitor(long windowMs, int minPackets, double ratio, int maxFlows, Consumer<Event> listener) {
+        this.bucketMs = Math.max(1, windowMs / BUCKETS);
+        this.minPackets = Math.max(1, minPackets);
+        this.ratio = ratio;
+        this.listener = listener;
+        flows = new LongKeyIndex(maxFlows);
+        bucketPackets = new int[maxFlows * BUCKETS];
+        bucketDeviating = new int[maxFlows * BUCKETS];
+        headEpoch = new long[maxFlows];
+        windowPackets = new int[maxFlows];
+        windowDeviating = new int[maxFlows];
+        firstDeviation = new long[maxFlows];
+        lastFingerprint = new long[maxFlows];
+        alarmed = new boolean[maxFlows];
+    }
+
+    /* @param paths the dpids of each provisioned path, from source to sink */
+    public void setPaths(Collection<long[]> paths) {
+        long[] fingerprints = new long[paths.size()];
+        int i = 0;
+        for (long[] path : paths) {
+            fingerprints[i++] = fingerprint(path);
+        }
+        Arrays.sort(fingerprints);
+        provisioned = fingerprints;
+    }
+
+    /* the fingerprint of a packet which crossed 'path', from source to sink. */
+    public static long fingerprint(long[] path) {
+        long fingerprint = IntLatencyStats.PATH_SEED;
+        for (int i = path.length - 1; i >= 0; i--) {
+            fingerprint = IntLatencyStats.fingerprint(fingerprint, path[i]);
+        }
+        return fingerprint;
+    }
+
+    @Override
+    public void hop(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                    long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        if (!IntHeaderLayout.of(mapInfo).has(IntHeaderLayout.Field.DPID)) {
+            /* e.g. mapInfo "20": no dpid stack to tell the path by, not monitored rather than off the paths. */
+            if (hop == hops - 1) {
+                packets.increment();
+                unmonitored.increment();
+            }
+            return;
+        }
+        if (hop == 0) {
+            fingerprint = IntLatencyStats.PATH_SEED;
+        }
+        fingerprint = IntLatencyStats.fingerprint(fingerprint, dpid);
+        if (hop == hops - 1) {
+            packet(time, srcIp, dstIp, fingerprint);
+        }
+    }
+
+    /* counts one packet of the flow, 'fingerprint' of its whole dpid stack. */
+    public void packet(long time, int srcIp, int dstIp, long fingerprint) {
+        packets.increment();
+        long[] paths = provisioned;
+        int flow = paths.length == 0 ? -1 : flows.index(IntRecordCodec.flow(srcIp, dstIp));
+        if (flow < 0) {
+            unmonitored.increment();
+            return;
+        }
+        boolean off = Arrays.binarySearch(paths, fingerprint) < 0;
+        advance(flow, time / bucketMs);
+        int bucket = flow * BUCKETS + (int) (headEpoch[flow] % BUCKETS);
+        bucketPackets[bucket]++;
+        windowPackets[flow]++;
+        if (off) {
+            deviating.increment();
+            bucketDeviating[bucket]++;
+            if (windowDeviating[flow]++ == 0 && !alarmed[flow]) {
+                firstDeviation[flow] = time;
+            }
+            lastFingerprint[flow] = fingerprint;
+        }
+
+        if (!alarmed[flow]) {
+            if (off && windowDeviating[flow] >= minPackets
+                    && windowDeviating[flow] >= ratio * windowPackets[flow]) {
+                alarmed[flow] = true;
+                alarms.increment();
+                fire(Event.Type.DEVIATION, flow, srcIp, dstIp, time);
+            }
+        } else if (windowDeviating[flow] == 0 && windowPackets[flow] >= minPackets) {
+            alarmed[flow] = false;
+            fire(Event.Type.RECOVERED, flow, srcIp, dstIp, time);
+        }
+    }
+
+    /* moves the window of 'flow' to 'epoch', the buckets left behind are emptied. */
+    private void advance(int flow, long epoch) {
+        long head = headEpoch[flow];
+        if (epoch <= head) {
+            /* a packet received a little earlier than the last one is counted in the head bucket. */
+            return;
+        }
+        long from = Math.max(head + 1, epoch - BUCKETS + 1);
+        for (long e = from; e <= epoch; e++) {
+            int bucket = flow * BUCKETS + (int) (e % BUCKETS);
+            windowPackets[flow] -= bucketPackets[bucket];
+            windowDeviating[flow] -= bucketDeviating[bucket];
+            bucketPackets[bucket] = 0;
+            bucketDeviating[bucket] = 0;
+        }
+        headEpoch[flow] = epoch;
+    }
+
+    private void fire(Event.Type type, int flow, int srcIp, int dstIp, long time) {
+        if (listener == null) {
+            return;
+        }
+        Event event = new Event(type, srcIp, dstIp, lastFingerprint[flow], firstDeviation[flow], time,
+                                windowDeviating[flow], windowPackets[flow]);
+        try {
+            listener.accept(event);
+        } catch (RuntimeException e) {
+            log.warn("INT path monitor: listener failed on {}: {}", event, e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "INT path monitor: " + packets.sum() + " packets, " + deviating.sum() + " off the "
+                + provisioned.length + " provisioned paths, " + unmonitored.sum() + " not monitored, "
+                + alarms.sum() + " deviations, " + flows.size() + " flows";
+    }
+
+    /**
+     * a flow left its provisioned paths, or came back to them.
+     */
+    public static final class Event {
+
+        public enum Type {
+            DEVIATION,
+            RECOVERED
+        }
+
+        private final Type type;
+        private final int srcIp;
+        private final int dstIp;
+        private final long fingerprint;
+        private final long firstTime;
+        private final long time;
+        private final int deviating;
+        private final int packets;
+
+        private Event(Type type, int srcIp, int dstIp, long fingerprint, long firstTime, long time,
+                      int deviating, int packets) {
+            this.type = type;
+            this.srcIp = srcIp;
+            this.dstIp = dstIp;
+            this.fingerprint = fingerprint;
+            this.firstTime = firstTime;
+            this.time = time;
+            this.deviating = deviating;
+            this.packets = packets;
+        }
+
+        public Type type() {
+            return type;
+        }
+
+        public int srcIp() {
+            return srcIp;
+        }
+
+        public int dstIp() {
+            return dstIp;
+        }
+
+        /* the last path off the provisioned ones, see IntLatencyStats.paths(). */
+        public long fingerprint() {
+            return fingerprint;
+        }
+
+        /* receive time of the first packet off the paths, in ms. */
+        public long firstTime() {
+            return firstTime;
+        }
+
+        /* receive time of the packet which raised the event, in ms. */
+        public long time() {
+            return time;
+        }
+
+        /* ms from the first packet off the paths to the DEVIATION. */
+        public long latency() {
+            return time - firstTime;
+        }
+
+        /* packets off the paths, and all packets, in the window. */
+        public int deviating() {
+            return deviating;
+        }
+
+        public int packets() {
+            return packets;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder().append(type).append(" flow ")
+                    .append(HexCodec.toHex(srcIp)).append("->").append(HexCodec.toHex(dstIp))
+                    .append(": ").append(deviating).append('/').append(packets).append(" packets off the paths");
+            if (type == Type.DEVIATION) {
+                sb.append(", path<").append(Long.toHexString(fingerprint)).append(">, detected in ")
+                        .append(latency()).append(" ms");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Path revalidation at the collector: with TEST_PATH_FUNCTION, every hop adds its proof byte
+ * k * dpid + b (funcByteHexStr(), k = 2, b = 1) right after its dpid, so the INT data is
+ * type + ttl + mapInfo + swN + swN_key + ... + sw1 + sw1_key.
+ *
+ * The (dpid, proof) sequences of the provisioned paths, sink first as in the packet, are
+ * kept in a trie. verify() walks it with the stack of the packet: a wrong proof byte is
+ * BAD_PROOF, a stack which is not a whole provisioned path is UNKNOWN_PATH. The results
+ * are counted per flow (srcIp, dstIp) in arrays indexed by LongKeyIndex, so a packet is
+ * checked without allocation.
+ */
+public class IntPathVerifier {
+
+    /* the proof each hop adds after its dpid */
+    public static final int PROOF_BYTES = 1;
+
+    /* verify() results, also the counter of each flow */
+    public static final int VALID = 0;
+    public static final int UNKNOWN_PATH = 1;
+    public static final int BAD_PROOF = 2;
+    public static final int NOT_VERIFIED = 3;
+    private static final int RESULTS = 3;
+
+    private final int k;
+    private final int b;
+    private volatile Trie trie;
+
+    private final LongKeyIndex flows;
+    /* flow index * RESULTS + result -> packets */
+    private final AtomicLongArray counts;
+    /* results of the packets not counted per flow, NOT_VERIFIED and the flows beyond maxFlows */
+    private final LongAdder[] uncounted = new LongAdder[NOT_VERIFIED + 1];
+
+    /**
+     * @param k the proof of a hop is k * dpid + b, as one byte
+     * @param maxFlows flows counted, the packets of later ones are only in the totals
+     */
+    public IntPathVerifier(int k, int b, int maxFlows) {
+        this.k = k;
+        this.b = b;
+        this.trie = new Trie(Collections.emptyList());
+        this.flows = new LongKeyIndex(maxFlows);
+        this.counts = new AtomicLongArray(maxFlows * RESULTS);
+        for (int i = 0; i < uncounted.length; i++) {
+            uncounted[i] = new LongAdder();
+        }
+    }
+
+    public byte proof(long dpid) {
+        return proof(k, b, dpid);
+    }
+
+    /* the proof byte k * dpid + b, the same for the func field given to the switches and the check. */
+    public static byte proof(int k, int b, long dpid) {
+        return (byte) (k * dpid + b);
+    }
+
+    /* @param paths the dpids of each valid path, from source to sink */
+    public synchronized void setPaths(Collection<long[]> paths) {
+        trie = new Trie(paths);
+    }
+
+    /**
+     * checks the INT packet at buf.position(), without moving it.
+     *
+     * @return VALID, UNKNOWN_PATH, BAD_PROOF, or NOT_VERIFIED if it has no dpid stack with proofs
+     */
+    public int verify(ByteBuffer buf) {
+        int result = check(buf);
+        int index = -1;
+        if (result != NOT_VERIFIED) {
+            int base = buf.position();
+            index = flows.index(IntRecordCodec.flow(buf.getInt(base + IntHeaderLayout.IPV4_SRC_OFF / 8),
+                                                    buf.getInt(base + IntHeaderLayout.IPV4_DST_OFF / 8)));
+        }
+        /* one counter per packet. */
+        if (index >= 0) {
+            counts.incrementAndGet(index * RESULTS + result);
+        } else {
+            uncounted[result].increment();
+        }
+        return result;
+    }
+
+    private int check(ByteBuffer buf) {
+        int base = buf.position();
+        int length = buf.remaining();
+        if (length < IntHeaderLayout.INT_DATA_BASE_BYTES
+                || (buf.getShort(base + IntHeaderLayout.INT_HEADER_BASE_BYTES) & 0xffff) != IntCollector.INT_TYPE) {
+            return NOT_VERIFIED;
+        }
+        int hops = buf.get(base + IntHeaderLayout.INT_HEADER_BASE_BYTES + 2) & 0xff;
+        IntHeaderLayout layout = IntHeaderLayout.of(buf.get(base + IntHeaderLayout.INT_HEADER_BASE_BYTES + 3));
+        int stride = layout.recordBytes() + PROOF_BYTES;
+        if (!layout.has(IntHeaderLayout.Field.DPID) || hops == 0
+                || length < IntHeaderLayout.INT_DATA_BASE_BYTES + hops * stride) {
+            return NOT_VERIFIED;
+        }
+        Trie current = trie;
+        int node = 0;
+        for (int hop = 0; hop < hops; hop++) {
+            int record = base + IntHeaderLayout.INT_DATA_BASE_BYTES + hop * stride;
+            long dpid = buf.getInt(record) & 0xffffffffL;
+            byte proof = buf.get(record + IntHeaderLayout.Field.DPID.bytes());
+            if (proof != proof(dpid)) {
+                return BAD_PROOF;
+            }
+            if (node >= 0) {
+                node = current.child(node, dpid);
+            }
+        }
+        return node >= 0 && current.terminal[node] ? VALID : UNKNOWN_PATH;
+    }
+
+    /* packets of the flow with 'result', 0 if the flow is not counted. */
+    public long count(int srcIp, int dstIp, int result) {
+        int index = flows.find(IntRecordCodec.flow(srcIp, dstIp));
+        return index < 0 ? 0 : counts.get(index * RESULTS + result);
+    }
+
+    public long total(int result) {
+        long total = uncounted[result].sum();
+        if (result != NOT_VERIFIED) {
+            for (int i = 0; i < flows.size(); i++) {
+                total += counts.get(i * RESULTS + result);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "INT path proof: " + total(VALID) + " valid, " + total(UNKNOWN_PATH) + " unknown path, "
+                + total(BAD_PROOF) + " bad proof, " + total(NOT_VERIFIED) + " not verified, "
+                + trie.paths + " paths, " + flows.size() + " flows";
+    }
+
+    /* toString() and the flows with a mismatch, one per line. */
+    public String report() {
+        StringBuilder sb = new StringBuilder(toString());
+        for (int i = 0; i < flows.size(); i++) {
+            long unknown = counts.get(i * RESULTS + UNKNOWN_PATH);
+            long bad = counts.get(i * RESULTS + BAD_PROOF);
+            if (unknown + bad == 0) {
+                continue;
+            }
+            long flow = flows.key(i);
+            sb.append("\n  flow ").append(HexCodec.toHex((int) (flow >>> 32))).append("->")
+                    .append(HexCodec.toHex((int) flow)).append(": ").append(counts.get(i * RESULTS + VALID))
+                    .append(" valid, ").append(unknown).append(" unknown path, ").append(bad).append(" bad proof");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * the provisioned paths, sink first. Node 0 is the root, a node is reached by the dpid of
+     * its hop; the proof expected there is proof(dpid). Built once, then only read.
+     */
+    private static final class Trie {
+        private final int paths;
+        /* (node, dpid) -> child + 1, open addressing, 0 is empty */
+        private final long[] keys;
+        private final int[] children;
+        private final boolean[] terminal;
+
+        private Trie(Collection<long[]> paths) {
+            int nodes = 1;
+            for (long[] path : paths) {
+                nodes += path.length;
+            }
+            int size = 2;
+            while (size < 2 * nodes) {
+                size <<= 1;
+            }
+            this.paths = paths.size();
+            keys = new long[size];
+            children = new int[size];
+            terminal = new boolean[nodes];
+
+            int added = 1;
+            for (long[] path : paths) {
+                int node = 0;
+                for (int i = path.length - 1; i >= 0; i--) {
+                    int slot = slot(node, path[i]);
+                    if (children[slot] == 0) {
+                        keys[slot] = key(node, path[i]);
+                        children[slot] = added + 1;
+                        added++;
+                    }
+                    node = children[slot] - 1;
+                }
+                terminal[node] = true;
+            }
+        }
+
+        private static long key(int node, long dpid) {
+            return (long) node << 32 | (dpid & 0xffffffffL);
+        }
+
+        private int slot(int node, long dpid) {
+            long key = key(node, dpid);
+            int mask = keys.length - 1;
+            long h = key * 0x9e3779b97f4a7c15L;
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (children[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /* -1 if no provisioned path goes on with 'dpid'. */
+        int child(int node, long dpid) {
+            return children[slot(node, dpid)] - 1;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact stream encoding of INT hop records, for export or storage, instead of the
+ * IntJournal.RECORD_BYTES of a raw record:
+ *
+ * flags(1B) | time | [flow] | [mapInfo hops] | [hop] | tuple | [ingress_time] | [hop_latency] | [bandwidth]
+ *
+ * - time is a delta-of-delta, zigzag varint, from the previous record.
+ * - the flow (srcIp, dstIp), mapInfo/hops and hop are written only when they are not the
+ *   ones of the previous record, or the next hop of the same packet. 'flags' tells which are.
+ * - the flow and (dpid, in_port, out_port) are varint codes of dictionaries built by both
+ *   sides as the stream goes, or literals the first time, which then get the next code.
+ * - ingress_time is a delta-of-delta and bandwidth a delta from the previous record of the
+ *   same tuple, hop_latency a varint, all of them only if they are in mapInfo.
+ *
+ * The Decoder must see the buffers of an Encoder in order, both keep the state of the
+ * stream; reset() both to start an independent stream, e.g. per exported file.
+ */
+public final class IntRecordCodec {
+
+    /* a record never takes more, encode() needs this room. */
+    public static final int MAX_RECORD_BYTES = 64;
+    /* tuples and flows with a code, later ones are always literal. */
+    public static final int MAX_TUPLES = 65536;
+    public static final int MAX_FLOWS = 65536;
+
+    private static final int FLOW = 1;
+    private static final int MAP = 1 << 1;
+    private static final int HOP = 1 << 2;
+    private static final int LITERAL = 1 << 3;
+    private static final int FLOW_LITERAL = 1 << 4;
+
+    private static final int DPID_BIT = 1 << IntHeaderLayout.Field.DPID.bit();
+    private static final int IN_PORT_BIT = 1 << IntHeaderLayout.Field.IN_PORT.bit();
+    private static final int OUT_PORT_BIT = 1 << IntHeaderLayout.Field.OUT_PORT.bit();
+    private static final int INGRESS_TIME_BIT = 1 << IntHeaderLayout.Field.INGRESS_TIME.bit();
+    private static final int HOP_LATENCY_BIT = 1 << IntHeaderLayout.Field.HOP_LATENCY.bit();
+    private static final int BANDWIDTH_BIT = 1 << IntHeaderLayout.Field.BANDWIDTH.bit();
+
+    private IntRecordCodec() {
+    }
+
+    /**
+     * the state both sides keep, the same after the same records.
+     */
+    private static class State {
+        long time;
+        long timeDelta;
+        int srcIp;
+        int dstIp;
+        int mapInfo = -1;
+        int hops = -1;
+        int hop = -1;
+        int tuples;
+        int flows;
+        /* code -> last ingress_time, its delta and the last bandwidth */
+        final long[] ingressTime = new long[MAX_TUPLES];
+        final long[] ingressDelta = new long[MAX_TUPLES];
+        final long[] bandwidth = new long[MAX_TUPLES];
+        long records;
+
+        void reset() {
+            time = 0;
+            timeDelta = 0;
+            srcIp = 0;
+            dstIp = 0;
+            mapInfo = -1;
+            hops = -1;
+            hop = -1;
+            tuples = 0;
+            flows = 0;
+            records = 0;
+        }
+
+        /* hop 'hop' of 'hops' follows the previous record. */
+        boolean nextHop(int hop, int hops) {
+            return hops == this.hops && hop == (this.hop + 1 == hops ? 0 : this.hop + 1);
+        }
+    }
+
+    /* (dpid, in_port, out_port) as a long, the absent fields as 0. */
+    static long tuple(int mapInfo, long dpid, int inPort, int outPort) {
+        long d = (mapInfo & DPID_BIT) != 0 ? dpid & 0xffffffffL : 0;
+        long i = (mapInfo & IN_PORT_BIT) != 0 ? inPort & 0xff : 0;
+        long o = (mapInfo & OUT_PORT_BIT) != 0 ? outPort & 0xff : 0;
+        return d << 16 | i << 8 | o;
+    }
+
+    /**
+     * encodes records into the buffer of the caller. Single thread.
+     */
+    public static final class Encoder implements IntRecordRing.HopHandler {
+        private final State state = new State();
+        private final Dictionary tupleCodes = new Dictionary(MAX_TUPLES);
+        private final Dictionary flowCodes = new Dictionary(MAX_FLOWS);
+        private ByteBuffer out;
+        private long bytes;
+        private long full;
+
+        /* the records go to 'out' from its position, e.g. after the previous buffer was written. */
+        public Encoder output(ByteBuffer out) {
+            this.out = out;
+            return this;
+        }
+
+        public void reset() {
+            state.reset();
+            tupleCodes.clear();
+            flowCodes.clear();
+            bytes = 0;
+            full = 0;
+        }
+
+        /* hop() without a check, a record which does not fit is counted as lost. */
+        @Override
+        public void hop(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                        long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+            if (!encode(time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                        ingressTime, hopLatency, bandwidth)) {
+                full++;
+            }
+        }
+
+        /**
+         * @return false if 'out' has less than MAX_RECORD_BYTES left, nothing is written then
+         */
+        public boolean encode(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                              long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+            if (out == null || out.remaining() < MAX_RECORD_BYTES) {
+                return false;
+            }
+            int start = out.position();
+            State s = state;
+            long tuple = tuple(mapInfo, dpid, inPort, outPort);
+            int slot = tupleCodes.slot(tuple);
+            int code = tupleCodes.code(slot);
+            long flow = flow(srcIp, dstIp);
+            int flowSlot = -1;
+            int flowCode = -1;
+
+            int flags = 0;
+            if (srcIp != s.srcIp || dstIp != s.dstIp || s.records == 0) {
+                flags |= FLOW;
+                flowSlot = flowCodes.slot(flow);
+                flowCode = flowCodes.code(flowSlot);
+                if (flowCode < 0) {
+                    flags |= FLOW_LITERAL;
+                }
+            }
+            if (mapInfo != s.mapInfo || hops != s.hops) {
+                flags |= MAP;
+            }
+            if (!s.nextHop(hop, hops)) {
+                flags |= HOP;
+            }
+            if (code < 0) {
+                flags |= LITERAL;
+            }
+            out.put((byte) flags);
+
+            long delta = time - s.time;
+            writeVarLong(out, zigzag(delta - s.timeDelta));
+            s.time = time;
+            s.timeDelta = delta;
+            if ((flags & FLOW) != 0) {
+                if (flowCode >= 0) {
+                    writeVarLong(out, flowCode);
+                } else {
+                    out.putInt(srcIp).putInt(dstIp);
+                    if (s.flows < MAX_FLOWS) {
+                        flowCodes.put(flowSlot, flow, s.flows++);
+                    }
+                }
+                s.srcIp = srcIp;
+                s.dstIp = dstIp;
+            }
+            if ((flags & MAP) != 0) {
+                out.put((byte) mapInfo).put((byte) hops);
+                s.mapInfo = mapInfo;
+                s.hops = hops;
+            }
+            if ((flags & HOP) != 0) {
+                out.put((byte) hop);
+            }
+            s.hop = hop;
+
+            if (code >= 0) {
+                writeVarLong(out, code);
+            } else {
+                out.putInt((int) (tuple >>> 16)).put((byte) (tuple >>> 8)).put((byte) tuple);
+                if (s.tuples < MAX_TUPLES) {
+                    code = s.tuples++;
+                    tupleCodes.put(slot, tuple, code);
+                    s.ingressTime[code] = 0;
+                    s.ingressDelta[code] = 0;
+                    s.bandwidth[code] = 0;
+                }
+            }
+            if ((mapInfo & INGRESS_TIME_BIT) != 0) {
+                if (code >= 0) {
+                    long d = ingressTime - s.ingressTime[code];
+                    writeVarLong(out, zigzag(d - s.ingressDelta[code]));
+                    s.ingressTime[code] = ingressTime;
+                    s.ingressDelta[code] = d;
+                } else {
+                    out.putLong(ingressTime);
+                }
+            }
+            if ((mapInfo & HOP_LATENCY_BIT) != 0) {
+                writeVarLong(out, hopLatency & 0xffffL);
+            }
+            if ((mapInfo & BANDWIDTH_BIT) != 0) {
+                if (code >= 0) {
+                    writeVarLong(out, zigzag(bandwidth - s.bandwidth[code]));
+                    s.bandwidth[code] = bandwidth;
+                } else {
+                    out.putInt((int) bandwidth);
+                }
+            }
+            s.records++;
+            bytes += out.position() - start;
+            return true;
+        }
+
+        public long records() {
+            return state.records;
+        }
+
+        /* encoded bytes of records(). */
+        public long bytes() {
+            return bytes;
+        }
+
+        /* raw IntJournal records over encoded bytes. */
+        public double ratio() {
+            return bytes == 0 ? 0 : (double) state.records * IntJournal.RECORD_BYTES / bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("INT codec: %d records in %d bytes, %.1f bytes/record, ratio %.1f, "
+                                         + "%d tuples, %d flows, %d lost",
+                                 state.records, bytes, state.records == 0 ? 0.0 : (double) bytes / state.records,
+                                 ratio(), state.tuples, state.flows, full);
+        }
+    }
+
+    /**
+     * decodes the buffers of an Encoder, in the order they were written. Single thread.
+     */
+    public static final class Decoder {
+        private final State state = new State();
+        /* code -> tuple, code -> flow */
+        private final long[] tuples = new long[MAX_TUPLES];
+        private final long[] flows = new long[MAX_FLOWS];
+
+        public void reset() {
+            state.reset();
+        }
+
+        /**
+         * passes the records from in.position() to in.limit() to 'handler', fields not in mapInfo are -1.
+         *
+         * @return records decoded
+         */
+        public int decode(ByteBuffer in, IntRecordRing.HopHandler handler) {
+            int n = 0;
+            State s = state;
+            while (in.hasRemaining()) {
+                int flags = in.get();
+                long delta = s.timeDelta + unzigzag(readVarLong(in));
+                long time = s.time + delta;
+                s.time = time;
+                s.timeDelta = delta;
+                if ((flags & FLOW) != 0) {
+                    long flow;
+                    if ((flags & FLOW_LITERAL) == 0) {
+                        flow = flows[(int) readVarLong(in)];
+                    } else {
+                        flow = flow(in.getInt(), in.getInt());
+                        if (s.flows < MAX_FLOWS) {
+                            flows[s.flows++] = flow;
+                        }
+                    }
+                    s.srcIp = (int) (flow >>> 32);
+                    s.dstIp = (int) flow;
+                }
+                if ((flags & MAP) != 0) {
+                    s.mapInfo = in.get() & 0xff;
+                    s.hops = in.get() & 0xff;
+                }
+                int hop = (flags & HOP) != 0 ? in.get() & 0xff : (s.hop + 1 == s.hops ? 0 : s.hop + 1);
+                s.hop = hop;
+                int mapInfo = s.mapInfo;
+
+                long tuple;
+                int code;
+                if ((flags & LITERAL) == 0) {
+                    code = (int) readVarLong(in);
+                    tuple = tuples[code];
+                } else {
+                    tuple = (in.getInt() & 0xffffffffL) << 16 | (in.get() & 0xffL) << 8 | (in.get() & 0xffL);
+                    code = -1;
+                    if (s.tuples < MAX_TUPLES) {
+                        code = s.tuples++;
+                        tuples[code] = tuple;
+                        s.ingressTime[code] = 0;
+                        s.ingressDelta[code] = 0;
+                        s.bandwidth[code] = 0;
+                    }
+                }
+                long ingressTime = -1;
+                if ((mapInfo & INGRESS_TIME_BIT) != 0) {
+                    if (code >= 0) {
+                        long d = s.ingressDelta[code] + unzigzag(readVarLong(in));
+                        ingressTime = s.ingressTime[code] + d;
+                        s.ingressTime[code] = ingressTime;
+                        s.ingressDelta[code] = d;
+                    } else {
+                        ingressTime = in.getLong();
+                    }
+                }
+                int hopLatency = (mapInfo & HOP_LATENCY_BIT) != 0 ? (int) readVarLong(in) : -1;
+                long bandwidth = -1;
+                if ((mapInfo & BANDWIDTH_BIT) != 0) {
+                    if (code >= 0) {
+                        bandwidth = s.bandwidth[code] + unzigzag(readVarLong(in));
+                        s.bandwidth[code] = bandwidth;
+                    } else {
+                        bandwidth = in.getInt() & 0xffffffffL;
+                    }
+                }
+                s.records++;
+                n++;
+                handler.hop(time, s.srcIp, s.dstIp, mapInfo, hop, s.hops,
+                            (mapInfo & DPID_BIT) != 0 ? tuple >>> 16 : -1,
+                            (mapInfo & IN_PORT_BIT) != 0 ? (int) (tuple >>> 8) & 0xff : -1,
+                            (mapInfo & OUT_PORT_BIT) != 0 ? (int) tuple & 0xff : -1,
+                            ingressTime, hopLatency, bandwidth);
+            }
+            return n;
+        }
+    }
+
+    static long flow(int srcIp, int dstIp) {
+        return (long) srcIp << 32 | dstIp & 0xffffffffL;
+    }
+
+    /**
+     * key -> code, open addressing, of the Encoder.
+     */
+    private static final class Dictionary {
+        private final long[] keys;
+        /* code + 1, 0 is a free slot */
+        private final int[] codes;
+
+        private Dictionary(int maxCodes) {
+            keys = new long[maxCodes * 2];
+            codes = new int[maxCodes * 2];
+        }
+
+        /* the slot of 'key', free or holding it. */
+        int slot(long key) {
+            int mask = keys.length - 1;
+            long h = key * 0x9e3779b97f4a7c15L;
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (codes[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /* -1 if the slot is free. */
+        int code(int slot) {
+            return codes[slot] - 1;
+        }
+
+        void put(int slot, long key, int code) {
+            keys[slot] = key;
+            codes[slot] = code + 1;
+        }
+
+        void clear() {
+            Arrays.fill(codes, 0);
+        }
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /* LEB128, 7 bits per byte, the low bits first. */
+    static void writeVarLong(ByteBuffer out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("varint longer than 10 bytes");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring of decoded INT hop records, from the packet threads to the collector.
+ *
+ * A record is one hop of one INT packet, kept in primitive columns indexed by slot, so
+ * that neither put() nor drain() allocates. Any number of producers claim the slots of a
+ * whole packet with one CAS, so the hops of a packet are consecutive. One consumer drains
+ * them. When the ring is full, the packet is dropped and counted, producers never wait.
+ */
+public class IntRecordRing {
+
+    /**
+     * receives one hop record, fields not in mapInfo are -1.
+     */
+    public interface HopHandler {
+        /**
+         * @param time receive time of the packet, in ms
+         * @param hop position in the INT data stack, 0 is the last switch the packet crossed
+         * @param hops hops of the packet, the records of hop 0..hops-1 are consecutive
+         */
+        void hop(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                 long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth);
+    }
+
+    private final int capacity;
+    private final int mask;
+
+    /* next sequence to claim, by the producers */
+    private final AtomicLong tail = new AtomicLong();
+    /* next sequence to drain, by the consumer */
+    private final AtomicLong head = new AtomicLong();
+    /* slot -> sequence + 1 once its record is written */
+    private final AtomicLongArray published;
+
+    private final long[] time;
+    private final int[] srcIp;
+    private final int[] dstIp;
+    private final int[] mapInfo;
+    private final int[] hop;
+    private final int[] hops;
+    private final long[] dpid;
+    private final int[] inPort;
+    private final int[] outPort;
+    private final long[] ingressTime;
+    private final int[] hopLatency;
+    private final long[] bandwidth;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /* @param capacity hop records, rounded up to a power of 2 */
+    public IntRecordRing(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("ring capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = this.capacity - 1;
+        published = new AtomicLongArray(this.capacity);
+        time = new long[this.capacity];
+        srcIp = new int[this.capacity];
+        dstIp = new int[this.capacity];
+        mapInfo = new int[this.capacity];
+        hop = new int[this.capacity];
+        hops = new int[this.capacity];
+        dpid = new long[this.capacity];
+        inPort = new int[this.capacity];
+        outPort = new int[this.capacity];
+        ingressTime = new long[this.capacity];
+        hopLatency = new int[this.capacity];
+        bandwidth = new long[this.capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * claims the slots of the 'n' hops of one packet.
+     *
+     * @return the sequence of the first hop, -1 if the ring has no room, then the packet is dropped
+     */
+    public long claim(int n) {
+        while (true) {
+            long t = tail.get();
+            if (n > capacity || t + n - head.get() > capacity) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+            if (tail.compareAndSet(t, t + n)) {
+                return t;
+            }
+        }
+    }
+
+    /* writes and publishes the record of claimed sequence 'seq'. */
+    public void put(long seq, long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                    long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        int slot = (int) (seq & mask);
+        this.time[slot] = time;
+        this.srcIp[slot] = srcIp;
+        this.dstIp[slot] = dstIp;
+        this.mapInfo[slot] = mapInfo;
+        this.hop[slot] = hop;
+        this.hops[slot] = hops;
+        this.dpid[slot] = dpid;
+        this.inPort[slot] = inPort;
+        this.outPort[slot] = outPort;
+        this.ingressTime[slot] = ingressTime;
+        this.hopLatency[slot] = hopLatency;
+        this.bandwidth[slot] = bandwidth;
+        /* ordered after the plain writes above, seen by the consumer's volatile get(). */
+        published.lazySet(slot, seq + 1);
+    }
+
+    /**
+     * passes the published records to 'handler' in sequence order. Single consumer.
+     * Stops at the first record claimed but not yet written.
+     *
+     * @return records drained, at most 'max'
+     */
+    public int drain(HopHandler handler, int max) {
+        long h = head.get();
+        int n = 0;
+        while (n < max) {
+            int slot = (int) (h & mask);
+            if (published.get(slot) != h + 1) {
+                break;
+            }
+            handler.hop(time[slot], srcIp[slot], dstIp[slot], mapInfo[slot], hop[slot], hops[slot],
+                        dpid[slot], inPort[slot], outPort[slot], ingressTime[slot], hopLatency[slot], bandwidth[slot]);
+            h++;
+            n++;
+        }
+        if (n > 0) {
+            head.lazySet(h);
+        }
+        return n;
+    }
+
+    /* records claimed but not drained yet. */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /* packets dropped because the ring was full. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "INT ring: " + head.get() + " hops drained, " + size() + " queued of " + capacity
+                + ", " + dropped.get() + " packets dropped";
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-bucketed latency histogram, as HdrHistogram does it: every power of 2 is split into
+ * SUB_BUCKETS linear buckets, so a value is kept within 1/SUB_BUCKETS (6.25%) of itself.
+ * Values up to 2^MAX_BITS - 1 are kept, larger ones count in the last bucket.
+ *
+ * record() takes no lock: the counts are in AtomicLongArray stripes, a writer starts on
+ * one stripe and the histogram adds a stripe when writers collide, up to one per core.
+ * A snapshot sums the stripes in two passes and allocates only the Snapshot.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_BITS = 40;
+    static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    /* the buckets of MAX_VALUE and below, see bucket() */
+    static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+    /* per stripe, after the buckets */
+    private static final int MAX_SLOT = BUCKETS;
+    private static final int SUM_SLOT = BUCKETS + 1;
+
+    private static final int MAX_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    private volatile AtomicLongArray[] stripes = {new AtomicLongArray(BUCKETS + 2)};
+
+    /* values below 2 * SUB_BUCKETS have a bucket each, then SUB_BUCKETS per power of 2. */
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /* the highest value of 'bucket'. */
+    static long highestValue(int bucket) {
+        int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long top = bucket - (long) shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /* @param value a latency >= 0, in the unit of the caller */
+    public void record(long value) {
+        long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        int bucket = bucket(v);
+        AtomicLongArray[] current = stripes;
+        AtomicLongArray stripe = current[stripe(current.length)];
+        long count = stripe.get(bucket);
+        if (!stripe.compareAndSet(bucket, count, count + 1)) {
+            stripe.incrementAndGet(bucket);
+            grow(current);
+        }
+        stripe.addAndGet(SUM_SLOT, v);
+        long max = stripe.get(MAX_SLOT);
+        while (v > max && !stripe.compareAndSet(MAX_SLOT, max, v)) {
+            max = stripe.get(MAX_SLOT);
+        }
+    }
+
+    private static int stripe(int stripes) {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9e3779b97f4a7c15L) >>> 32) & (stripes - 1);
+    }
+
+    /* writers collided on a stripe, add one. */
+    private synchronized void grow(AtomicLongArray[] seen) {
+        if (stripes != seen || seen.length >= MAX_STRIPES) {
+            return;
+        }
+        AtomicLongArray[] more = new AtomicLongArray[seen.length * 2];
+        System.arraycopy(seen, 0, more, 0, seen.length);
+        for (int i = seen.length; i < more.length; i++) {
+            more[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+        stripes = more;
+    }
+
+    public Snapshot snapshot() {
+        AtomicLongArray[] current = stripes;
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : current) {
+            for (int b = 0; b < BUCKETS; b++) {
+                count += stripe.get(b);
+            }
+            sum += stripe.get(SUM_SLOT);
+            max = Math.max(max, stripe.get(MAX_SLOT));
+        }
+        /* ranks of p50, p99 and p999, from 1 */
+        long r50 = rank(count, 0.5);
+        long r99 = rank(count, 0.99);
+        long r999 = rank(count, 0.999);
+        long p50 = 0;
+        long p99 = 0;
+        long p999 = 0;
+        long seen = 0;
+        for (int b = 0; b < BUCKETS && seen < r999; b++) {
+            long n = 0;
+            for (AtomicLongArray stripe : current) {
+                n += stripe.get(b);
+            }
+            if (n == 0) {
+                continue;
+            }
+            long high = Math.min(highestValue(b), max);
+            if (seen < r50 && seen + n >= r50) {
+                p50 = high;
+            }
+            if (seen < r99 && seen + n >= r99) {
+                p99 = high;
+            }
+            seen += n;
+            if (seen >= r999) {
+                p999 = high;
+            }
+        }
+        return new Snapshot(count, count == 0 ? 0 : sum / count, p50, p99, p999, max);
+    }
+
+    private static long rank(long count, double quantile) {
+        return Math.max(1, (long) Math.ceil(count * quantile));
+    }
+
+    /**
+     * p50, p99 and p999 of a histogram at the time of snapshot(), as the highest value of their bucket.
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        private Snapshot(long count, long mean, long p50, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long mean() {
+            return mean;
+        }
+
+        public long p50() {
+            return p50;
+        }
+
+        public long p99() {
+            return p99;
+        }
+
+        public long p999() {
+            return p999;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + count + ", mean: " + mean + ", p50: " + p50 + ", p99: " + p99
+                    + ", p999: " + p999 + ", max: " + max;
+        }
+    }
+}
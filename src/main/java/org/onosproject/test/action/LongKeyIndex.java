@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Gives each long key, such as a flow or a (dpid, in_port, out_port), a dense index from 0,
+ * so that its counters or histograms are in arrays, not in a Map of boxed keys.
+ *
+ * Linear probing over twice 'maxKeys' slots, a new key is added with a CAS, keys are
+ * never removed: index() takes no lock and does not allocate. Keys beyond 'maxKeys'
+ * get no index and are counted. Long.MIN_VALUE marks a free slot, it is kept as
+ * Long.MIN_VALUE + 1.
+ */
+public class LongKeyIndex {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    /* in indexes[]: the key has no index, the table was full */
+    private static final int NONE = -1;
+
+    private final int maxKeys;
+    private final int mask;
+    private final AtomicLongArray keys;
+    /* slot -> index + 1, 0 while the index is being assigned */
+    private final AtomicIntegerArray indexes;
+    /* index -> key */
+    private final AtomicLongArray keyOf;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong overflow = new AtomicLong();
+
+    public LongKeyIndex(int maxKeys) {
+        int size = 2;
+        while (size < 2 * maxKeys) {
+            size <<= 1;
+        }
+        this.maxKeys = maxKeys;
+        this.mask = size - 1;
+        keys = new AtomicLongArray(size);
+        indexes = new AtomicIntegerArray(size);
+        keyOf = new AtomicLongArray(maxKeys);
+        for (int i = 0; i < size; i++) {
+            keys.set(i, EMPTY);
+        }
+    }
+
+    public int maxKeys() {
+        return maxKeys;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /* the index of 'key', added if absent, -1 if there are already maxKeys keys. */
+    public int index(long key) {
+        long k = key == EMPTY ? EMPTY + 1 : key;
+        for (int i = hash(k) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long current = keys.get(i);
+            if (current == EMPTY) {
+                if (next.get() >= maxKeys) {
+                    overflow.incrementAndGet();
+                    return -1;
+                }
+                if (keys.compareAndSet(i, EMPTY, k)) {
+                    long index = next.getAndIncrement();
+                    if (index >= maxKeys) {
+                        indexes.set(i, NONE);
+                        overflow.incrementAndGet();
+                        return -1;
+                    }
+                    keyOf.set((int) index, k);
+                    indexes.set(i, (int) index + 1);
+                    return (int) index;
+                }
+                current = keys.get(i);
+            }
+            if (current == k) {
+                return await(i);
+            }
+        }
+        overflow.incrementAndGet();
+        return -1;
+    }
+
+    /* another thread added the key and is assigning its index. */
+    private int await(int slot) {
+        int index;
+        while ((index = indexes.get(slot)) == 0) {
+            Thread.yield();
+        }
+        return index == NONE ? -1 : index - 1;
+    }
+
+    /* the index of 'key', -1 if it has none. */
+    public int find(long key) {
+        long k = key == EMPTY ? EMPTY + 1 : key;
+        for (int i = hash(k) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long current = keys.get(i);
+            if (current == k) {
+                return await(i);
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /* the key of index 'index' < size(). */
+    public long key(int index) {
+        return keyOf.get(index);
+    }
+
+    /* keys with an index, their indexes are 0..size()-1. */
+    public int size() {
+        return (int) Math.min(next.get(), maxKeys);
+    }
+
+    /* lookups of keys which got no index. */
+    public long overflow() {
+        return overflow.get();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import com.google.common.collect.ImmutableList;
+import org.onosproject.floodlightpof.protocol.OFMatch20;
+import org.onosproject.floodlightpof.protocol.action.OFAction;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.instructions.DefaultPofActions;
+import org.onosproject.net.flow.instructions.DefaultPofInstructions;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the OFMatch20 fields, OFActions and TrafficTreatments used by the INT rules,
+ * so that regenerating thousands of entries reuses the prebuilt instances.
+ *
+ * The cached objects are shared: callers must not modify them, e.g. no setOffset()
+ * on a returned OFMatch20. The keys are few (fields, ports, mapInfo), so the maps
+ * are never cleared.
+ */
+public class PofActionTemplates {
+
+    /* (fieldId, offset, length) -> field */
+    private final Map<List<Object>, OFMatch20> fields = new ConcurrentHashMap<>();
+    /* (kind, args...) -> action */
+    private final Map<List<Object>, OFAction> actions = new ConcurrentHashMap<>();
+    /* actions -> apply_actions treatment */
+    private final Map<List<OFAction>, TrafficTreatment> treatments = new ConcurrentHashMap<>();
+
+    /* the field {offset, length}, 'name' is used only when the field is first built. */
+    public OFMatch20 field(short fieldId, String name, short offset, short length) {
+        return fields.computeIfAbsent(Arrays.asList(fieldId, offset, length), k -> {
+            OFMatch20 field = new OFMatch20();
+            field.setFieldName(name);
+            field.setFieldId(fieldId);
+            field.setOffset(offset);
+            field.setLength(length);
+            return field;
+        });
+    }
+
+    public OFAction output(int outport) {
+        return actions.computeIfAbsent(Arrays.asList("output", outport),
+                k -> DefaultPofActions.output((short) 0, (short) 0, (short) 0, outport).action());
+    }
+
+    /**
+     * @param fieldId -1 means the INT field
+     * @param offset in bits
+     * @param length in bits
+     * @param value hex str, such as mapInfo
+     */
+    public OFAction addField(short fieldId, short offset, int length, String value) {
+        return actions.computeIfAbsent(Arrays.asList("add_field", fieldId, offset, length, value),
+                k -> DefaultPofActions.addField(fieldId, offset, length, value).action());
+    }
+
+    /* increase the field {offset, length} by 'increment'. */
+    public OFAction modifyField(short fieldId, String name, short offset, short length, int increment) {
+        return actions.computeIfAbsent(Arrays.asList("modify_field", fieldId, offset, length, increment),
+                k -> DefaultPofActions.modifyField(field(fieldId, name, offset, length), increment).action());
+    }
+
+    public OFAction group(int groupId) {
+        return actions.computeIfAbsent(Arrays.asList("group", groupId),
+                k -> DefaultPofActions.group(groupId).action());
+    }
+
+    /* treatment with one apply_actions instruction, the list is copied. */
+    public TrafficTreatment treatment(List<OFAction> applyActions) {
+        return treatments.computeIfAbsent(ImmutableList.copyOf(applyActions), k -> {
+            TrafficTreatment.Builder treatment = DefaultTrafficTreatment.builder();
+            treatment.add(DefaultPofInstructions.applyActions(k));
+            return treatment.build();
+        });
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.table.FlowTable;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableService;
+import org.onosproject.net.table.FlowTableStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares a DesiredState with flowTableStore.getFlowEntries() and groupService.getGroups(),
+ * and sends only the adds, modifies and deletes needed to reach it.
+ *
+ * Order on each device: missing tables, new and changed groups, then the entries (waiting
+ * for the tables and groups to be confirmed), then the groups no longer desired, once the
+ * entries are applied. A group whose type changed is removed and added again, and the
+ * entries of the device are sent again since the switch drops those pointing to it.
+ *
+ * Only the groups of the owner of the DesiredState are removed: the ones it desired in an
+ * earlier reconcile, or given to own(). Devices and tables not in the DesiredState, and
+ * the groups of other owners, e.g. the INT paths, are left alone.
+ */
+public class Reconciler {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final FlowRuleService flowRuleService;
+    private final FlowTableService flowTableService;
+    private final FlowTableStore flowTableStore;
+    private final GroupService groupService;
+    private final InstallTracker installTracker;
+    private final ApplicationId appId;
+    private final long timeoutMs;
+    private final DeviceFlowControl flowControl;
+    private final FlowIdAllocator flowIds;
+
+    /* owner -> deviceId -> groups installed for it */
+    private final Map<String, Map<DeviceId, Set<GroupKey>>> owned = new ConcurrentHashMap<>();
+
+    /**
+     * @param flowControl limits the entries sent to each device, null means no limit
+     * @param flowIds the allocator of the entryIds of the desired entries
+     */
+    public Reconciler(FlowRuleService flowRuleService, FlowTableService flowTableService,
+                      FlowTableStore flowTableStore, GroupService groupService,
+                      InstallTracker installTracker, ApplicationId appId, long timeoutMs,
+                      DeviceFlowControl flowControl, FlowIdAllocator flowIds) {
+        this.flowRuleService = flowRuleService;
+        this.flowTableService = flowTableService;
+        this.flowTableStore = flowTableStore;
+        this.groupService = groupService;
+        this.installTracker = installTracker;
+        this.appId = appId;
+        this.timeoutMs = timeoutMs;
+        this.flowControl = flowControl;
+        this.flowIds = flowIds;
+    }
+
+    /* 'groupKey' was installed for 'owner' outside a reconcile, e.g. by the first run of a scenario. */
+    public void own(String owner, DeviceId deviceId, GroupKey groupKey) {
+        owned(owner, deviceId).add(groupKey);
+    }
+
+    private Set<GroupKey> owned(String owner, DeviceId deviceId) {
+        return owned.computeIfAbsent(owner, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(deviceId, k -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * @return completes with true when all entries are applied
+     */
+    public CompletableFuture<Boolean> reconcile(DesiredState desired) {
+        FlowRuleBatch batch = new FlowRuleBatch(flowRuleService, "reconcile-" + desired.name(), flowControl);
+        List<CompletableFuture<Boolean>> devices = new ArrayList<>();
+        for (DeviceId deviceId : desired.devices()) {
+            Set<GroupKey> ownedGroups = owned(desired.owner(), deviceId);
+            reconcileTables(deviceId, desired, batch);
+            List<GroupKey> staleGroups = new ArrayList<>();
+            boolean replaced = reconcileGroups(deviceId, desired.groups(deviceId), ownedGroups, staleGroups, batch);
+            /* (tableId, entryId) of the entries removed, free once the switch has removed them. */
+            List<long[]> removed = reconcileEntries(deviceId, desired, replaced, batch);
+            devices.add(batch.submit(deviceId).whenComplete((ok, e) -> {
+                if (!Boolean.TRUE.equals(ok)) {
+                    /* an entry may still point to a stale group, or still use its entryId. */
+                    log.warn("reconcile deviceId<{}>: entries not applied, {} stale groups and {} entryIds kept.",
+                             deviceId, staleGroups.size(), removed.size());
+                    return;
+                }
+                for (long[] entry : removed) {
+                    flowIds.release(deviceId, (int) entry[0], entry[1]);
+                }
+                for (GroupKey key : staleGroups) {
+                    send(deviceId, installTracker.groupRemoved(deviceId, key, timeoutMs),
+                         () -> groupService.removeGroup(deviceId, key, appId));
+                    ownedGroups.remove(key);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(devices.toArray(new CompletableFuture[0]))
+                .thenApply(v -> devices.stream().allMatch(CompletableFuture::join));
+    }
+
+    /* add the desired tables the device does not have, the entries wait for them. */
+    private void reconcileTables(DeviceId deviceId, DesiredState desired, FlowRuleBatch batch) {
+        int added = 0;
+        for (int tableId : desired.tables(deviceId)) {
+            if (flowTableStore.getFlowTable(deviceId, FlowTableId.valueOf(tableId)) != null) {
+                continue;
+            }
+            FlowTable table = desired.table(deviceId, tableId);
+            if (table == null) {
+                log.warn("reconcile deviceId<{}>: table<{}> is missing and has no definition.", deviceId, tableId);
+                continue;
+            }
+            batch.after(deviceId, installTracker.tableAdded(deviceId, tableId, timeoutMs));
+            flowTableService.applyFlowTables(table);
+            added++;
+        }
+        if (added > 0) {
+            log.info("reconcile deviceId<{}> tables: +{}", deviceId, added);
+        }
+    }
+
+    /**
+     * @param ownedGroups the groups of the owner on the device, the desired ones are added
+     * @param stale gets the groups to remove after the entries are applied
+     * @return true if a group was removed and added again
+     */
+    private boolean reconcileGroups(DeviceId deviceId, Map<GroupKey, GroupDescription> desired,
+                                    Set<GroupKey> ownedGroups, List<GroupKey> stale, FlowRuleBatch batch) {
+        int added = 0, modified = 0, replaced = 0;
+        for (Group group : groupService.getGroups(deviceId, appId)) {
+            if (ownedGroups.contains(group.appCookie()) && !desired.containsKey(group.appCookie())) {
+                stale.add(group.appCookie());
+            }
+        }
+        /* groups already removed by their owner, e.g. an older version of a select group. */
+        ownedGroups.removeIf(key -> !desired.containsKey(key) && groupService.getGroup(deviceId, key) == null);
+        ownedGroups.addAll(desired.keySet());
+
+        for (GroupDescription group : desired.values()) {
+            GroupKey key = group.appCookie();
+            Group existed = groupService.getGroup(deviceId, key);
+            if (existed == null) {
+                batch.after(deviceId, send(deviceId, installTracker.groupAdded(deviceId, key, timeoutMs),
+                                           () -> groupService.addGroup(group)));
+                added++;
+            } else if (existed.type() != group.type()) {
+                /* setBucketsForGroup() keeps the type, the group is added again under the same key and groupId. */
+                CompletableFuture<Void> removed = send(deviceId, installTracker.groupRemoved(deviceId, key, timeoutMs),
+                                                       () -> groupService.removeGroup(deviceId, key, appId));
+                batch.after(deviceId, removed.thenCompose(
+                        v -> send(deviceId, installTracker.groupAdded(deviceId, key, timeoutMs),
+                                  () -> groupService.addGroup(group))));
+                replaced++;
+            } else if (!Objects.equals(existed.buckets(), group.buckets())) {
+                batch.after(deviceId, send(deviceId, installTracker.groupUpdated(deviceId, key, timeoutMs),
+                                           () -> groupService.setBucketsForGroup(deviceId, key, group.buckets(), key, appId)));
+                modified++;
+            }
+        }
+        log.info("reconcile deviceId<{}> groups: +{} ~{} !{} -{}", deviceId, added, modified, replaced, stale.size());
+        return replaced > 0;
+    }
+
+    /**
+     * sends one group operation within the flow control of the device, as the entries are.
+     * @param confirmed registered before 'operation' is sent, completes when the device confirmed it
+     * @return 'confirmed'
+     */
+    private CompletableFuture<Void> send(DeviceId deviceId, CompletableFuture<Void> confirmed, Runnable operation) {
+        if (flowControl == null) {
+            operation.run();
+            return confirmed;
+        }
+        flowControl.submit(deviceId, 1, () -> {
+            operation.run();
+            return confirmed;
+        });
+        return confirmed;
+    }
+
+    /**
+     * @param resend send the unchanged entries again too, e.g. after a group was added again
+     * @return (tableId, entryId) of the entries removed
+     */
+    private List<long[]> reconcileEntries(DeviceId deviceId, DesiredState desired, boolean resend,
+                                          FlowRuleBatch batch) {
+        Map<DesiredState.EntryKey, FlowRule> wanted = desired.entries(deviceId);
+        List<long[]> removedIds = new ArrayList<>();
+        int added = 0, modified = 0, removed = 0;
+
+        for (int tableId : desired.tables(deviceId)) {
+            Map<Integer, FlowRule> existedFlowRules = flowTableStore.getFlowEntries(deviceId, FlowTableId.valueOf(tableId));
+            if (existedFlowRules == null) {
+                continue;
+            }
+            for (Map.Entry<Integer, FlowRule> existed : existedFlowRules.entrySet()) {
+                FlowRule flowRule = existed.getValue();
+                FlowRule want = wanted.remove(DesiredState.EntryKey.of(flowRule));
+                if (want != null) {
+                    /* the entry keeps its entryId on the switch, the one allocated for 'want' is unused. */
+                    flowIds.release(deviceId, tableId, want.id().value());
+                }
+                if (want == null) {
+                    batch.remove(flowRule);
+                    removedIds.add(new long[] {tableId, existed.getKey()});
+                    removed++;
+                } else if (resend || !Objects.equals(want.treatment(), flowRule.treatment())) {
+                    /* keep the entryId of the switch, only the treatment changes. */
+                    batch.modify(DefaultFlowRule.builder()
+                                         .forDevice(deviceId)
+                                         .forTable(tableId)
+                                         .withSelector(want.selector())
+                                         .withTreatment(want.treatment())
+                                         .withPriority(want.priority())
+                                         .withCookie(existed.getKey())
+                                         .makePermanent()
+                                         .build());
+                    modified++;
+                }
+            }
+        }
+
+        /* not on the switch yet. */
+        for (FlowRule want : wanted.values()) {
+            batch.add(want);
+            added++;
+        }
+        log.info("reconcile deviceId<{}> entries: +{} ~{} -{}", deviceId, added, modified, removed);
+        return removedIds;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Runs the timeline of a test scenario on its own scheduled thread, so that
+ * activate() returns at once and deactivate() can cancel the pending steps.
+ *
+ * Each step is scheduled 'delayMs' after the previous step has finished,
+ * which replaces the Thread.sleep() calls between the steps. A step added by
+ * thenAwait() is finished only when its future completes, e.g. when the
+ * switches have confirmed the tables or entries sent by the step.
+ */
+public class ScenarioRunner {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final ScheduledExecutorService executor;
+    private final List<Step> steps = new ArrayList<>();
+
+    private int next = 0;
+    private boolean started = false;
+    private volatile boolean stopped = false;
+    private ScheduledFuture<?> pending;
+
+    public ScenarioRunner(String name) {
+        this.name = name;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/int-test", name + "-%d", log));
+    }
+
+    /**
+     * append a step to the timeline.
+     * @param delayMs wait how long after the previous step, in ms
+     * @param desc used for logs
+     * @param action the step
+     */
+    public ScenarioRunner then(long delayMs, String desc, Runnable action) {
+        return append(new Step(delayMs, desc, () -> {
+            action.run();
+            return CompletableFuture.completedFuture(null);
+        }));
+    }
+
+    /**
+     * append a step which is finished when the returned future completes,
+     * the next step starts right after it (successfully or not).
+     * @param desc used for logs
+     * @param action the step
+     */
+    public ScenarioRunner thenAwait(String desc, Supplier<CompletableFuture<?>> action) {
+        return append(new Step(0, desc, action));
+    }
+
+    /* start to run the steps appended so far, steps appended later run after them. */
+    public synchronized void start() {
+        if (started || stopped) {
+            return;
+        }
+        started = true;
+        log.info("scenario<{}>: start, {} steps.", name, steps.size());
+        scheduleNext();
+    }
+
+    /* cancel the pending steps and interrupt the running one. */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            if (pending != null) {
+                pending.cancel(true);
+                pending = null;
+            }
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.warn("scenario<{}>: step still running after stop.", name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("scenario<{}>: stopped, {}/{} steps done.", name, next, steps.size());
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /* the scheduler shared by the steps, e.g. for timeouts. */
+    public ScheduledExecutorService executor() {
+        return executor;
+    }
+
+    private synchronized ScenarioRunner append(Step step) {
+        steps.add(step);
+        if (started && pending == null) {
+            scheduleNext();
+        }
+        return this;
+    }
+
+    private synchronized void scheduleNext() {
+        if (stopped || next >= steps.size()) {
+            pending = null;
+            return;
+        }
+        Step step = steps.get(next);
+        pending = executor.schedule(() -> run(step), step.delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(Step step) {
+        if (stopped) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        CompletableFuture<?> done;
+        try {
+            done = step.action.get();
+        } catch (Exception e) {
+            done = new CompletableFuture<>();
+            done.completeExceptionally(e);
+        }
+        done.whenComplete((r, e) -> {
+            if (e == null) {
+                log.info("scenario<{}>: step<{}> done in {} ms.", name, step.desc, System.currentTimeMillis() - start);
+            } else {
+                log.warn("scenario<{}>: step<{}> failed after {} ms: {}", name, step.desc,
+                         System.currentTimeMillis() - start, e.toString());
+            }
+            synchronized (this) {
+                /* the step is finished, go on with the next one. */
+                pending = null;
+                next++;
+                scheduleNext();
+            }
+        });
+    }
+
+    private static final class Step {
+        private final long delayMs;
+        private final String desc;
+        private final Supplier<CompletableFuture<?>> action;
+
+        private Step(long delayMs, String desc, Supplier<CompletableFuture<?>> action) {
+            this.delayMs = delayMs;
+            this.desc = desc;
+            this.action = action;
+        }
+    }
+}
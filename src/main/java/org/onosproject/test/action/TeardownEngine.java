@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.group.GroupKey;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.table.FlowTableId;
+import org.onosproject.net.table.FlowTableService;
+import org.onosproject.net.table.FlowTableStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Removes the tables and groups of a scenario scoped to the (device, table) they belong to,
+ * instead of removeFlowRulesById(appId) once per table.
+ *
+ * Order on each device: the entries of its tables in one FlowRuleOperations, then its
+ * groups once no entry points to them, then its tables. Devices are torn down in parallel,
+ * run() completes when all of them are done or timed out.
+ */
+public class TeardownEngine {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final FlowRuleService flowRuleService;
+    private final FlowTableStore flowTableStore;
+    private final FlowTableService flowTableService;
+    private final GroupService groupService;
+    private final InstallTracker installTracker;
+    private final DeviceFlowControl flowControl;
+    private final FlowIdAllocator flowIds;
+    private final ApplicationId appId;
+    private final long timeoutMs;
+
+    /* deviceId -> tableIds to remove */
+    private final Map<DeviceId, Set<Integer>> tables = new LinkedHashMap<>();
+    /* deviceId -> groups to remove */
+    private final Map<DeviceId, Set<GroupKey>> groups = new LinkedHashMap<>();
+
+    /**
+     * @param flowControl limits the operations sent to each device, null means no limit
+     * @param timeoutMs wait how long for each step of a device to be confirmed
+     */
+    public TeardownEngine(String name, FlowRuleService flowRuleService, FlowTableStore flowTableStore,
+                          FlowTableService flowTableService, GroupService groupService,
+                          InstallTracker installTracker, DeviceFlowControl flowControl,
+                          FlowIdAllocator flowIds, ApplicationId appId, long timeoutMs) {
+        this.name = name;
+        this.flowRuleService = flowRuleService;
+        this.flowTableStore = flowTableStore;
+        this.flowTableService = flowTableService;
+        this.groupService = groupService;
+        this.installTracker = installTracker;
+        this.flowControl = flowControl;
+        this.flowIds = flowIds;
+        this.appId = appId;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /* the table and its entries. */
+    public synchronized TeardownEngine removeTable(DeviceId deviceId, int tableId) {
+        tables.computeIfAbsent(deviceId, k -> new LinkedHashSet<>()).add(tableId);
+        return this;
+    }
+
+    public synchronized TeardownEngine removeGroup(DeviceId deviceId, GroupKey groupKey) {
+        groups.computeIfAbsent(deviceId, k -> new LinkedHashSet<>()).add(groupKey);
+        return this;
+    }
+
+    /**
+     * @return completes with true if all devices confirmed the removal of their entries and groups
+     */
+    public CompletableFuture<Boolean> run() {
+        Set<DeviceId> devices;
+        synchronized (this) {
+            devices = new LinkedHashSet<>(tables.keySet());
+            devices.addAll(groups.keySet());
+        }
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (DeviceId deviceId : devices) {
+            results.add(teardown(deviceId, start));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .thenApply(v -> results.stream().allMatch(CompletableFuture::join))
+                .whenComplete((ok, e) -> log.info("teardown<{}>: {} devices in {} ms, ok: {}",
+                                                  name, devices.size(), System.currentTimeMillis() - start, ok));
+    }
+
+    private CompletableFuture<Boolean> teardown(DeviceId deviceId, long start) {
+        Set<Integer> deviceTables;
+        Set<GroupKey> deviceGroups;
+        synchronized (this) {
+            deviceTables = tables.getOrDefault(deviceId, new LinkedHashSet<>());
+            deviceGroups = groups.getOrDefault(deviceId, new LinkedHashSet<>());
+        }
+
+        /* 1. entries of the tables only, one FlowRuleOperations. */
+        FlowRuleBatch batch = new FlowRuleBatch(flowRuleService, "teardown-" + name, flowControl);
+        int entries = 0;
+        for (int tableId : deviceTables) {
+            Map<Integer, FlowRule> existedFlowRules = flowTableStore.getFlowEntries(deviceId, FlowTableId.valueOf(tableId));
+            if (existedFlowRules == null) {
+                continue;
+            }
+            for (FlowRule flowRule : existedFlowRules.values()) {
+                batch.remove(flowRule);
+                entries++;
+            }
+        }
+        final int removedEntries = entries;
+        CompletableFuture<Boolean> entriesRemoved = installTracker.within(batch.submit(deviceId), timeoutMs)
+                .exceptionally(e -> false);
+
+        /* 2. groups, no entry points to them any more. */
+        CompletableFuture<Boolean> groupsRemoved = entriesRemoved.thenCompose(ok -> {
+            List<CompletableFuture<Void>> removed = new ArrayList<>();
+            for (GroupKey key : deviceGroups) {
+                removed.add(send(deviceId, installTracker.groupRemoved(deviceId, key, timeoutMs),
+                                 () -> groupService.removeGroup(deviceId, key, appId)));
+            }
+            return CompletableFuture.allOf(removed.toArray(new CompletableFuture[0]))
+                    .handle((r, e) -> ok && e == null);
+        });
+
+        /* 3. the tables, only if their entries and the groups are gone, a table is not removed under its entries. */
+        return groupsRemoved.thenApply(ok -> {
+            if (!ok) {
+                log.warn("teardown<{}>: deviceId<{}> entries or groups not confirmed removed, keep tables {}",
+                         name, deviceId, deviceTables);
+            } else if (!deviceTables.isEmpty()) {
+                flowTableService.removeFlowTablesByTableId(deviceId, deviceTables.stream()
+                        .map(FlowTableId::valueOf).toArray(FlowTableId[]::new));
+                deviceTables.forEach(tableId -> flowIds.forgetTable(deviceId, tableId));
+            }
+            log.info("teardown<{}>: deviceId<{}> {} entries, {} groups, {} tables in {} ms, ok: {}", name, deviceId,
+                     removedEntries, deviceGroups.size(), deviceTables.size(), System.currentTimeMillis() - start, ok);
+            return ok;
+        });
+    }
+
+    /* 'operation' through the flow control of the device, 'confirmed' completes when the device confirms it. */
+    private CompletableFuture<Void> send(DeviceId deviceId, CompletableFuture<Void> confirmed, Runnable operation) {
+        if (flowControl == null) {
+            operation.run();
+            return confirmed;
+        }
+        flowControl.submit(deviceId, 1, () -> {
+            operation.run();
+            return confirmed;
+        });
+        return confirmed;
+    }
+}
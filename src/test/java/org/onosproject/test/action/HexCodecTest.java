@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of HexCodec encoding and decoding round trips.
+ */
+public class HexCodecTest {
+
+    @Test
+    public void encode() {
+        assertEquals("00", HexCodec.toHex((byte) 0));
+        assertEquals("ff", HexCodec.toHex((byte) -1));
+        assertEquals("0908", HexCodec.toHex((short) 0x0908));
+        assertEquals("ffff", HexCodec.toHex((short) -1));
+        assertEquals("0a000001", HexCodec.toHex(0x0a000001));
+        assertEquals("0a0b", HexCodec.toHex(new byte[] {0x0a, 0x0b}));
+        assertEquals("", HexCodec.toHex(new byte[0]));
+        assertEquals("19180016", HexCodec.append(HexCodec.append(new StringBuilder(), 0x1918, 2), 0x16, 2).toString());
+    }
+
+    @Test
+    public void byteRoundTrip() {
+        for (int b = -128; b < 128; b++) {
+            String hex = HexCodec.toHex((byte) b);
+            assertEquals(Integer.toHexString(b & 0xff), Integer.toHexString((int) HexCodec.toLong(hex)));
+            assertEquals((byte) b, HexCodec.toBytes(hex)[0]);
+        }
+    }
+
+    @Test
+    public void valueRoundTrip() {
+        Random random = new Random(1);
+        for (int n = 0; n < 1000; n++) {
+            short s = (short) random.nextInt();
+            assertEquals(s, (short) HexCodec.toLong(HexCodec.toHex(s)));
+            int i = random.nextInt();
+            assertEquals(i, (int) HexCodec.toLong(HexCodec.toHex(i)));
+            long l = random.nextLong();
+            assertEquals(l, HexCodec.toLong(HexCodec.append(new StringBuilder(), l, 8).toString()));
+            byte[] bytes = new byte[1 + random.nextInt(32)];
+            random.nextBytes(bytes);
+            assertArrayEquals(bytes, HexCodec.toBytes(HexCodec.toHex(bytes)));
+        }
+    }
+
+    @Test
+    public void decodeUpperCase() {
+        assertEquals(0x0aff, HexCodec.toLong("0AFF"));
+        assertArrayEquals(new byte[] {0x0a, (byte) 0xff}, HexCodec.toBytes("0AfF"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddLength() {
+        HexCodec.toBytes("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notHex() {
+        HexCodec.toLong("0g");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLong() {
+        HexCodec.toLong("00112233445566778");
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of IntCollector.receive() decoding the hops of INT packets, with and without the path proof.
+ */
+public class IntCollectorTest {
+
+    private static final int SRC_IP = 0x0a000001;
+    private static final int DST_IP = 0x0a000002;
+
+    private IntCollector collector;
+    /* the 12 fields of each hop drained, as HopHandler takes them */
+    private final List<long[]> hops = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        collector = new IntCollector(64);
+        collector.addHandler((time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                              ingressTime, hopLatency, bandwidth) -> this.hops.add(new long[] {
+                time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort, ingressTime, hopLatency, bandwidth}));
+    }
+
+    /* the fields of hop 'hop', from the top of the stack: 0x3f gives them all. */
+    private static long[] fields(int hop) {
+        return new long[] {0x10 + hop, 1 + hop, 0xf0 + hop, 0x0102030405060708L + hop, 0xff00 + hop, 0x80000000L + hop};
+    }
+
+    /**
+     * the INT packet of 'hops' hops with the fields of 'mapInfo', then a few bytes of payload.
+     * @param proof a proof byte after each dpid, as with TEST_PATH_FUNCTION
+     */
+    private static ByteBuffer packet(int mapInfo, int ttl, int hops, boolean proof) {
+        IntHeaderLayout layout = IntHeaderLayout.of(mapInfo);
+        int stride = layout.recordBytes() + (proof ? IntPathVerifier.PROOF_BYTES : 0);
+        ByteBuffer buf = ByteBuffer.allocate(IntHeaderLayout.INT_DATA_BASE_BYTES + hops * stride + 3);
+        buf.putInt(IntHeaderLayout.IPV4_SRC_OFF / 8, SRC_IP);
+        buf.putInt(IntHeaderLayout.IPV4_DST_OFF / 8, DST_IP);
+        int base = IntHeaderLayout.INT_HEADER_BASE_BYTES;
+        buf.putShort(base, (short) IntCollector.INT_TYPE);
+        buf.put(base + 2, (byte) ttl);
+        buf.put(base + 3, (byte) mapInfo);
+        buf.position(IntHeaderLayout.INT_DATA_BASE_BYTES);
+        for (int hop = 0; hop < hops; hop++) {
+            long[] fields = fields(hop);
+            for (IntHeaderLayout.Field field : IntHeaderLayout.Field.values()) {
+                if (!layout.has(field)) {
+                    continue;
+                }
+                long value = fields[field.ordinal()];
+                for (int i = field.bytes() - 1; i >= 0; i--) {
+                    buf.put((byte) (value >>> (8 * i)));
+                }
+                if (field == IntHeaderLayout.Field.DPID && proof) {
+                    buf.put((byte) 0x5a);
+                }
+            }
+        }
+        buf.position(0);
+        return buf;
+    }
+
+    /* the hops drained against fields(), -1 for the fields not in 'mapInfo'. */
+    private void assertHops(int mapInfo, int n) {
+        assertEquals(n, collector.drain(100));
+        assertEquals(n, hops.size());
+        IntHeaderLayout layout = IntHeaderLayout.of(mapInfo);
+        for (int hop = 0; hop < n; hop++) {
+            long[] fields = fields(hop);
+            long[] expected = {1000, SRC_IP, DST_IP, mapInfo, hop, n, 0, 0, 0, 0, 0, 0};
+            for (IntHeaderLayout.Field field : IntHeaderLayout.Field.values()) {
+                expected[6 + field.ordinal()] = layout.has(field) ? fields[field.ordinal()] : -1;
+            }
+            assertArrayEquals("hop " + hop, expected, hops.get(hop));
+        }
+    }
+
+    @Test
+    public void allFields() {
+        assertEquals(3, collector.receive(packet(0x3f, 3, 3, false), 1000));
+        assertHops(0x3f, 3);
+    }
+
+    @Test
+    public void someFields() {
+        for (int mapInfo : new int[] {0x01, 0x20, 0x18, 0x26}) {
+            hops.clear();
+            assertEquals(2, collector.receive(packet(mapInfo, 2, 2, false), 1000));
+            assertHops(mapInfo, 2);
+        }
+    }
+
+    /* the proof byte after the dpid is skipped, the fields after it are read past it. */
+    @Test
+    public void proofStride() {
+        collector.setVerifier(new IntPathVerifier(AppComponent.PATH_FUNC_K, AppComponent.PATH_FUNC_B, 16));
+        collector.verifier().setPaths(Arrays.asList(new long[] {0x12, 0x11, 0x10}));
+        assertEquals(3, collector.receive(packet(0x3f, 3, 3, true), 1000));
+        assertHops(0x3f, 3);
+
+        /* without a dpid there is no proof either */
+        hops.clear();
+        assertEquals(2, collector.receive(packet(0x20, 2, 2, false), 1000));
+        assertHops(0x20, 2);
+    }
+
+    /* INT-TTL counts the hops, the rest of the packet is payload. */
+    @Test
+    public void ttlBelowStack() {
+        assertEquals(2, collector.receive(packet(0x3f, 2, 3, false), 1000));
+        assertHops(0x3f, 2);
+    }
+
+    @Test
+    public void notInt() {
+        ByteBuffer buf = packet(0x3f, 1, 1, false);
+        buf.putShort(IntHeaderLayout.INT_HEADER_BASE_BYTES, (short) 0x0800);
+        assertEquals(-1, collector.receive(buf, 1000));
+        assertEquals(-1, collector.receive(ByteBuffer.allocate(20), 1000));
+        assertEquals(0, collector.drain(100));
+    }
+
+    /* the ring drops the whole packet, not some of its hops. */
+    @Test
+    public void ringFull() {
+        IntCollector small = new IntCollector(4);
+        assertEquals(3, small.receive(packet(0x01, 3, 3, false), 1000));
+        assertEquals(0, small.receive(packet(0x01, 3, 3, false), 1000));
+        assertEquals(1, small.ring().dropped());
+        assertEquals(3, small.ring().size());
+    }
+}
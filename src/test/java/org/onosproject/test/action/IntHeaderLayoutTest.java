@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of IntHeaderLayout offsets and reads for several mapInfo values.
+ */
+public class IntHeaderLayoutTest {
+
+    private static final int[] MAP_INFOS = {0x00, 0x01, 0x3f, 0x20, 0x18, 0x09, 0x26};
+
+    @Test
+    public void recordBytes() {
+        assertEquals(0, IntHeaderLayout.of(0x00).recordBytes());
+        assertEquals(4, IntHeaderLayout.of(0x01).recordBytes());
+        assertEquals(20, IntHeaderLayout.of(0x3f).recordBytes());
+        assertEquals(4, IntHeaderLayout.of(0x20).recordBytes());
+        assertEquals(10, IntHeaderLayout.of(0x18).recordBytes());
+        assertEquals(160, IntHeaderLayout.of(0x3f).recordBits());
+        assertSame(IntHeaderLayout.of(0x3f), IntHeaderLayout.of("3f"));
+        /* the bits above 0x3f add nothing */
+        assertEquals(20, IntHeaderLayout.of(0xff).recordBytes());
+    }
+
+    @Test
+    public void fieldOff() {
+        IntHeaderLayout all = IntHeaderLayout.of(0x3f);
+        assertEquals(IntHeaderLayout.INT_HEADER_DATA_OFF, all.fieldOff(0, IntHeaderLayout.Field.DPID));
+        assertEquals(304 + 32, all.fieldOff(0, IntHeaderLayout.Field.IN_PORT));
+        assertEquals(304 + 48, all.fieldOff(0, IntHeaderLayout.Field.INGRESS_TIME));
+        assertEquals(304 + 128, all.fieldOff(0, IntHeaderLayout.Field.BANDWIDTH));
+        assertEquals(304 + 160, all.fieldOff(1, IntHeaderLayout.Field.DPID));
+
+        IntHeaderLayout bandwidth = IntHeaderLayout.of(0x20);
+        assertEquals(-1, bandwidth.fieldOff(0, IntHeaderLayout.Field.DPID));
+        assertEquals(304, bandwidth.fieldOff(0, IntHeaderLayout.Field.BANDWIDTH));
+        assertEquals(304 + 2 * 32, bandwidth.fieldOff(2, IntHeaderLayout.Field.BANDWIDTH));
+
+        /* ingress_time and hop_latency, 10 bytes per hop */
+        IntHeaderLayout latency = IntHeaderLayout.of(0x18);
+        assertEquals(304 + 80 + 64, latency.fieldOff(1, IntHeaderLayout.Field.HOP_LATENCY));
+        assertEquals(-1, latency.fieldOff(1, IntHeaderLayout.Field.OUT_PORT));
+    }
+
+    /* the fields are laid out one after the other in bit order, and both reads agree. */
+    @Test
+    public void read() {
+        Random random = new Random(1);
+        for (int mapInfo : MAP_INFOS) {
+            IntHeaderLayout layout = IntHeaderLayout.of(mapInfo);
+            int hops = 3;
+            byte[] packet = new byte[layout.recordOffset(hops)];
+            random.nextBytes(packet);
+            ByteBuffer buf = ByteBuffer.wrap(packet);
+            for (int hop = 0; hop < hops; hop++) {
+                int record = layout.recordOffset(hop);
+                int offset = 0;
+                for (IntHeaderLayout.Field field : IntHeaderLayout.Field.values()) {
+                    if (!layout.has(field)) {
+                        assertEquals(-1, layout.offset(field));
+                        assertEquals(-1, layout.read(buf, record, field));
+                        continue;
+                    }
+                    assertEquals(offset, layout.offset(field));
+                    long expected = 0;
+                    for (int i = 0; i < field.bytes(); i++) {
+                        expected = expected << 8 | (packet[record + offset + i] & 0xff);
+                    }
+                    assertEquals(layout + " " + field, expected, layout.read(packet, record, field));
+                    assertEquals(layout + " " + field, expected, layout.read(buf, record, field));
+                    offset += field.bytes();
+                }
+                assertEquals(layout.recordBytes(), offset);
+            }
+            /* no field, no hop to count */
+            assertEquals(mapInfo == 0 ? 0 : hops, layout.hops(packet.length));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readFieldNotInMapInfo() {
+        IntHeaderLayout.of(0x01).read(new byte[64], IntHeaderLayout.INT_DATA_BASE_BYTES, IntHeaderLayout.Field.BANDWIDTH);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of IntJournal time ranges, across segments and after reopening the journal.
+ */
+public class IntJournalTest {
+
+    /* 10 records per segment, so that the ranges cross segments */
+    private static final int SEGMENT_BYTES = IntJournal.HEADER_BYTES + 10 * IntJournal.RECORD_BYTES;
+    private static final int MAX_SEGMENTS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* record i has time 100 + i and dpid i. */
+    private static void append(IntJournal journal, int from, int to) {
+        for (int i = from; i < to; i++) {
+            journal.hop(100 + i, 0x0a000001, 0x0a000002, 0x3f, 0, 1, i, 1, 2, 1000 + i, 5, 10000);
+        }
+    }
+
+    private static List<Long> dpids(IntJournal journal, long fromTime, long toTime) {
+        List<Long> dpids = new ArrayList<>();
+        journal.scan(fromTime, toTime, (time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                                        ingressTime, hopLatency, bandwidth) -> dpids.add(dpid));
+        return dpids;
+    }
+
+    private static int sliced(IntJournal journal, long fromTime, long toTime) {
+        int[] records = new int[1];
+        journal.slices(fromTime, toTime, slice -> records[0] += slice.remaining() / IntJournal.RECORD_BYTES);
+        return records[0];
+    }
+
+    @Test
+    public void openEndedRange() throws IOException {
+        IntJournal journal = new IntJournal(folder.getRoot().toPath(), SEGMENT_BYTES, MAX_SEGMENTS);
+        append(journal, 0, 35);
+
+        assertEquals(35, dpids(journal, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(35, sliced(journal, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(5, sliced(journal, 130, Long.MAX_VALUE));
+        assertEquals(Long.valueOf(30), dpids(journal, 130, Long.MAX_VALUE).get(0));
+        assertEquals(12, sliced(journal, 105, 116));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(35, journal.export(Long.MIN_VALUE, Long.MAX_VALUE, Channels.newChannel(out)));
+        int[] decoded = new int[1];
+        new IntRecordCodec.Decoder().decode(ByteBuffer.wrap(out.toByteArray()),
+                                            (time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                                             ingressTime, hopLatency, bandwidth) -> decoded[0]++);
+        assertEquals(35, decoded[0]);
+        journal.close();
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        IntJournal journal = new IntJournal(dir, SEGMENT_BYTES, MAX_SEGMENTS);
+        append(journal, 0, 25);
+        journal.close();
+
+        IntJournal reopened = new IntJournal(dir, SEGMENT_BYTES, MAX_SEGMENTS);
+        assertEquals(25, reopened.size());
+        assertEquals(25, sliced(reopened, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        /* the last segment is continued, times stay nondecreasing. */
+        append(reopened, 25, 40);
+        reopened.hop(0, 0x0a000001, 0x0a000002, 0x3f, 0, 1, 40, 1, 2, 1040, 5, 10000);
+        assertEquals(41, reopened.size());
+        List<Long> dpids = dpids(reopened, 120, Long.MAX_VALUE);
+        assertEquals(21, dpids.size());
+        for (int i = 0; i < dpids.size(); i++) {
+            assertEquals(Long.valueOf(20 + i), dpids.get(i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void oldestSegmentsDeleted() throws IOException {
+        IntJournal journal = new IntJournal(folder.getRoot().toPath(), SEGMENT_BYTES, 2);
+        append(journal, 0, 35);
+        /* the segments of records 20..29 and 30..34 */
+        assertEquals(15, journal.size());
+        assertEquals(Long.valueOf(20), dpids(journal, Long.MIN_VALUE, Long.MAX_VALUE).get(0));
+        journal.close();
+    }
+}
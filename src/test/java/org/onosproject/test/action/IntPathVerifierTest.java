@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of IntPathVerifier against packets carrying the func byte the switches are given.
+ */
+public class IntPathVerifierTest {
+
+    private static final int SRC_IP = 0x0a000001;
+    private static final int DST_IP = 0x0a000002;
+
+    /* source to sink, with dpids which are not decimal digits */
+    private static final long[] PATH = {0x01, 0x0a, 0x10, 0x1f};
+
+    private IntPathVerifier verifier;
+
+    @Before
+    public void setUp() {
+        verifier = new IntPathVerifier(AppComponent.PATH_FUNC_K, AppComponent.PATH_FUNC_B, 16);
+        verifier.setPaths(Arrays.asList(PATH, new long[] {0x01, 0x02, 0x1f}));
+    }
+
+    /* the INT packet after 'path', each hop adds its dpid and the func byte of AppComponent. */
+    private static ByteBuffer packet(long[] path, byte[] proofs) {
+        int hops = path.length;
+        ByteBuffer buf = ByteBuffer.allocate(IntHeaderLayout.INT_DATA_BASE_BYTES
+                                                     + hops * (4 + IntPathVerifier.PROOF_BYTES));
+        buf.putInt(IntHeaderLayout.IPV4_SRC_OFF / 8, SRC_IP);
+        buf.putInt(IntHeaderLayout.IPV4_DST_OFF / 8, DST_IP);
+        int base = IntHeaderLayout.INT_HEADER_BASE_BYTES;
+        buf.putShort(base, (short) IntCollector.INT_TYPE);
+        buf.put(base + 2, (byte) hops);
+        buf.put(base + 3, (byte) 0x01);
+        /* the sink is on top of the stack. */
+        int record = IntHeaderLayout.INT_DATA_BASE_BYTES;
+        for (int i = hops - 1; i >= 0; i--) {
+            buf.putInt(record, (int) path[i]);
+            buf.put(record + 4, proofs[i]);
+            record += 4 + IntPathVerifier.PROOF_BYTES;
+        }
+        return buf;
+    }
+
+    private static byte[] switchProofs(long[] path) {
+        byte[] proofs = new byte[path.length];
+        for (int i = 0; i < path.length; i++) {
+            proofs[i] = HexCodec.toBytes(AppComponent.func_byte_hex(path[i]))[0];
+        }
+        return proofs;
+    }
+
+    @Test
+    public void switchProofIsValid() {
+        assertEquals(IntPathVerifier.VALID, verifier.verify(packet(PATH, switchProofs(PATH))));
+        assertEquals(1, verifier.count(SRC_IP, DST_IP, IntPathVerifier.VALID));
+    }
+
+    @Test
+    public void funcByteOfHexDpid() {
+        /* 2 * 0x10 + 1 */
+        assertEquals("21", AppComponent.func_byte_hex(0x10));
+        assertEquals(verifier.proof(0x1f), HexCodec.toBytes(AppComponent.func_byte_hex(0x1f))[0]);
+    }
+
+    @Test
+    public void badProof() {
+        byte[] proofs = switchProofs(PATH);
+        proofs[2]++;
+        assertEquals(IntPathVerifier.BAD_PROOF, verifier.verify(packet(PATH, proofs)));
+    }
+
+    @Test
+    public void unknownPath() {
+        long[] detour = {0x01, 0x0a, 0x1f};
+        assertEquals(IntPathVerifier.UNKNOWN_PATH, verifier.verify(packet(detour, switchProofs(detour))));
+        /* a prefix of a provisioned path is not a whole path. */
+        long[] prefix = {0x0a, 0x10, 0x1f};
+        assertEquals(IntPathVerifier.UNKNOWN_PATH, verifier.verify(packet(prefix, switchProofs(prefix))));
+    }
+}
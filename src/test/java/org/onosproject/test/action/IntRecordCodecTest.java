@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encoder to Decoder round trips of IntRecordCodec streams.
+ */
+public class IntRecordCodecTest {
+
+    private static final int[] MAP_INFOS = {0x01, 0x3f, 0x07, 0x38, 0x20, 0x09};
+
+    /* 12 fields per record, as HopHandler takes them, the fields not in mapInfo as -1 */
+    private final List<long[]> records = new ArrayList<>();
+
+    private void record(long time, int srcIp, int dstIp, int mapInfo, int hop, int hops,
+                        long dpid, int inPort, int outPort, long ingressTime, int hopLatency, long bandwidth) {
+        records.add(new long[] {time, srcIp, dstIp, mapInfo, hop, hops,
+                has(mapInfo, IntHeaderLayout.Field.DPID) ? dpid : -1,
+                has(mapInfo, IntHeaderLayout.Field.IN_PORT) ? inPort : -1,
+                has(mapInfo, IntHeaderLayout.Field.OUT_PORT) ? outPort : -1,
+                has(mapInfo, IntHeaderLayout.Field.INGRESS_TIME) ? ingressTime : -1,
+                has(mapInfo, IntHeaderLayout.Field.HOP_LATENCY) ? hopLatency : -1,
+                has(mapInfo, IntHeaderLayout.Field.BANDWIDTH) ? bandwidth : -1});
+    }
+
+    private static boolean has(int mapInfo, IntHeaderLayout.Field field) {
+        return (mapInfo & (1 << field.bit())) != 0;
+    }
+
+    /**
+     * encodes 'records' through buffers of 'bufferBytes', as IntJournal.export() writes them,
+     * then decodes the buffers in order.
+     *
+     * @return the encoder, for its counters
+     */
+    private IntRecordCodec.Encoder roundTrip(int bufferBytes) {
+        IntRecordCodec.Encoder encoder = new IntRecordCodec.Encoder();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.allocate(bufferBytes);
+        encoder.output(buf);
+        for (long[] r : records) {
+            if (!encode(encoder, r)) {
+                buf.flip();
+                buffers.add(buf);
+                buf = ByteBuffer.allocate(bufferBytes);
+                encoder.output(buf);
+                assertTrue(encode(encoder, r));
+            }
+        }
+        buf.flip();
+        buffers.add(buf);
+
+        IntRecordCodec.Decoder decoder = new IntRecordCodec.Decoder();
+        int[] decoded = new int[1];
+        for (ByteBuffer in : buffers) {
+            decoder.decode(in, (time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                                ingressTime, hopLatency, bandwidth) -> {
+                long[] expected = records.get(decoded[0]);
+                assertArrayEquals("record " + decoded[0], expected, new long[] {time, srcIp, dstIp, mapInfo, hop, hops,
+                        dpid, inPort, outPort, ingressTime, hopLatency, bandwidth});
+                decoded[0]++;
+            });
+        }
+        assertEquals(records.size(), decoded[0]);
+        assertEquals(records.size(), encoder.records());
+        return encoder;
+    }
+
+    private static boolean encode(IntRecordCodec.Encoder encoder, long[] r) {
+        return encoder.encode(r[0], (int) r[1], (int) r[2], (int) r[3], (int) r[4], (int) r[5],
+                              r[6], (int) r[7], (int) r[8], r[9], (int) r[10], r[11]);
+    }
+
+    @Test
+    public void mixedRoundTrip() {
+        Random random = new Random(1);
+        long time = 1000;
+        for (int packet = 0; packet < 5000; packet++) {
+            /* a few flows, each with its own path length, and a mapInfo changing now and then */
+            int flow = random.nextInt(8);
+            int hops = 1 + flow % 6;
+            int mapInfo = MAP_INFOS[(packet / 100 + flow) % MAP_INFOS.length];
+            time += random.nextInt(3);
+            for (int hop = 0; hop < hops; hop++) {
+                long dpid = hops - hop;
+                record(time, 0x0a000001 + flow, 0x0a000002, mapInfo, hop, hops,
+                       dpid, 1 + hop, 2 + hop, time * 1000 + random.nextInt(50) - hop * 10,
+                       random.nextInt(0x10000), 0xfffff000L + random.nextInt(0x1000));
+            }
+        }
+        /* time going back, and a hop out of order */
+        record(5, 0x0a000001, 0x0a000002, 0x3f, 0, 3, 7, 1, 2, -1L, 0xffff, 0xffffffffL);
+        record(6, 0x0a000001, 0x0a000002, 0x3f, 2, 3, 7, 255, 255, Long.MAX_VALUE, 0, 0);
+
+        IntRecordCodec.Encoder encoder = roundTrip(4096);
+        /* the same packets over and over take a few bytes per record. */
+        assertTrue(encoder.toString(), encoder.ratio() > 3);
+    }
+
+    @Test
+    public void dictionaryOverflow() {
+        Random random = new Random(2);
+        /* every record a new tuple and a new flow, then the first ones again */
+        int distinct = Math.max(IntRecordCodec.MAX_TUPLES, IntRecordCodec.MAX_FLOWS) + 1000;
+        for (int i = 0; i < distinct; i++) {
+            record(i, i, ~i, 0x3f, 0, 1, i & 0xffffffffL, i & 0xff, (i >>> 8) & 0xff,
+                   random.nextLong(), random.nextInt(0x10000), random.nextInt() & 0xffffffffL);
+        }
+        for (int i = 0; i < 2000; i++) {
+            int j = i < 1000 ? i : distinct - 1 - i;
+            record(distinct + i, j, ~j, 0x3f, 0, 1, j & 0xffffffffL, j & 0xff, (j >>> 8) & 0xff,
+                   random.nextLong(), random.nextInt(0x10000), random.nextInt() & 0xffffffffL);
+        }
+        roundTrip(64 * 1024);
+    }
+
+    @Test
+    public void resetStartsNewStream() {
+        record(100, 1, 2, 0x3f, 0, 1, 5, 1, 2, 1000, 3, 4);
+        record(101, 1, 2, 0x3f, 0, 1, 5, 1, 2, 1010, 3, 5);
+        IntRecordCodec.Encoder encoder = new IntRecordCodec.Encoder();
+        IntRecordCodec.Decoder decoder = new IntRecordCodec.Decoder();
+        for (int stream = 0; stream < 2; stream++) {
+            ByteBuffer buf = ByteBuffer.allocate(1024);
+            encoder.reset();
+            encoder.output(buf);
+            for (long[] r : records) {
+                assertTrue(encode(encoder, r));
+            }
+            buf.flip();
+            decoder.reset();
+            List<Long> ingressTimes = new ArrayList<>();
+            decoder.decode(buf, (time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                                 ingressTime, hopLatency, bandwidth) -> ingressTimes.add(ingressTime));
+            assertEquals(2, ingressTimes.size());
+            assertEquals(Long.valueOf(1010), ingressTimes.get(1));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of IntRecordRing claims, drains and drops when full.
+ */
+public class IntRecordRingTest {
+
+    /* the dpids drained, in order */
+    private final List<Long> drained = new ArrayList<>();
+
+    private final IntRecordRing.HopHandler handler = (time, srcIp, dstIp, mapInfo, hop, hops, dpid, inPort, outPort,
+                                                      ingressTime, hopLatency, bandwidth) -> drained.add(dpid);
+
+    /* the record of sequence 'seq' has dpid 'seq'. */
+    private static void put(IntRecordRing ring, long seq) {
+        ring.put(seq, 100, 1, 2, 0x01, 0, 1, seq, -1, -1, -1, -1, -1);
+    }
+
+    @Test
+    public void capacityRoundedUp() {
+        assertEquals(8, new IntRecordRing(5).capacity());
+        assertEquals(8, new IntRecordRing(8).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacity() {
+        new IntRecordRing(0);
+    }
+
+    @Test
+    public void claimAndDrain() {
+        IntRecordRing ring = new IntRecordRing(8);
+        assertEquals(0, ring.claim(3));
+        assertEquals(3, ring.claim(2));
+        assertEquals(5, ring.size());
+        for (long seq = 0; seq < 5; seq++) {
+            put(ring, seq);
+        }
+        assertEquals(2, ring.drain(handler, 2));
+        assertEquals(3, ring.drain(handler, 100));
+        assertEquals(0, ring.drain(handler, 100));
+        assertEquals(0, ring.size());
+        assertEquals(5, drained.size());
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(Long.valueOf(i), drained.get(i));
+        }
+    }
+
+    /* a record claimed but not written yet holds back the ones after it. */
+    @Test
+    public void drainStopsAtUnpublished() {
+        IntRecordRing ring = new IntRecordRing(8);
+        long seq = ring.claim(3);
+        put(ring, seq);
+        put(ring, seq + 2);
+        assertEquals(1, ring.drain(handler, 100));
+        put(ring, seq + 1);
+        assertEquals(2, ring.drain(handler, 100));
+        assertEquals(3, drained.size());
+        assertEquals(Long.valueOf(2), drained.get(2));
+    }
+
+    @Test
+    public void dropAtCapacity() {
+        IntRecordRing ring = new IntRecordRing(8);
+        assertEquals(-1, ring.claim(9));
+        assertEquals(0, ring.claim(6));
+        /* the 3 hops of a packet are all dropped, not only the one past the end */
+        assertEquals(-1, ring.claim(3));
+        assertEquals(6, ring.claim(2));
+        assertEquals(-1, ring.claim(1));
+        assertEquals(3, ring.dropped());
+        assertEquals(8, ring.size());
+
+        /* draining makes room again, the slots are reused */
+        for (long seq = 0; seq < 8; seq++) {
+            put(ring, seq);
+        }
+        assertEquals(4, ring.drain(handler, 4));
+        long seq = ring.claim(4);
+        assertEquals(8, seq);
+        for (int i = 0; i < 4; i++) {
+            put(ring, seq + i);
+        }
+        assertEquals(8, ring.drain(handler, 100));
+        assertEquals(12, drained.size());
+        assertEquals(Long.valueOf(11), drained.get(11));
+        assertEquals(3, ring.dropped());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.test.action;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of LatencyHistogram buckets and the percentiles of its snapshots.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesExact() {
+        for (int v = 0; v < 2 * LatencyHistogram.SUB_BUCKETS; v++) {
+            assertEquals(v, LatencyHistogram.bucket(v));
+            assertEquals(v, LatencyHistogram.highestValue(v));
+        }
+        assertEquals(0, LatencyHistogram.bucket(-5));
+    }
+
+    /* every value is in the bucket whose range holds it, within 1/SUB_BUCKETS of it. */
+    @Test
+    public void bucketRange() {
+        Random random = new Random(1);
+        for (int n = 0; n < 100000; n++) {
+            long v = random.nextLong() >>> (64 - 1 - random.nextInt(LatencyHistogram.MAX_BITS));
+            int bucket = LatencyHistogram.bucket(v);
+            long high = LatencyHistogram.highestValue(bucket);
+            long low = bucket == 0 ? 0 : LatencyHistogram.highestValue(bucket - 1) + 1;
+            assertTrue(v + " in bucket " + bucket + " up to " + high, low <= v && v <= high);
+            assertTrue(v + ": bucket " + low + ".." + high,
+                       high - low <= Math.max(0, v / LatencyHistogram.SUB_BUCKETS));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(LatencyHistogram.MAX_VALUE));
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 1; v <= 1000; v++) {
+            histogram.record(v);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count());
+        assertEquals(500, snapshot.mean());
+        assertEquals(1000, snapshot.max());
+        assertEquals(LatencyHistogram.highestValue(LatencyHistogram.bucket(500)), snapshot.p50());
+        assertEquals(LatencyHistogram.highestValue(LatencyHistogram.bucket(990)), snapshot.p99());
+        /* p999 is in the bucket of the max, not above it */
+        assertEquals(1000, snapshot.p999());
+        assertTrue(snapshot.toString(), snapshot.p50() >= 500 && snapshot.p50() <= 500 * 17 / 16);
+    }
+
+    @Test
+    public void emptyAndClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.count());
+        assertEquals(0, empty.mean());
+        assertEquals(0, empty.p99());
+
+        histogram.record(-3);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.count());
+        assertEquals(0, snapshot.p50());
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.max());
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.p99());
+    }
+
+    @Test
+    public void concurrentRecords() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    histogram.record(i % 100);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(200000, snapshot.count());
+        assertEquals(99, snapshot.max());
+        assertEquals(49, snapshot.mean());
+    }
+}